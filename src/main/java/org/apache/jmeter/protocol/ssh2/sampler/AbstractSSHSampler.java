@@ -17,18 +17,53 @@
  */
 package org.apache.jmeter.protocol.ssh2.sampler;
 
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jmeter.protocol.ssh2.util.SSHAsyncExecutor;
+import org.apache.jmeter.protocol.ssh2.util.SSHAuthMethodCache;
+import org.apache.jmeter.protocol.ssh2.util.SSHClient;
+import org.apache.jmeter.protocol.ssh2.util.SSHClient.SSHResult;
 import org.apache.jmeter.protocol.ssh2.util.SSHClientConfig;
+import org.apache.jmeter.protocol.ssh2.util.SSHConnectionCache;
+import org.apache.jmeter.protocol.ssh2.util.SSHConnectionPool;
+import org.apache.jmeter.protocol.ssh2.util.SSHException;
+import org.apache.jmeter.protocol.ssh2.util.SSHHostInventory;
+import org.apache.jmeter.protocol.ssh2.util.SSHKeyCache;
+import org.apache.jmeter.protocol.ssh2.util.SSHOutputBudget;
+import org.apache.jmeter.protocol.ssh2.util.SSHScript;
+import org.apache.jmeter.protocol.ssh2.util.SSHShellCache;
+import org.apache.jmeter.protocol.ssh2.util.SSHTimeoutException;
+import org.apache.jmeter.protocol.ssh2.util.SSHTransportFactory;
 import org.apache.jmeter.samplers.AbstractSampler;
+import org.apache.jmeter.samplers.SampleResult;
 import org.apache.jmeter.testbeans.TestBean;
+import org.apache.jmeter.testelement.TestStateListener;
+import org.apache.jmeter.testelement.ThreadListener;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jmeter.threads.JMeterVariables;
+import org.apache.jmeter.util.JMeterUtils;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
 
 /**
  * The Class AbstractSSHSampler is parent class for all SSH2 type samplers.
  */
-public abstract class AbstractSSHSampler extends AbstractSampler implements TestBean {
+public abstract class AbstractSSHSampler extends AbstractSampler implements TestBean,
+        ThreadListener, TestStateListener {
 
     /** The Constant serialVersionUID. */
     private static final long   serialVersionUID       = 1L;
 
+    /** The Constant logger. */
+    private static final Logger logger                 = LoggingManager.getLoggerForClass();
+
+    /** Limits the number of threads warming up their connection at same time. */
+    private static Semaphore    warmUpPermits          = null;
+
     /** The response message's template. */
     protected static final String RESPONSE_MSG_TEMPLATE  = "ExitSignal:[{0}], StdErr:[{1}]";
 
@@ -41,6 +76,33 @@ public abstract class AbstractSSHSampler extends AbstractSampler implements Test
     /** The response content type. */
     protected static final String RESPONSE_CONTENT_TYPE  = "text/plain";
 
+    /** The response code of a failed sample. */
+    protected static final String RESPONSE_CODE_ERROR    = "-1";
+
+    /** The response code of a sample failed on a connection or borrow timeout. */
+    protected static final String RESPONSE_CODE_TIMEOUT  = "-2";
+
+    /** The variable holding time (in ms.) taken to get the connection. */
+    public static final String  VAR_ACQUIRE_TIME       = "ssh2.acquireTime";
+
+    /** The variable holding time (in ms.) taken by TCP connect and key exchange. */
+    public static final String  VAR_CONNECT_TIME       = "ssh2.connectTime";
+
+    /** The variable holding time (in ms.) taken by authentication. */
+    public static final String  VAR_AUTH_TIME          = "ssh2.authTime";
+
+    /** The variable holding time (in ms.) taken to open the session. */
+    public static final String  VAR_SESSION_OPEN_TIME  = "ssh2.sessionOpenTime";
+
+    /** The variable holding time (in ms.) to first output byte. */
+    public static final String  VAR_LATENCY            = "ssh2.latency";
+
+    /** SampleResult.setConnectTime(long), available from JMeter 2.13. */
+    private static final Method SET_CONNECT_TIME       = getSampleResultMethod("setConnectTime");
+
+    /** SampleResult.setSentBytes(long), available from JMeter 3.1. */
+    private static final Method SET_SENT_BYTES         = getSampleResultMethod("setSentBytes");
+
     /** The host-name or IP address of remote SSH server. */
     private String              hostname               = null;
 
@@ -65,9 +127,63 @@ public abstract class AbstractSSHSampler extends AbstractSampler implements Test
     /** The connection timeout while creating connection to remote SSH server. */
     private int                 connectionTimeout      = 30000;
 
+    /** The max time (in ms.) to connect and complete the key exchange. */
+    private int                 kexTimeout             = 30000;
+
     /** The max wait for command output. */
     private int               maxWaitForCommandOutput;
 
+    /** Whether the authenticated connection is kept open across samples. */
+    private boolean             reuseConnection        = false;
+
+    /** The max number of connections shared by all threads, 0 to disable. */
+    private int                 connectionPoolSize     = 0;
+
+    /** The max number of sessions per pooled connection. */
+    private int                 maxChannelsPerConnection = 10;
+
+    /** The max time to wait for a pooled connection. */
+    private long                poolBorrowTimeout      = 30000;
+
+    /** Whether connections are opened before the first sample. */
+    private boolean             warmUp                 = false;
+
+    /** Whether an idle session is opened on warmed up connections. */
+    private boolean             warmUpSessions         = false;
+
+    /** The max number of connections opened in parallel during warm-up. */
+    private int                 warmUpConcurrency      = 10;
+
+    /** Whether the thread's connection is to be warmed up before its first sample. */
+    private transient boolean   threadWarmUpPending    = false;
+
+    /** The preferred ciphers (comma separated). */
+    private String              ciphers                = null;
+
+    /** The preferred MACs (comma separated). */
+    private String              macs                   = null;
+
+    /** The preferred server host key algorithms (comma separated). */
+    private String              serverHostKeyAlgorithms = null;
+
+    /** The preferred Diffie-Hellman group exchange size (in bits). */
+    private int                 dhGroupSize            = 0;
+
+    /** Whether TCP_NODELAY is set on the connection socket. */
+    private boolean             tcpNoDelay             = false;
+
+    /** The SSH transport (name or class name), blank for the default. */
+    private String              transport              = null;
+
+    /** The host inventory file, overriding the hostname if set. */
+    private String              hostInventoryFile      = null;
+
+    /** The inline host inventory, used if no inventory file is set. */
+    private String              hostInventory          = null;
+
+    /** The sharding of threads over the inventory's hosts. */
+    private String              hostSharding           = null;
+
     /**
      * Instantiates a new abstract SSH sampler.
      *
@@ -80,11 +196,30 @@ public abstract class AbstractSSHSampler extends AbstractSampler implements Test
     }
 
     /**
-     * Gets the SSHClientConfig initialized with common properties.
+     * Gets the SSHClientConfig initialized with common properties, the server
+     * being the host assigned to the current thread if a host inventory is
+     * set.
+     *
+     * @return the SSHClientConfig initialized with common properties
+     * @throws SSHException
+     *             if the host inventory cannot be read.
+     */
+    protected SSHClientConfig getSSHClientConfig() throws SSHException {
+        SSHClientConfig clientConfig = newSSHClientConfig();
+        SSHHostInventory inventory = getSSHHostInventory();
+        if (inventory != null) {
+            inventory.getHost(Thread.currentThread().getName(), hostSharding).applyTo(clientConfig);
+        }
+        return clientConfig;
+    }
+
+    /**
+     * Creates a new SSHClientConfig initialized with common properties, the
+     * server being the sampler's hostname.
      *
      * @return the SSHClientConfig initialized with common properties
      */
-    protected SSHClientConfig getSSHClientConfig() {
+    protected SSHClientConfig newSSHClientConfig() {
         SSHClientConfig clientConfig = new SSHClientConfig();
         clientConfig.setHostname(hostname);
         clientConfig.setPort(port);
@@ -93,10 +228,288 @@ public abstract class AbstractSSHSampler extends AbstractSampler implements Test
         clientConfig.setSshkeyfile(sshkeyfile);
         clientConfig.setPassphrase(passphrase);
         clientConfig.setConnectionTimeout(connectionTimeout);
+        clientConfig.setKexTimeout(kexTimeout);
         clientConfig.setMaxWaitTimeForOutput(maxWaitForCommandOutput);
+        clientConfig.setReuseConnection(reuseConnection);
+        clientConfig.setConnectionPoolSize(connectionPoolSize);
+        clientConfig.setMaxChannelsPerConnection(maxChannelsPerConnection);
+        clientConfig.setPoolBorrowTimeout(poolBorrowTimeout);
+        clientConfig.setCiphers(ciphers);
+        clientConfig.setMacs(macs);
+        clientConfig.setServerHostKeyAlgorithms(serverHostKeyAlgorithms);
+        clientConfig.setDhGroupSize(dhGroupSize);
+        clientConfig.setTcpNoDelay(tcpNoDelay);
+        clientConfig.setTransport(transport);
         return clientConfig;
     }
 
+    /**
+     * Gets the host inventory, from the inventory file if set, else from the
+     * inline inventory.
+     *
+     * @return the host inventory or null if none is set
+     * @throws SSHException
+     *             if the host inventory cannot be read.
+     */
+    protected SSHHostInventory getSSHHostInventory() throws SSHException {
+        if (StringUtils.isNotBlank(hostInventoryFile)) {
+            return SSHHostInventory.getFileInventory(hostInventoryFile);
+        }
+        if (StringUtils.isNotBlank(hostInventory)) {
+            return SSHHostInventory.getInlineInventory(hostInventory);
+        }
+        return null;
+    }
+
+    /**
+     * Gets the response code of a sample failed with given exception:
+     * {@link #RESPONSE_CODE_TIMEOUT} on connection, key exchange or pool
+     * borrow timeout, {@link #RESPONSE_CODE_ERROR} otherwise.
+     *
+     * @param e
+     *            the exception
+     * @return the response code
+     */
+    protected static String getErrorResponseCode(Exception e) {
+        return e instanceof SSHTimeoutException ? RESPONSE_CODE_TIMEOUT : RESPONSE_CODE_ERROR;
+    }
+
+    /**
+     * Sets the phase timings and byte counts of the SSH result on the sample
+     * result: connect and authentication time as connect time, time to first
+     * output byte as latency. Each phase time is also stored as a variable
+     * (ssh2.acquireTime, ssh2.connectTime, ssh2.authTime,
+     * ssh2.sessionOpenTime and ssh2.latency).
+     *
+     * @param result
+     *            the sample result, sample must be ended
+     * @param sshResult
+     *            the SSH result
+     */
+    protected void setPhaseTimings(SampleResult result,
+                                   SSHResult sshResult)
+    {
+        long latency = result.getTime();
+        if (sshResult.getFirstByteTime() > 0) {
+            latency = Math.max(0, Math.min(latency, sshResult.getFirstByteTime() - result.getStartTime()));
+        }
+        result.setLatency(latency);
+        int bytesReceived = (int) Math.min(Integer.MAX_VALUE, sshResult.getBytesReceived());
+        result.setBodySize(bytesReceived);
+        result.setBytes(bytesReceived);
+        invoke(SET_CONNECT_TIME, result, sshResult.getConnectTime() + sshResult.getAuthTime());
+        invoke(SET_SENT_BYTES, result, sshResult.getBytesSent());
+
+        JMeterVariables variables = JMeterContextService.getContext().getVariables();
+        if (variables != null) {
+            variables.put(VAR_ACQUIRE_TIME, String.valueOf(sshResult.getAcquireTime()));
+            variables.put(VAR_CONNECT_TIME, String.valueOf(sshResult.getConnectTime()));
+            variables.put(VAR_AUTH_TIME, String.valueOf(sshResult.getAuthTime()));
+            variables.put(VAR_SESSION_OPEN_TIME, String.valueOf(sshResult.getSessionOpenTime()));
+            variables.put(VAR_LATENCY, String.valueOf(latency));
+        }
+    }
+
+    /**
+     * Gets the SampleResult's method taking a long argument if available in
+     * the running JMeter version.
+     *
+     * @param name
+     *            the method name
+     * @return the method or null if not available
+     */
+    private static Method getSampleResultMethod(String name) {
+        try {
+            return SampleResult.class.getMethod(name, long.class);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Invokes the SampleResult's method, if available.
+     *
+     * @param method
+     *            the method, may be null
+     * @param result
+     *            the sample result
+     * @param value
+     *            the value
+     */
+    private static void invoke(Method method,
+                               SampleResult result,
+                               long value)
+    {
+        if (method == null) {
+            return;
+        }
+        try {
+            method.invoke(result, Long.valueOf(value));
+        } catch (Exception e) {
+            logger.debug("Failed to invoke " + method.getName(), e);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.apache.jmeter.testelement.ThreadListener#threadStarted()
+     */
+    public void threadStarted() {
+        // properties of test bean are not yet set when thread starts: warm up on first sample
+        threadWarmUpPending = true;
+    }
+
+    /**
+     * Opens the thread's reused connection if warm-up is enabled, once per
+     * thread. Must be called by samplers before their first sample is
+     * started, so that the connection time is not counted in it.
+     */
+    protected void warmUpThread() {
+        if (!threadWarmUpPending) {
+            return;
+        }
+        threadWarmUpPending = false;
+        if (!warmUp || !reuseConnection || connectionPoolSize > 0 || !isWarmUpPossible()) {
+            return;
+        }
+        Semaphore permits = getWarmUpPermits(warmUpConcurrency);
+        permits.acquireUninterruptibly();
+        SSHClientConfig clientConfig = newSSHClientConfig();
+        try {
+            clientConfig = getSSHClientConfig();
+            new SSHClient(clientConfig).warmUp(1, warmUpSessions);
+        } catch (SSHException e) {
+            logger.error("Failed to warm up SSH connection of " + getName() + " for "
+                    + clientConfig.describe(), e);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.apache.jmeter.testelement.ThreadListener#threadFinished()
+     */
+    public void threadFinished() {
+        SSHConnectionCache.closeThreadConnections();
+        SSHShellCache.closeThreadShells();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.apache.jmeter.testelement.TestStateListener#testStarted()
+     */
+    public void testStarted() {
+        if (!warmUp || connectionPoolSize <= 0 || !isWarmUpPossible()) {
+            return;
+        }
+        List<SSHClientConfig> clientConfigs = new ArrayList<SSHClientConfig>();
+        try {
+            SSHHostInventory inventory = getSSHHostInventory();
+            if (inventory == null) {
+                clientConfigs.add(newSSHClientConfig());
+            } else {
+                // one pool per host of the inventory
+                for (SSHHostInventory.Host host : inventory.getHosts()) {
+                    SSHClientConfig clientConfig = newSSHClientConfig();
+                    host.applyTo(clientConfig);
+                    clientConfigs.add(clientConfig);
+                }
+            }
+        } catch (SSHException e) {
+            logger.error("Failed to read host inventory of " + getName(), e);
+            JMeterUtils.reportErrorToUser("Failed to read host inventory of " + getName() + ": " + e.getMessage());
+            return;
+        }
+        for (SSHClientConfig clientConfig : clientConfigs) {
+            try {
+                new SSHClient(clientConfig).warmUp(warmUpConcurrency, warmUpSessions);
+            } catch (SSHException e) {
+                logger.error("Failed to warm up SSH connection pool of " + getName(), e);
+                JMeterUtils.reportErrorToUser("Failed to warm up SSH connections of " + getName()
+                        + " for " + clientConfig.describe() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Checks if warm-up is possible, i.e. the server is known in advance
+     * (hostname or host inventory).
+     *
+     * @return true, if warm-up is possible
+     */
+    private boolean isWarmUpPossible() {
+        if (StringUtils.isNotBlank(hostInventoryFile) || StringUtils.isNotBlank(hostInventory)) {
+            return true;
+        }
+        if (StringUtils.isBlank(hostname) || hostname.contains("${")) {
+            logger.warn("Skipping SSH connection warm-up of " + getName()
+                    + ": hostname is not known in advance");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Gets the permits shared by all threads to limit concurrent warm-up.
+     *
+     * @param concurrency
+     *            the max number of concurrent warm-ups, used on first call
+     * @return the warm-up permits
+     */
+    private static synchronized Semaphore getWarmUpPermits(int concurrency) {
+        if (warmUpPermits == null) {
+            warmUpPermits = new Semaphore(Math.max(1, concurrency), true);
+        }
+        return warmUpPermits;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * org.apache.jmeter.testelement.TestStateListener#testStarted(java.lang.
+     * String)
+     */
+    public void testStarted(String host) {
+        testStarted();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.apache.jmeter.testelement.TestStateListener#testEnded()
+     */
+    public void testEnded() {
+        SSHConnectionCache.closeAll();
+        SSHShellCache.closeAll();
+        SSHConnectionPool.closeAll();
+        SSHScript.clearCache();
+        SSHKeyCache.clear();
+        SSHAuthMethodCache.clear();
+        SSHHostInventory.clear();
+        SSHAsyncExecutor.shutdown();
+        SSHTransportFactory.shutdownAll();
+        SSHOutputBudget.shutdown();
+        synchronized (AbstractSSHSampler.class) {
+            warmUpPermits = null;
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * org.apache.jmeter.testelement.TestStateListener#testEnded(java.lang.String
+     * )
+     */
+    public void testEnded(String host) {
+        testEnded();
+    }
+
     /**
      * Gets the hostname.
      *
@@ -230,6 +643,25 @@ public abstract class AbstractSSHSampler extends AbstractSampler implements Test
         this.connectionTimeout = connectionTimeout;
     }
 
+    /**
+     * Gets the key exchange timeout.
+     *
+     * @return the key exchange timeout
+     */
+    public int getKexTimeout() {
+        return kexTimeout;
+    }
+
+    /**
+     * Sets the key exchange timeout.
+     *
+     * @param kexTimeout
+     *            the new key exchange timeout
+     */
+    public void setKexTimeout(int kexTimeout) {
+        this.kexTimeout = kexTimeout;
+    }
+
     /**
      * Gets the max wait for command output.
      *
@@ -249,5 +681,311 @@ public abstract class AbstractSSHSampler extends AbstractSampler implements Test
         this.maxWaitForCommandOutput = maxWaitForCommandOutput;
     }
 
+    /**
+     * Checks if the authenticated connection is kept open across samples.
+     *
+     * @return true, if connection is reused
+     */
+    public boolean isReuseConnection() {
+        return reuseConnection;
+    }
+
+    /**
+     * Sets whether the authenticated connection is kept open across samples.
+     *
+     * @param reuseConnection
+     *            the new reuse connection
+     */
+    public void setReuseConnection(boolean reuseConnection) {
+        this.reuseConnection = reuseConnection;
+    }
+
+    /**
+     * Gets the max number of connections shared by all threads.
+     *
+     * @return the connection pool size
+     */
+    public int getConnectionPoolSize() {
+        return connectionPoolSize;
+    }
+
+    /**
+     * Sets the max number of connections shared by all threads, 0 to disable
+     * the pool.
+     *
+     * @param connectionPoolSize
+     *            the new connection pool size
+     */
+    public void setConnectionPoolSize(int connectionPoolSize) {
+        this.connectionPoolSize = connectionPoolSize;
+    }
+
+    /**
+     * Gets the max number of sessions per pooled connection.
+     *
+     * @return the max channels per connection
+     */
+    public int getMaxChannelsPerConnection() {
+        return maxChannelsPerConnection;
+    }
+
+    /**
+     * Sets the max number of sessions per pooled connection.
+     *
+     * @param maxChannelsPerConnection
+     *            the new max channels per connection
+     */
+    public void setMaxChannelsPerConnection(int maxChannelsPerConnection) {
+        this.maxChannelsPerConnection = maxChannelsPerConnection;
+    }
+
+    /**
+     * Gets the max time to wait for a pooled connection.
+     *
+     * @return the pool borrow timeout
+     */
+    public long getPoolBorrowTimeout() {
+        return poolBorrowTimeout;
+    }
+
+    /**
+     * Sets the max time to wait for a pooled connection.
+     *
+     * @param poolBorrowTimeout
+     *            the new pool borrow timeout
+     */
+    public void setPoolBorrowTimeout(long poolBorrowTimeout) {
+        this.poolBorrowTimeout = poolBorrowTimeout;
+    }
+
+    /**
+     * Checks if connections are opened before the first sample.
+     *
+     * @return true, if warm-up is enabled
+     */
+    public boolean isWarmUp() {
+        return warmUp;
+    }
+
+    /**
+     * Sets whether connections are opened before the first sample.
+     *
+     * @param warmUp
+     *            the new warm up
+     */
+    public void setWarmUp(boolean warmUp) {
+        this.warmUp = warmUp;
+    }
+
+    /**
+     * Checks if an idle session is opened on warmed up connections.
+     *
+     * @return true, if idle sessions are opened
+     */
+    public boolean isWarmUpSessions() {
+        return warmUpSessions;
+    }
+
+    /**
+     * Sets whether an idle session is opened on warmed up connections.
+     *
+     * @param warmUpSessions
+     *            the new warm up sessions
+     */
+    public void setWarmUpSessions(boolean warmUpSessions) {
+        this.warmUpSessions = warmUpSessions;
+    }
+
+    /**
+     * Gets the max number of connections opened in parallel during warm-up.
+     *
+     * @return the warm up concurrency
+     */
+    public int getWarmUpConcurrency() {
+        return warmUpConcurrency;
+    }
+
+    /**
+     * Sets the max number of connections opened in parallel during warm-up.
+     *
+     * @param warmUpConcurrency
+     *            the new warm up concurrency
+     */
+    public void setWarmUpConcurrency(int warmUpConcurrency) {
+        this.warmUpConcurrency = warmUpConcurrency;
+    }
+
+    /**
+     * Gets the preferred ciphers.
+     *
+     * @return the ciphers
+     */
+    public String getCiphers() {
+        return ciphers;
+    }
+
+    /**
+     * Sets the preferred ciphers.
+     *
+     * @param ciphers
+     *            the new ciphers
+     */
+    public void setCiphers(String ciphers) {
+        this.ciphers = ciphers;
+    }
+
+    /**
+     * Gets the preferred MACs.
+     *
+     * @return the MACs
+     */
+    public String getMacs() {
+        return macs;
+    }
+
+    /**
+     * Sets the preferred MACs.
+     *
+     * @param macs
+     *            the new MACs
+     */
+    public void setMacs(String macs) {
+        this.macs = macs;
+    }
+
+    /**
+     * Gets the preferred server host key algorithms.
+     *
+     * @return the server host key algorithms
+     */
+    public String getServerHostKeyAlgorithms() {
+        return serverHostKeyAlgorithms;
+    }
+
+    /**
+     * Sets the preferred server host key algorithms.
+     *
+     * @param serverHostKeyAlgorithms
+     *            the new server host key algorithms
+     */
+    public void setServerHostKeyAlgorithms(String serverHostKeyAlgorithms) {
+        this.serverHostKeyAlgorithms = serverHostKeyAlgorithms;
+    }
+
+    /**
+     * Gets the preferred Diffie-Hellman group exchange size (in bits).
+     *
+     * @return the DH group size
+     */
+    public int getDhGroupSize() {
+        return dhGroupSize;
+    }
+
+    /**
+     * Sets the preferred Diffie-Hellman group exchange size (in bits).
+     *
+     * @param dhGroupSize
+     *            the new DH group size
+     */
+    public void setDhGroupSize(int dhGroupSize) {
+        this.dhGroupSize = dhGroupSize;
+    }
+
+    /**
+     * Checks if TCP_NODELAY is set on the connection socket.
+     *
+     * @return true, if TCP_NODELAY is set
+     */
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    /**
+     * Sets whether TCP_NODELAY is set on the connection socket.
+     *
+     * @param tcpNoDelay
+     *            the new TCP no delay
+     */
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    /**
+     * Gets the SSH transport.
+     *
+     * @return the transport name or class name
+     */
+    public String getTransport() {
+        return transport;
+    }
+
+    /**
+     * Sets the SSH transport.
+     *
+     * @param transport
+     *            the new transport name or class name
+     */
+    public void setTransport(String transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Gets the host inventory file.
+     *
+     * @return the host inventory file
+     */
+    public String getHostInventoryFile() {
+        return hostInventoryFile;
+    }
+
+    /**
+     * Sets the host inventory file.
+     *
+     * @param hostInventoryFile
+     *            the new host inventory file
+     * @see SSHHostInventory
+     */
+    public void setHostInventoryFile(String hostInventoryFile) {
+        this.hostInventoryFile = hostInventoryFile;
+    }
+
+    /**
+     * Gets the inline host inventory.
+     *
+     * @return the inline host inventory
+     */
+    public String getHostInventory() {
+        return hostInventory;
+    }
+
+    /**
+     * Sets the inline host inventory.
+     *
+     * @param hostInventory
+     *            the new inline host inventory
+     * @see SSHHostInventory
+     */
+    public void setHostInventory(String hostInventory) {
+        this.hostInventory = hostInventory;
+    }
+
+    /**
+     * Gets the sharding of threads over the inventory's hosts.
+     *
+     * @return the host sharding
+     */
+    public String getHostSharding() {
+        return hostSharding;
+    }
+
+    /**
+     * Sets the sharding of threads over the inventory's hosts.
+     *
+     * @param hostSharding
+     *            the new host sharding
+     */
+    public void setHostSharding(String hostSharding) {
+        this.hostSharding = hostSharding;
+    }
 
 }
@@ -19,6 +19,7 @@ package org.apache.jmeter.protocol.ssh2.sampler;
 
 import java.beans.PropertyDescriptor;
 
+import org.apache.jmeter.protocol.ssh2.util.SSHHostInventory;
 import org.apache.jmeter.testbeans.BeanInfoSupport;
 import org.apache.jmeter.testbeans.gui.FileEditor;
 import org.apache.jmeter.testbeans.gui.TypeEditor;
@@ -41,8 +42,41 @@ public abstract class AbstractSSHSamplerBeanInfo extends BeanInfoSupport {
                     "hostname",
                     "port",
                     "connectionTimeout",
+                    "kexTimeout",
                     "maxWaitForCommandOutput",
-                    "username"
+                    "username",
+                    "reuseConnection"
+                });
+
+        createPropertyGroup("hostInventoryGroup",
+                new String[]{
+                    "hostInventoryFile",
+                    "hostInventory",
+                    "hostSharding"
+                });
+
+        createPropertyGroup("connectionPool",
+                new String[]{
+                    "connectionPoolSize",
+                    "maxChannelsPerConnection",
+                    "poolBorrowTimeout"
+                });
+
+        createPropertyGroup("warmUpGroup",
+                new String[]{
+                    "warmUp",
+                    "warmUpSessions",
+                    "warmUpConcurrency"
+                });
+
+        createPropertyGroup("algorithms",
+                new String[]{
+                    "ciphers",
+                    "macs",
+                    "serverHostKeyAlgorithms",
+                    "dhGroupSize",
+                    "tcpNoDelay",
+                    "transport"
                 });
 
         createPropertyGroup("authWithPassword",
@@ -70,6 +104,10 @@ public abstract class AbstractSSHSamplerBeanInfo extends BeanInfoSupport {
         p.setValue(NOT_UNDEFINED, Boolean.TRUE);
         p.setValue(DEFAULT, new Integer(30000));
 
+        p = property("kexTimeout");
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, new Integer(30000));
+
         p = property("maxWaitForCommandOutput");
         p.setValue(NOT_UNDEFINED, Boolean.TRUE);
         p.setValue(DEFAULT, new Integer(10000));
@@ -79,6 +117,80 @@ public abstract class AbstractSSHSamplerBeanInfo extends BeanInfoSupport {
         p.setValue(NOT_UNDEFINED, Boolean.TRUE);
         p.setValue(DEFAULT, "");
 
+        p = property("reuseConnection");
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, Boolean.FALSE);
+
+        // host inventory
+        p = property("hostInventoryFile");
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, "");
+        p.setPropertyEditorClass(FileEditor.class);
+
+        p = property("hostInventory", TypeEditor.TextAreaEditor);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, "");
+
+        p = property("hostSharding");
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, SSHHostInventory.SHARDING_CONSISTENT_HASH);
+        p.setValue(NOT_OTHER, Boolean.TRUE);
+        p.setValue(TAGS, new String[]{
+                SSHHostInventory.SHARDING_CONSISTENT_HASH,
+                SSHHostInventory.SHARDING_ROUND_ROBIN
+        });
+
+        // connection pool
+        p = property("connectionPoolSize");
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, new Integer(0));
+
+        p = property("maxChannelsPerConnection");
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, new Integer(10));
+
+        p = property("poolBorrowTimeout");
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, new Long(30000));
+
+        // warm-up
+        p = property("warmUp");
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, Boolean.FALSE);
+
+        p = property("warmUpSessions");
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, Boolean.FALSE);
+
+        p = property("warmUpConcurrency");
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, new Integer(10));
+
+        // algorithms
+        p = property("ciphers");
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, "");
+
+        p = property("macs");
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, "");
+
+        p = property("serverHostKeyAlgorithms");
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, "");
+
+        p = property("dhGroupSize");
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, new Integer(0));
+
+        p = property("tcpNoDelay");
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, Boolean.FALSE);
+
+        p = property("transport");
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, "ganymed");
+
         p = property("password", TypeEditor.PasswordEditor);
         p.setValue(NOT_UNDEFINED, Boolean.TRUE);
         p.setValue(DEFAULT, "");
@@ -19,26 +19,73 @@ package org.apache.jmeter.protocol.ssh2.sampler;
 
 import java.io.StringWriter;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 
+import org.apache.commons.lang3.StringUtils;
 import org.apache.jmeter.protocol.ssh2.util.SSHClient;
 import org.apache.jmeter.protocol.ssh2.util.SSHClient.SSHResult;
+import org.apache.jmeter.protocol.ssh2.util.SSHClient.SSHStepResult;
 import org.apache.jmeter.protocol.ssh2.util.SSHClientConfig;
+import org.apache.jmeter.protocol.ssh2.util.SSHOutputSink;
 import org.apache.jmeter.samplers.Entry;
 import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jmeter.threads.JMeterVariables;
 
 /**
  * SSH Command Sampler that executes a single command on remote SSH server and
  * returns its output as response data.
+ * <p>
+ * If parallel commands are set, they are executed at the same time, each on
+ * its own session of one connection, and each gives one sub-result.
+ * <p>
+ * The output of a single command may be sent to a sink (see
+ * {@link SSHOutputSink}) instead of memory, the response data being only its
+ * preview, or its last bytes with the tail sink.
  */
 public class SSHCommandSampler extends AbstractSSHSampler {
 
     /** The Constant serialVersionUID. */
-    private static final long serialVersionUID = 1L;
+    private static final long   serialVersionUID     = 1L;
+
+    /** The variable holding the output size (in bytes). */
+    public static final String  VAR_OUTPUT_SIZE       = "ssh2.outputSize";
+
+    /** The variable holding the output digest, if computed by the sink. */
+    public static final String  VAR_OUTPUT_DIGEST     = "ssh2.outputDigest";
+
+    /** The variable holding the output throughput (in MB/s). */
+    public static final String  VAR_OUTPUT_THROUGHPUT = "ssh2.outputThroughput";
 
     /** The command. */
     private String            command;
 
-    /** The wait time in sec. */
+    /** The commands executed in parallel, one per line. */
+    private String            parallelCommands;
+
+    /** The sink of the command's output. */
+    private String            outputSink;
+
+    /** The local file the output is written to by the file sink. */
+    private String            outputFile;
+
+    /** The number of output bytes kept as preview by a sink. */
+    private int               outputPreviewSize;
+
+    /** Whether the tail sink keeps its ring buffer off heap. */
+    private boolean           outputOffHeap;
+
+    /** The expected output digest, blank if not checked. */
+    private String            expectedDigest;
+
+    /**
+     * The wait time in sec.
+     *
+     * @deprecated ignored, kept to load existing test plans.
+     */
+    @Deprecated
     private int               waitTimeInSec;
 
     /**
@@ -56,6 +103,7 @@ public class SSHCommandSampler extends AbstractSSHSampler {
      * Entry)
      */
     public SampleResult sample(Entry entry) {
+        warmUpThread();
         SampleResult result = new SampleResult();
         result.setSampleLabel(super.getName());
         result.setDataType(RESPONSE_DATA_TYPE);
@@ -64,18 +112,29 @@ public class SSHCommandSampler extends AbstractSSHSampler {
 
         try {
 
-            result.setSamplerData(command);
+            List<String> commands = getLines(parallelCommands);
+            result.setSamplerData(commands.isEmpty() ? command : parallelCommands);
             SSHClientConfig sshClientConfig = this.getSSHClientConfig();
+            sshClientConfig.setOutputSink(outputSink);
+            sshClientConfig.setOutputFile(outputFile);
+            sshClientConfig.setOutputPreviewSize(outputPreviewSize);
+            sshClientConfig.setOutputOffHeap(outputOffHeap);
             SSHClient sshClient = new SSHClient(sshClientConfig);
 
-            SSHResult sshCmdResult = sshClient.executeCmd(command, waitTimeInSec);
+            SSHResult sshCmdResult = commands.isEmpty() ? sshClient.executeCmd(command)
+                    : sshClient.executeCmdsInParallel(commands);
 
             // fetch the result
             result.sampleEnd();
-            result.setSuccessful(true);
-            result.setResponseMessage(MessageFormat.format(RESPONSE_MSG_TEMPLATE,
-                                                           sshCmdResult.getExitSignal(),
-                                                           sshCmdResult.getStdErr()));
+            setPhaseTimings(result, sshCmdResult);
+            result.setSuccessful(addChannelResults(result, sshCmdResult));
+            String responseMessage = MessageFormat.format(RESPONSE_MSG_TEMPLATE,
+                                                          sshCmdResult.getExitSignal(),
+                                                          sshCmdResult.getStdErr());
+            if (commands.isEmpty()) {
+                responseMessage = checkOutput(result, sshCmdResult) + responseMessage;
+            }
+            result.setResponseMessage(responseMessage);
             result.setResponseCode(String.valueOf(sshCmdResult.getExitStatus()));
             result.setResponseData(sshCmdResult.getStdOut(), RESPONSE_DATA_ENCODING);
         } catch (Exception e) {
@@ -86,12 +145,117 @@ public class SSHCommandSampler extends AbstractSSHSampler {
             StringWriter stringWriter = new StringWriter();
             e.printStackTrace(new java.io.PrintWriter(stringWriter));
             result.setResponseData(stringWriter.toString(), RESPONSE_DATA_ENCODING);
-            result.setResponseCode("-1");
+            result.setResponseCode(getErrorResponseCode(e));
 
         }
         return result;
     }
 
+    /**
+     * Adds one sub-result per command executed in parallel, with its own
+     * timings, output and exit status.
+     *
+     * @param result
+     *            the sample result
+     * @param sshResult
+     *            the SSH result
+     * @return true, if all commands completed in time
+     */
+    private boolean addChannelResults(SampleResult result,
+                                      SSHResult sshResult)
+    {
+        boolean completed = true;
+        int channel = 0;
+        for (SSHStepResult step : sshResult.getSteps()) {
+            SampleResult subResult = new SampleResult();
+            subResult.setSampleLabel("#" + (++channel) + " " + step.getCommand());
+            subResult.setSamplerData(step.getCommand());
+            subResult.setDataType(RESPONSE_DATA_TYPE);
+            subResult.setContentType(RESPONSE_CONTENT_TYPE);
+            subResult.setStampAndTime(step.getStartTime(), step.getEndTime() - step.getStartTime());
+            subResult.setResponseData(step.getStdOut(), RESPONSE_DATA_ENCODING);
+            subResult.setBodySize(subResult.getResponseData().length);
+            subResult.setBytes(subResult.getResponseData().length);
+            subResult.setResponseCode(String.valueOf(step.getExitStatus()));
+            subResult.setSuccessful(step.isCompleted());
+            if (step.isCompleted()) {
+                subResult.setResponseMessage(MessageFormat.format(RESPONSE_MSG_TEMPLATE, null, step.getStdErr()));
+            } else {
+                subResult.setResponseMessage("Command not completed within " + getMaxWaitForCommandOutput() + " ms");
+                completed = false;
+            }
+            // bytes are already counted by the parent result
+            result.addRawSubResult(subResult);
+        }
+        return completed;
+    }
+
+    /**
+     * Publishes the output size, digest and throughput as variables and
+     * checks the digest if expected.
+     *
+     * @param result
+     *            the sample result, failed if digest does not match
+     * @param sshResult
+     *            the SSH result
+     * @return the output description prefixing the response message, empty
+     *         if output is kept in memory
+     */
+    private String checkOutput(SampleResult result,
+                               SSHResult sshResult)
+    {
+        long elapsed = result.getEndTime() - (sshResult.getFirstByteTime() > 0 ? sshResult.getFirstByteTime()
+                : result.getStartTime());
+        double throughput = sshResult.getOutputSize() / 1048576d / (Math.max(1, elapsed) / 1000d);
+        String throughputText = String.format(Locale.ROOT, "%.2f", throughput);
+        JMeterVariables variables = JMeterContextService.getContext().getVariables();
+        if (variables != null) {
+            variables.put(VAR_OUTPUT_SIZE, String.valueOf(sshResult.getOutputSize()));
+            variables.put(VAR_OUTPUT_THROUGHPUT, throughputText);
+            if (sshResult.getOutputDigest() != null) {
+                variables.put(VAR_OUTPUT_DIGEST, sshResult.getOutputDigest());
+            } else {
+                variables.remove(VAR_OUTPUT_DIGEST);
+            }
+        }
+        if (StringUtils.isBlank(outputSink) || SSHOutputSink.MEMORY.equalsIgnoreCase(outputSink.trim())) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder("Output:[").append(sshResult.getOutputSize()).append(" bytes, ")
+                .append(throughputText).append(" MB/s");
+        if (sshResult.getOutputDigest() != null) {
+            sb.append(", ").append(outputSink.trim()).append("=").append(sshResult.getOutputDigest());
+            if (StringUtils.isNotBlank(expectedDigest)
+                    && !expectedDigest.trim().equalsIgnoreCase(sshResult.getOutputDigest())) {
+                sb.append(" (expected ").append(expectedDigest.trim()).append(")");
+                result.setSuccessful(false);
+            }
+        }
+        if (SSHOutputSink.FILE.equalsIgnoreCase(outputSink.trim())) {
+            sb.append(", file=").append(outputFile);
+        }
+        return sb.append("], ").toString();
+    }
+
+    /**
+     * Gets the non blank lines of given text.
+     *
+     * @param text
+     *            the text, may be null
+     * @return the lines, trimmed
+     */
+    private static List<String> getLines(String text) {
+        List<String> lines = new ArrayList<String>();
+        if (text != null) {
+            for (String line : text.split("[\r\n]+")) {
+                if (line.trim().length() > 0) {
+                    lines.add(line.trim());
+                }
+            }
+        }
+        return lines;
+    }
+
     /**
      * Gets the command.
      *
@@ -111,11 +275,129 @@ public class SSHCommandSampler extends AbstractSSHSampler {
         this.command = command;
     }
 
+    /**
+     * Gets the commands executed in parallel.
+     *
+     * @return the parallel commands, one per line
+     */
+    public String getParallelCommands() {
+        return parallelCommands;
+    }
+
+    /**
+     * Sets the commands executed in parallel, each on its own session of one
+     * connection. Overrides the command if not blank.
+     *
+     * @param parallelCommands
+     *            the new parallel commands, one per line
+     */
+    public void setParallelCommands(String parallelCommands) {
+        this.parallelCommands = parallelCommands;
+    }
+
+    /**
+     * Gets the output sink.
+     *
+     * @return the output sink
+     */
+    public String getOutputSink() {
+        return outputSink;
+    }
+
+    /**
+     * Sets the sink of the command's output (see {@link SSHOutputSink}).
+     *
+     * @param outputSink
+     *            the new output sink
+     */
+    public void setOutputSink(String outputSink) {
+        this.outputSink = outputSink;
+    }
+
+    /**
+     * Gets the output file.
+     *
+     * @return the output file
+     */
+    public String getOutputFile() {
+        return outputFile;
+    }
+
+    /**
+     * Sets the local file the output is written to by the file sink.
+     *
+     * @param outputFile
+     *            the new output file
+     */
+    public void setOutputFile(String outputFile) {
+        this.outputFile = outputFile;
+    }
+
+    /**
+     * Gets the output preview size.
+     *
+     * @return the output preview size
+     */
+    public int getOutputPreviewSize() {
+        return outputPreviewSize;
+    }
+
+    /**
+     * Sets the number of output bytes kept as preview by a sink.
+     *
+     * @param outputPreviewSize
+     *            the new output preview size
+     */
+    public void setOutputPreviewSize(int outputPreviewSize) {
+        this.outputPreviewSize = outputPreviewSize;
+    }
+
+    /**
+     * Checks if the tail sink keeps its ring buffer off heap.
+     *
+     * @return true, if off heap
+     */
+    public boolean isOutputOffHeap() {
+        return outputOffHeap;
+    }
+
+    /**
+     * Sets whether the tail sink keeps its ring buffer off heap.
+     *
+     * @param outputOffHeap
+     *            the new output off heap
+     */
+    public void setOutputOffHeap(boolean outputOffHeap) {
+        this.outputOffHeap = outputOffHeap;
+    }
+
+    /**
+     * Gets the expected digest.
+     *
+     * @return the expected digest
+     */
+    public String getExpectedDigest() {
+        return expectedDigest;
+    }
+
+    /**
+     * Sets the expected output digest, the sample failing if the digest
+     * computed by the sink differs.
+     *
+     * @param expectedDigest
+     *            the new expected digest, blank if not checked
+     */
+    public void setExpectedDigest(String expectedDigest) {
+        this.expectedDigest = expectedDigest;
+    }
+
     /**
      * Gets the wait time in sec.
      *
      * @return the wait time in sec
+     * @deprecated ignored, the command completes as soon as it exits.
      */
+    @Deprecated
     public int getWaitTimeInSec() {
         return waitTimeInSec;
     }
@@ -125,7 +407,9 @@ public class SSHCommandSampler extends AbstractSSHSampler {
      *
      * @param waitTimeInSec
      *            the new wait time in sec
+     * @deprecated ignored, the command completes as soon as it exits.
      */
+    @Deprecated
     public void setWaitTimeInSec(int waitTimeInSec) {
         this.waitTimeInSec = waitTimeInSec;
     }
@@ -19,6 +19,10 @@ package org.apache.jmeter.protocol.ssh2.sampler;
 
 import java.beans.PropertyDescriptor;
 
+import org.apache.jmeter.protocol.ssh2.util.SSHOutputSink;
+import org.apache.jmeter.testbeans.gui.FileEditor;
+import org.apache.jmeter.testbeans.gui.TypeEditor;
+
 /**
  * The Class SSHCommandSamplerBeanInfo.
  */
@@ -32,15 +36,56 @@ public class SSHCommandSamplerBeanInfo extends AbstractSSHSamplerBeanInfo {
         super(SSHCommandSampler.class);
 
         createPropertyGroup("execute",
-                            new String[] { "command", "waitTimeInSec",  });
+                            new String[] { "command", "parallelCommands" });
 
         PropertyDescriptor p = property("command");
         p.setValue(NOT_UNDEFINED, Boolean.TRUE);
         p.setValue(DEFAULT, "date");
 
+        p = property("parallelCommands", TypeEditor.TextAreaEditor);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, "");
+        p.setValue(TEXT_LANGUAGE, "bash");
+
+        createPropertyGroup("output",
+                            new String[] { "outputSink", "outputFile", "outputPreviewSize", "outputOffHeap",
+                                           "expectedDigest" });
+
+        p = property("outputSink");
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, SSHOutputSink.MEMORY);
+        p.setValue(NOT_OTHER, Boolean.TRUE);
+        p.setValue(TAGS, new String[]{
+                SSHOutputSink.MEMORY,
+                SSHOutputSink.COUNT,
+                SSHOutputSink.MD5,
+                SSHOutputSink.SHA256,
+                SSHOutputSink.FILE,
+                SSHOutputSink.TAIL
+        });
+
+        p = property("outputFile");
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, "");
+        p.setPropertyEditorClass(FileEditor.class);
+
+        p = property("outputPreviewSize");
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, SSHOutputSink.DEFAULT_PREVIEW_SIZE);
+
+        p = property("outputOffHeap");
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, Boolean.FALSE);
+
+        p = property("expectedDigest");
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, "");
+
+        // deprecated: command completes on exit, kept to load old test plans
         p = property("waitTimeInSec");
         p.setValue(NOT_UNDEFINED, Boolean.TRUE);
-        p.setValue(DEFAULT, 1);
+        p.setValue(DEFAULT, 0);
+        p.setHidden(true);
 
         p = property("maxWaitForCommandOutput");
         p.setValue(NOT_UNDEFINED, Boolean.TRUE);
@@ -0,0 +1,678 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.protocol.ssh2.sampler;
+
+import java.io.StringWriter;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jmeter.protocol.ssh2.util.SSHAsyncExecutor;
+import org.apache.jmeter.protocol.ssh2.util.SSHClient;
+import org.apache.jmeter.protocol.ssh2.util.SSHClient.SSHResult;
+import org.apache.jmeter.protocol.ssh2.util.SSHClientConfig;
+import org.apache.jmeter.protocol.ssh2.util.SSHException;
+import org.apache.jmeter.protocol.ssh2.util.SSHHostInventory;
+import org.apache.jmeter.protocol.ssh2.util.SSHResultCallback;
+import org.apache.jmeter.protocol.ssh2.util.SSHTimeoutException;
+import org.apache.jmeter.samplers.Entry;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jmeter.threads.JMeterVariables;
+
+/**
+ * SSH Fan-out Sampler that executes a single command on a list of hosts in
+ * parallel. Each host gives one sub-result with its own timings and output,
+ * the sample result holds the time until the last host completed and the
+ * timings aggregated over hosts.
+ * <p>
+ * Hosts are run on threads of the sampler's own executor (see
+ * {@link SSHClient#submitCmd(String, SSHResultCallback, ExecutorService)}),
+ * 'max parallel hosts' of them, so that hosts never wait for the threads of
+ * other samplers. The threads are kept by the JMeter thread until it
+ * finishes. If no host is set, the command runs on all hosts of the host
+ * inventory.
+ */
+public class SSHFanOutSampler extends AbstractSSHSampler {
+
+    /** The Constant serialVersionUID. */
+    private static final long         serialVersionUID     = 1L;
+
+    /** The variable holding the number of hosts which failed. */
+    public static final String        VAR_FAILED_HOSTS     = "ssh2.fanOut.failedHosts";
+
+    /** The variable holding the slowest host. */
+    public static final String        VAR_SLOWEST_HOST     = "ssh2.fanOut.slowestHost";
+
+    /** The variable holding the time (in ms.) of the slowest host. */
+    public static final String        VAR_MAX_TIME         = "ssh2.fanOut.maxTime";
+
+    /** The variable holding the 95th percentile of host times (in ms.). */
+    public static final String        VAR_P95_TIME         = "ssh2.fanOut.p95Time";
+
+    /** The time (in ms.) a host may take over its timeouts before it is timed out. */
+    private static final long         HOST_TIMEOUT_MARGIN  = 1000;
+
+    /** The response message's template of the aggregated timings. */
+    private static final String       FAN_OUT_MSG_TEMPLATE = "Hosts: {0}, failed: {1}, min: {2} ms, avg: {3} ms, p95: {4} ms, max: {5} ms ({6})";
+
+    /** The command. */
+    private String                    command;
+
+    /** The hosts, separated by commas or white spaces. */
+    private String                    hosts;
+
+    /** The max number of hosts the command runs on at the same time. */
+    private int                       maxParallelHosts;
+
+    /** The executor running the hosts of this sampler's thread, created on first use. */
+    private transient ExecutorService hostExecutor;
+
+    /** The number of threads of the host executor. */
+    private transient int             hostExecutorSize;
+
+    /**
+     * Instantiates a new SSH fan-out sampler.
+     */
+    public SSHFanOutSampler() {
+        super("SSH2 Fan-out Sampler");
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * org.apache.jmeter.samplers.Sampler#sample(org.apache.jmeter.samplers.
+     * Entry)
+     */
+    public SampleResult sample(Entry entry) {
+        warmUpThread();
+        SampleResult result = new SampleResult();
+        result.setSampleLabel(super.getName());
+        result.setDataType(RESPONSE_DATA_TYPE);
+        result.setContentType(RESPONSE_CONTENT_TYPE);
+        result.sampleStart();
+
+        try {
+
+            result.setSamplerData(command);
+            List<String> targets = new ArrayList<String>();
+            List<SSHClientConfig> configs = getTargetConfigs(targets);
+            List<HostExecution> executions = execute(targets, configs);
+
+            // fetch the results
+            result.sampleEnd();
+            addHostResults(result, executions);
+        } catch (Exception e) {
+            result.sampleEnd();
+            result.setSuccessful(false);
+            result.setResponseMessage("Exception: " + e);
+            // get stack trace as a String to return as document data
+            StringWriter stringWriter = new StringWriter();
+            e.printStackTrace(new java.io.PrintWriter(stringWriter));
+            result.setResponseData(stringWriter.toString(), RESPONSE_DATA_ENCODING);
+            result.setResponseCode(getErrorResponseCode(e));
+
+        }
+        return result;
+    }
+
+    /**
+     * Executes the command on all targets, at most max parallel hosts at a
+     * time, and waits until all have completed. A host not completed within
+     * its timeout (see {@link #getHostTimeout()}) is timed out: its execution
+     * is cancelled, and the hosts not yet started are not.
+     *
+     * @param targets
+     *            the targets, labelling the results
+     * @param configs
+     *            the SSH client configs of the targets
+     * @return the executions, in the order of targets
+     * @throws SSHException
+     *             if there is no target.
+     * @throws InterruptedException
+     *             if interrupted while waiting, executions in flight are
+     *             cancelled.
+     */
+    private List<HostExecution> execute(List<String> targets,
+                                        List<SSHClientConfig> configs) throws SSHException, InterruptedException
+    {
+        if (targets.isEmpty()) {
+            throw new SSHException("No host to execute the command on");
+        }
+
+        long hostTimeout = getHostTimeout();
+        int parallelHosts = Math.max(1, maxParallelHosts);
+        ExecutorService executor = getHostExecutor(parallelHosts);
+        Semaphore permits = new Semaphore(parallelHosts);
+        CountDownLatch done = new CountDownLatch(targets.size());
+        List<HostExecution> executions = new ArrayList<HostExecution>(targets.size());
+        List<Future<SSHResult>> futures = new ArrayList<Future<SSHResult>>(targets.size());
+        try {
+            boolean timedOut = false;
+            for (int i = 0; i < targets.size(); i++) {
+                HostExecution execution = new HostExecution(targets.get(i), permits, done);
+                executions.add(execution);
+                timedOut = timedOut || !acquire(permits, hostTimeout);
+                if (timedOut) {
+                    // no host running completed in time
+                    execution.timedOut("not started, hosts running did not complete within " + hostTimeout + " ms");
+                    futures.add(null);
+                    continue;
+                }
+                try {
+                    futures.add(new SSHClient(configs.get(i)).submitCmd(command, execution, executor));
+                } catch (RejectedExecutionException e) {
+                    // releases the permit
+                    execution.failed(new SSHException("SSH execution rejected", e));
+                    futures.add(null);
+                }
+            }
+            if (!await(done, hostTimeout)) {
+                for (int i = 0; i < executions.size(); i++) {
+                    if (executions.get(i).timedOut("not completed within " + hostTimeout + " ms")) {
+                        futures.get(i).cancel(true);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            for (Future<SSHResult> future : futures) {
+                if (future != null) {
+                    future.cancel(true);
+                }
+            }
+            throw e;
+        }
+        return executions;
+    }
+
+    /**
+     * Gets the executor running the hosts, created with given number of
+     * threads if none or if the number of parallel hosts changed.
+     *
+     * @param threads
+     *            the number of threads
+     * @return the host executor
+     */
+    private ExecutorService getHostExecutor(int threads) {
+        if (hostExecutor != null && hostExecutorSize != threads) {
+            SSHAsyncExecutor.shutdown(hostExecutor);
+            hostExecutor = null;
+        }
+        if (hostExecutor == null) {
+            hostExecutor = SSHAsyncExecutor.newExecutor("SSH-fan-out", threads);
+            hostExecutorSize = threads;
+        }
+        return hostExecutor;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.apache.jmeter.protocol.ssh2.sampler.AbstractSSHSampler#threadFinished()
+     */
+    @Override
+    public void threadFinished() {
+        if (hostExecutor != null) {
+            SSHAsyncExecutor.shutdown(hostExecutor);
+            hostExecutor = null;
+        }
+        super.threadFinished();
+    }
+
+    /**
+     * Gets the max time (in ms.) the command may take on one host: its
+     * connection, key exchange and pool borrow timeouts plus the max wait for
+     * output. Executions end by themselves within it, it only bounds the wait
+     * for executions which would never complete.
+     *
+     * @return the host timeout, 0 for no limit
+     */
+    private long getHostTimeout() {
+        if (getMaxWaitForCommandOutput() <= 0) {
+            return 0;
+        }
+        return (long) getConnectionTimeout() + getKexTimeout() + getPoolBorrowTimeout()
+                + getMaxWaitForCommandOutput() + HOST_TIMEOUT_MARGIN;
+    }
+
+    /**
+     * Acquires a permit of parallel hosts.
+     *
+     * @param permits
+     *            the permits of parallel hosts
+     * @param timeout
+     *            the max time to wait (in ms.), 0 for no limit
+     * @return true, if acquired. false, if timeout reached
+     * @throws InterruptedException
+     *             if interrupted while waiting.
+     */
+    private static boolean acquire(Semaphore permits,
+                                   long timeout) throws InterruptedException
+    {
+        if (timeout <= 0) {
+            permits.acquire();
+            return true;
+        }
+        return permits.tryAcquire(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Waits until all hosts have completed.
+     *
+     * @param done
+     *            the latch counting down completed hosts
+     * @param timeout
+     *            the max time to wait (in ms.), 0 for no limit
+     * @return true, if all completed. false, if timeout reached
+     * @throws InterruptedException
+     *             if interrupted while waiting.
+     */
+    private static boolean await(CountDownLatch done,
+                                 long timeout) throws InterruptedException
+    {
+        if (timeout <= 0) {
+            done.await();
+            return true;
+        }
+        return done.await(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Gets the SSH client configs of the hosts, or of all hosts of the host
+     * inventory if no host is set.
+     *
+     * @param targets
+     *            the list receiving the targets, labelling the results
+     * @return the SSH client configs, in the order of targets
+     * @throws SSHException
+     *             if a host is invalid or the inventory cannot be read.
+     */
+    private List<SSHClientConfig> getTargetConfigs(List<String> targets) throws SSHException {
+        List<SSHClientConfig> configs = new ArrayList<SSHClientConfig>();
+        if (StringUtils.isNotBlank(hosts)) {
+            for (String target : getTargets(hosts)) {
+                targets.add(target);
+                configs.add(newSSHClientConfig(target));
+            }
+            return configs;
+        }
+        SSHHostInventory inventory = getSSHHostInventory();
+        if (inventory != null) {
+            for (SSHHostInventory.Host host : inventory.getHosts()) {
+                SSHClientConfig config = newSSHClientConfig();
+                host.applyTo(config);
+                targets.add(host.toString());
+                configs.add(config);
+            }
+        }
+        return configs;
+    }
+
+    /**
+     * Creates the SSH client config of given target.
+     *
+     * @param target
+     *            the target, 'host' or 'host:port'
+     * @return the SSH client config
+     * @throws SSHException
+     *             if the port is invalid.
+     */
+    private SSHClientConfig newSSHClientConfig(String target) throws SSHException {
+        SSHClientConfig config = newSSHClientConfig();
+        setTarget(config, target);
+        return config;
+    }
+
+    /**
+     * Sets the host name, and the port if any, of given target to the SSH
+     * client config.
+     *
+     * @param config
+     *            the SSH client config
+     * @param target
+     *            the target, 'host' or 'host:port', an IPv6 address with a
+     *            port being enclosed in brackets
+     * @throws SSHException
+     *             if the port is invalid.
+     */
+    static void setTarget(SSHClientConfig config,
+                          String target) throws SSHException
+    {
+        int colon = target.lastIndexOf(':');
+        if (colon < 0 || target.endsWith("]") || (target.indexOf(':') != colon && !target.startsWith("["))) {
+            // host name, IPv4 or IPv6 address without port
+            config.setHostname(StringUtils.strip(target, "[]"));
+            return;
+        }
+        config.setHostname(StringUtils.strip(target.substring(0, colon), "[]"));
+        try {
+            config.setPort(Integer.parseInt(target.substring(colon + 1)));
+        } catch (NumberFormatException e) {
+            throw new SSHException("Invalid port in host " + target, e);
+        }
+    }
+
+    /**
+     * Adds one sub-result per host and sets the aggregated timings, as
+     * response message and variables (ssh2.fanOut.failedHosts,
+     * ssh2.fanOut.slowestHost, ssh2.fanOut.maxTime and ssh2.fanOut.p95Time).
+     * The sample is successful if the command could be executed on all
+     * hosts.
+     *
+     * @param result
+     *            the sample result, sample must be ended
+     * @param executions
+     *            the completed executions
+     */
+    private void addHostResults(SampleResult result,
+                                List<HostExecution> executions)
+    {
+        long[] times = new long[executions.size()];
+        long total = 0;
+        long bytes = 0;
+        int failed = 0;
+        HostExecution slowest = null;
+        StringBuilder summary = new StringBuilder();
+        for (int i = 0; i < executions.size(); i++) {
+            HostExecution execution = executions.get(i);
+            SampleResult subResult = execution.toSampleResult();
+            // bytes are counted by the parent result
+            result.addRawSubResult(subResult);
+            times[i] = subResult.getTime();
+            total += times[i];
+            bytes += subResult.getBytes();
+            if (!subResult.isSuccessful()) {
+                failed++;
+            }
+            if (slowest == null || execution.getTime() > slowest.getTime()) {
+                slowest = execution;
+            }
+            summary.append(execution.target).append('\t')
+                   .append(subResult.getResponseCode()).append('\t')
+                   .append(times[i]).append(" ms\t")
+                   .append(subResult.getResponseMessage()).append('\n');
+        }
+        Arrays.sort(times);
+        long p95 = times[(int) Math.ceil(times.length * 0.95) - 1];
+        long max = times[times.length - 1];
+
+        int bodySize = (int) Math.min(Integer.MAX_VALUE, bytes);
+        result.setBodySize(bodySize);
+        result.setBytes(bodySize);
+        result.setSuccessful(failed == 0);
+        result.setResponseCode(failed == 0 ? "0" : RESPONSE_CODE_ERROR);
+        result.setResponseMessage(MessageFormat.format(FAN_OUT_MSG_TEMPLATE,
+                                                       String.valueOf(times.length),
+                                                       String.valueOf(failed),
+                                                       String.valueOf(times[0]),
+                                                       String.valueOf(total / times.length),
+                                                       String.valueOf(p95),
+                                                       String.valueOf(max),
+                                                       slowest.target));
+        result.setResponseData(summary.toString(), RESPONSE_DATA_ENCODING);
+
+        JMeterVariables variables = JMeterContextService.getContext().getVariables();
+        if (variables != null) {
+            variables.put(VAR_FAILED_HOSTS, String.valueOf(failed));
+            variables.put(VAR_SLOWEST_HOST, slowest.target);
+            variables.put(VAR_MAX_TIME, String.valueOf(max));
+            variables.put(VAR_P95_TIME, String.valueOf(p95));
+        }
+    }
+
+    /**
+     * Gets the targets of given host list.
+     *
+     * @param hosts
+     *            the hosts, separated by commas, semicolons or white spaces
+     * @return the targets
+     */
+    static List<String> getTargets(String hosts) {
+        List<String> targets = new ArrayList<String>();
+        if (hosts != null) {
+            for (String target : hosts.split("[\\s,;]+")) {
+                if (target.length() > 0) {
+                    targets.add(target);
+                }
+            }
+        }
+        return targets;
+    }
+
+    /**
+     * Gets the command.
+     *
+     * @return the command
+     */
+    public String getCommand() {
+        return command;
+    }
+
+    /**
+     * Sets the command.
+     *
+     * @param command
+     *            the new command
+     */
+    public void setCommand(String command) {
+        this.command = command;
+    }
+
+    /**
+     * Gets the hosts.
+     *
+     * @return the hosts, separated by commas or white spaces
+     */
+    public String getHosts() {
+        return hosts;
+    }
+
+    /**
+     * Sets the hosts, 'host' or 'host:port', the port defaulting to the
+     * sampler's.
+     *
+     * @param hosts
+     *            the new hosts, separated by commas or white spaces
+     */
+    public void setHosts(String hosts) {
+        this.hosts = hosts;
+    }
+
+    /**
+     * Gets the max number of hosts the command runs on at the same time.
+     *
+     * @return the max parallel hosts
+     */
+    public int getMaxParallelHosts() {
+        return maxParallelHosts;
+    }
+
+    /**
+     * Sets the max number of hosts the command runs on at the same time.
+     *
+     * @param maxParallelHosts
+     *            the new max parallel hosts
+     */
+    public void setMaxParallelHosts(int maxParallelHosts) {
+        this.maxParallelHosts = maxParallelHosts;
+    }
+
+    /**
+     * The Class HostExecution is the execution of the command on one host. It
+     * records its timings and outcome, then releases its permit. It ends once:
+     * an outcome notified after it has been timed out is ignored.
+     */
+    private static class HostExecution implements SSHResultCallback {
+
+        /** The target, 'host' or 'host:port'. */
+        private final String          target;
+
+        /** The permits of parallel hosts. */
+        private final Semaphore       permits;
+
+        /** The latch counting down completed hosts. */
+        private final CountDownLatch  done;
+
+        /** Whether the execution has ended. */
+        private boolean               ended;
+
+        /** The start time, the submission time until the execution runs. */
+        private volatile long         startTime;
+
+        /** The end time. */
+        private volatile long         endTime;
+
+        /** The result, null if failed. */
+        private volatile SSHResult    result;
+
+        /** The failure, null if succeeded. */
+        private volatile SSHException failure;
+
+        /**
+         * Instantiates a new host execution, submitted now.
+         *
+         * @param target
+         *            the target
+         * @param permits
+         *            the permits of parallel hosts, one being held
+         * @param done
+         *            the latch counting down completed hosts
+         */
+        HostExecution(String target, Semaphore permits, CountDownLatch done) {
+            this.target = target;
+            this.permits = permits;
+            this.done = done;
+            this.startTime = System.currentTimeMillis();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHResultCallback#started()
+         */
+        public void started() {
+            // the time spent in the executor's queue is not the host's
+            startTime = System.currentTimeMillis();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHResultCallback#completed(org.apache.jmeter.protocol.ssh2.util.SSHClient.SSHResult)
+         */
+        public synchronized void completed(SSHResult result) {
+            if (!ended) {
+                this.result = result;
+                end();
+            }
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHResultCallback#failed(org.apache.jmeter.protocol.ssh2.util.SSHException)
+         */
+        public synchronized void failed(SSHException e) {
+            if (!ended) {
+                this.failure = e;
+                end();
+            }
+        }
+
+        /**
+         * Times out the execution, unless it has already ended.
+         *
+         * @param message
+         *            the timeout message
+         * @return true, if timed out. false, if already ended
+         */
+        synchronized boolean timedOut(String message) {
+            if (ended) {
+                return false;
+            }
+            this.failure = new SSHTimeoutException("Command on " + target + " " + message);
+            end();
+            return true;
+        }
+
+        /**
+         * Ends the execution.
+         */
+        private void end() {
+            ended = true;
+            endTime = System.currentTimeMillis();
+            permits.release();
+            done.countDown();
+        }
+
+        /**
+         * Gets the time taken on this host.
+         *
+         * @return the time (in ms.)
+         */
+        long getTime() {
+            return endTime - startTime;
+        }
+
+        /**
+         * Converts the execution to a sample result, labelled with the
+         * target.
+         *
+         * @return the sample result
+         */
+        SampleResult toSampleResult() {
+            SampleResult subResult = new SampleResult();
+            subResult.setSampleLabel(target);
+            subResult.setDataType(RESPONSE_DATA_TYPE);
+            subResult.setContentType(RESPONSE_CONTENT_TYPE);
+            subResult.setStampAndTime(startTime, getTime());
+            if (result != null) {
+                if (result.getFirstByteTime() > 0) {
+                    subResult.setLatency(Math.max(0, Math.min(getTime(), result.getFirstByteTime() - startTime)));
+                }
+                subResult.setSuccessful(true);
+                subResult.setResponseCode(String.valueOf(result.getExitStatus()));
+                subResult.setResponseMessage(MessageFormat.format(RESPONSE_MSG_TEMPLATE,
+                                                                  result.getExitSignal(),
+                                                                  result.getStdErr()));
+                subResult.setResponseData(result.getStdOut(), RESPONSE_DATA_ENCODING);
+                int bytesReceived = (int) Math.min(Integer.MAX_VALUE, result.getBytesReceived());
+                subResult.setBodySize(bytesReceived);
+                subResult.setBytes(bytesReceived);
+            } else {
+                subResult.setSuccessful(false);
+                subResult.setResponseCode(getErrorResponseCode(failure));
+                subResult.setResponseMessage("Exception: " + failure);
+                StringWriter stringWriter = new StringWriter();
+                failure.printStackTrace(new java.io.PrintWriter(stringWriter));
+                subResult.setResponseData(stringWriter.toString(), RESPONSE_DATA_ENCODING);
+            }
+            return subResult;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.protocol.ssh2.sampler;
+
+import java.beans.PropertyDescriptor;
+
+import org.apache.jmeter.testbeans.gui.TypeEditor;
+
+/**
+ * The Class SSHFanOutSamplerBeanInfo.
+ */
+public class SSHFanOutSamplerBeanInfo extends AbstractSSHSamplerBeanInfo {
+
+    /**
+     * Instantiates a new SSH fan-out sampler bean info.
+     */
+    public SSHFanOutSamplerBeanInfo() {
+
+        super(SSHFanOutSampler.class);
+
+        createPropertyGroup("fanOut",
+                            new String[] { "hosts", "maxParallelHosts", "command" });
+
+        PropertyDescriptor p = property("hosts", TypeEditor.TextAreaEditor);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, "");
+
+        p = property("maxParallelHosts");
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, new Integer(20));
+
+        p = property("command");
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, "date");
+
+        // the hosts are given by the host list
+        p = property("hostname");
+        p.setHidden(true);
+
+        p = property("maxWaitForCommandOutput");
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, 5000);
+
+    }
+
+}
@@ -20,9 +20,13 @@ package org.apache.jmeter.protocol.ssh2.sampler;
 import java.io.StringWriter;
 import java.text.MessageFormat;
 
+import org.apache.commons.lang3.StringUtils;
 import org.apache.jmeter.protocol.ssh2.util.SSHClient;
 import org.apache.jmeter.protocol.ssh2.util.SSHClient.SSHResult;
+import org.apache.jmeter.protocol.ssh2.util.SSHClient.SSHStepResult;
 import org.apache.jmeter.protocol.ssh2.util.SSHClientConfig;
+import org.apache.jmeter.protocol.ssh2.util.SSHException;
+import org.apache.jmeter.protocol.ssh2.util.SSHScript;
 import org.apache.jmeter.samplers.Entry;
 import org.apache.jmeter.samplers.SampleResult;
 
@@ -33,25 +37,61 @@ import org.apache.jmeter.samplers.SampleResult;
 public class SSHScriptSampler extends AbstractSSHSampler {
 
     /** The Constant serialVersionUID. */
-    private static final long serialVersionUID = 1L;
+    private static final long   serialVersionUID = 1L;
 
     /** The enable wait cmd. */
-    private boolean           enableWaitCmd;
+    private boolean             enableWaitCmd;
 
     /** The delay after each cmd. */
-    private long              delayAfterEachCmd;
+    private long                delayAfterEachCmd;
 
     /** The script content. */
-    private String            scriptContent;
+    private String              scriptContent;
 
     /** The terminal type. */
-    private String            terminalType;
+    private String              terminalType;
 
     /** The terminal width. */
-    private int               terminalWidth;
+    private int                 terminalWidth;
 
     /** The terminal height. */
-    private int               terminalHeight;
+    private int                 terminalHeight;
+
+    /** The shell prompt pattern awaited before sending each command. */
+    private String              promptPattern;
+
+    /** Whether a unique prompt is injected into the shell and awaited. */
+    private boolean             injectPromptMarker;
+
+    /** Whether the rest of the script is skipped once a command failed. */
+    private boolean             abortOnCommandFailure;
+
+    /** Whether escape sequences and command echo are removed from PTY output. */
+    private boolean             stripTerminalOutput;
+
+    /** Whether the script is executed by the script shell, without PTY. */
+    private boolean             disablePty;
+
+    /** Whether the script is sent to a shell kept open by the thread. */
+    private boolean             persistentShell;
+
+    /** The script executed once when a persistent shell is started. */
+    private String              shellInitScript;
+
+    /** Whether the whole script is sent at once to a non interactive shell. */
+    private boolean             pipelineScript;
+
+    /** The command of the non interactive shell reading the pipelined script. */
+    private String              scriptShell;
+
+    /** The script compiled by this sampler, reused while unchanged. */
+    private transient SSHScript compiledScript;
+
+    /** The script content compiled. */
+    private transient String    compiledScriptContent;
+
+    /** The 'wait' command flag the script was compiled with. */
+    private transient boolean   compiledWaitCmdEnabled;
 
     /**
      * Instantiates a new SSH script sampler.
@@ -64,6 +104,7 @@ public class SSHScriptSampler extends AbstractSSHSampler {
      * @see org.apache.jmeter.samplers.Sampler#sample(org.apache.jmeter.samplers.Entry)
      */
     public SampleResult sample(Entry entry) {
+        warmUpThread();
         SampleResult result = new SampleResult();
         result.setSampleLabel(super.getName());
         result.setDataType(RESPONSE_DATA_TYPE);
@@ -77,19 +118,32 @@ public class SSHScriptSampler extends AbstractSSHSampler {
             sshClientConfig.setTerminalType(terminalType);
             sshClientConfig.setTerminalWidth(terminalWidth);
             sshClientConfig.setTerminalHeight(terminalHeight);
+            sshClientConfig.setPromptPattern(promptPattern);
+            sshClientConfig.setInjectPromptMarker(injectPromptMarker);
+            sshClientConfig.setAbortOnCommandFailure(abortOnCommandFailure);
+            sshClientConfig.setStripTerminalOutput(stripTerminalOutput);
+            sshClientConfig.setDisablePty(disablePty);
+            sshClientConfig.setPersistentShell(persistentShell);
+            sshClientConfig.setShellInitScript(shellInitScript);
+            sshClientConfig.setPipelineScript(pipelineScript);
+            sshClientConfig.setScriptShell(scriptShell);
 
             SSHClient sshClient = new SSHClient(sshClientConfig);
 
-            SSHResult sshCmdResult = sshClient.executeScript(scriptContent,
-                                                             enableWaitCmd,
-                                                             delayAfterEachCmd);
+            SSHResult sshCmdResult = sshClient.executeScript(getCompiledScript(), delayAfterEachCmd);
 
             // fetch the result
             result.sampleEnd();
-            result.setSuccessful(true);
-            result.setResponseMessage(MessageFormat.format(RESPONSE_MSG_TEMPLATE,
-                                                           sshCmdResult.getExitSignal(),
-                                                           sshCmdResult.getStdErr()));
+            setPhaseTimings(result, sshCmdResult);
+            addStepResults(result, sshCmdResult);
+            String responseMessage = MessageFormat.format(RESPONSE_MSG_TEMPLATE,
+                                                          sshCmdResult.getExitSignal(),
+                                                          sshCmdResult.getStdErr());
+            if (sshCmdResult.isAborted()) {
+                responseMessage = "Script aborted, " + responseMessage;
+            }
+            result.setSuccessful(!sshCmdResult.isAborted());
+            result.setResponseMessage(responseMessage);
             result.setResponseCode(String.valueOf(sshCmdResult.getExitStatus()));
             result.setResponseData(sshCmdResult.getStdOut(), RESPONSE_DATA_ENCODING);
         } catch (Exception e) {
@@ -100,12 +154,70 @@ public class SSHScriptSampler extends AbstractSSHSampler {
             StringWriter stringWriter = new StringWriter();
             e.printStackTrace(new java.io.PrintWriter(stringWriter));
             result.setResponseData(stringWriter.toString(), RESPONSE_DATA_ENCODING);
-            result.setResponseCode("-1");
+            result.setResponseCode(getErrorResponseCode(e));
 
         }
         return result;
     }
 
+    /**
+     * Gets the compiled script. The script is compiled again only if its
+     * content or the 'wait' command flag changed since the last sample, the
+     * content being compared by identity first as it is usually the same
+     * property value on every sample.
+     *
+     * @return the compiled script
+     * @throws SSHException
+     *             if a wait command is invalid.
+     */
+    private SSHScript getCompiledScript() throws SSHException {
+        if (compiledScript == null || compiledWaitCmdEnabled != enableWaitCmd
+                || (compiledScriptContent != scriptContent && !StringUtils.equals(compiledScriptContent, scriptContent))) {
+            compiledScript = SSHScript.compile(scriptContent, enableWaitCmd);
+            compiledWaitCmdEnabled = enableWaitCmd;
+        }
+        compiledScriptContent = scriptContent;
+        return compiledScript;
+    }
+
+    /**
+     * Adds one sub-result per command of the script, with its own timings,
+     * output and exit status (if detected).
+     *
+     * @param result
+     *            the sample result
+     * @param sshResult
+     *            the SSH script result
+     */
+    private void addStepResults(SampleResult result,
+                                SSHResult sshResult)
+    {
+        for (SSHStepResult step : sshResult.getSteps()) {
+            SampleResult subResult = new SampleResult();
+            subResult.setSampleLabel(step.getCommand());
+            subResult.setSamplerData(step.getCommand());
+            subResult.setDataType(RESPONSE_DATA_TYPE);
+            subResult.setContentType(RESPONSE_CONTENT_TYPE);
+            subResult.setStampAndTime(step.getStartTime(), step.getEndTime() - step.getStartTime());
+            String output = step.getStdOut() != null ? step.getStdOut() : "";
+            subResult.setResponseData(output, RESPONSE_DATA_ENCODING);
+            subResult.setBodySize(subResult.getResponseData().length);
+            subResult.setBytes(subResult.getResponseData().length);
+            subResult.setResponseCode(String.valueOf(step.getExitStatus()));
+            subResult.setSuccessful(step.isSuccessful());
+            if (!step.isCompleted()) {
+                subResult.setResponseMessage((pipelineScript || disablePty ? "Command not completed" : "Prompt not received")
+                        + " within " + getMaxWaitForCommandOutput() + " ms");
+            } else if (step.isAborting()) {
+                subResult.setResponseMessage("Command failed, rest of script skipped");
+            } else {
+                subResult.setResponseMessage(step.isSuccessful() ? "OK" : "Command failed");
+            }
+            // bytes are already counted by the parent result
+            result.addRawSubResult(subResult);
+        }
+    }
+
     /**
      * Gets the script content.
      *
@@ -214,4 +326,166 @@ public class SSHScriptSampler extends AbstractSSHSampler {
         this.terminalHeight = terminalHeight;
     }
 
+    /**
+     * Gets the prompt pattern.
+     *
+     * @return the prompt pattern
+     */
+    public String getPromptPattern() {
+        return promptPattern;
+    }
+
+    /**
+     * Sets the prompt pattern.
+     *
+     * @param promptPattern the new prompt pattern
+     */
+    public void setPromptPattern(String promptPattern) {
+        this.promptPattern = promptPattern;
+    }
+
+    /**
+     * Checks if is inject prompt marker.
+     *
+     * @return true, if is inject prompt marker
+     */
+    public boolean isInjectPromptMarker() {
+        return injectPromptMarker;
+    }
+
+    /**
+     * Sets the inject prompt marker.
+     *
+     * @param injectPromptMarker the new inject prompt marker
+     */
+    public void setInjectPromptMarker(boolean injectPromptMarker) {
+        this.injectPromptMarker = injectPromptMarker;
+    }
+
+    /**
+     * Checks if is abort on command failure.
+     *
+     * @return true, if is abort on command failure
+     */
+    public boolean isAbortOnCommandFailure() {
+        return abortOnCommandFailure;
+    }
+
+    /**
+     * Sets the abort on command failure.
+     *
+     * @param abortOnCommandFailure the new abort on command failure
+     */
+    public void setAbortOnCommandFailure(boolean abortOnCommandFailure) {
+        this.abortOnCommandFailure = abortOnCommandFailure;
+    }
+
+    /**
+     * Checks if is strip terminal output.
+     *
+     * @return true, if is strip terminal output
+     */
+    public boolean isStripTerminalOutput() {
+        return stripTerminalOutput;
+    }
+
+    /**
+     * Sets the strip terminal output.
+     *
+     * @param stripTerminalOutput the new strip terminal output
+     */
+    public void setStripTerminalOutput(boolean stripTerminalOutput) {
+        this.stripTerminalOutput = stripTerminalOutput;
+    }
+
+    /**
+     * Checks if is disable PTY.
+     *
+     * @return true, if is disable PTY
+     */
+    public boolean isDisablePty() {
+        return disablePty;
+    }
+
+    /**
+     * Sets the disable PTY.
+     *
+     * @param disablePty the new disable PTY
+     */
+    public void setDisablePty(boolean disablePty) {
+        this.disablePty = disablePty;
+    }
+
+    /**
+     * Checks if is persistent shell.
+     *
+     * @return true, if is persistent shell
+     */
+    public boolean isPersistentShell() {
+        return persistentShell;
+    }
+
+    /**
+     * Sets the persistent shell.
+     *
+     * @param persistentShell the new persistent shell
+     */
+    public void setPersistentShell(boolean persistentShell) {
+        this.persistentShell = persistentShell;
+    }
+
+    /**
+     * Gets the shell init script.
+     *
+     * @return the shell init script
+     */
+    public String getShellInitScript() {
+        return shellInitScript;
+    }
+
+    /**
+     * Sets the shell init script.
+     *
+     * @param shellInitScript the new shell init script
+     */
+    public void setShellInitScript(String shellInitScript) {
+        this.shellInitScript = shellInitScript;
+    }
+
+    /**
+     * Checks if is pipeline script.
+     *
+     * @return true, if is pipeline script
+     */
+    public boolean isPipelineScript() {
+        return pipelineScript;
+    }
+
+    /**
+     * Sets the pipeline script.
+     *
+     * @param pipelineScript the new pipeline script
+     */
+    public void setPipelineScript(boolean pipelineScript) {
+        this.pipelineScript = pipelineScript;
+    }
+
+    /**
+     * Gets the script shell.
+     *
+     * @return the script shell
+     */
+    public String getScriptShell() {
+        return scriptShell;
+    }
+
+    /**
+     * Sets the script shell.
+     *
+     * @param scriptShell the new script shell
+     */
+    public void setScriptShell(String scriptShell) {
+        this.scriptShell = scriptShell;
+    }
+
 }
@@ -32,6 +32,15 @@ public class SSHScriptSamplerBeanInfo extends AbstractSSHSamplerBeanInfo {
                 , "terminalType"
                 , "terminalWidth"
                 , "terminalHeight"
+                , "promptPattern"
+                , "injectPromptMarker"
+                , "abortOnCommandFailure"
+                , "stripTerminalOutput"
+                , "persistentShell"
+                , "shellInitScript"
+                , "disablePty"
+                , "pipelineScript"
+                , "scriptShell"
                 , "scriptContent" });
 
         PropertyDescriptor p = property("enableWaitCmd");
@@ -54,6 +63,43 @@ public class SSHScriptSamplerBeanInfo extends AbstractSSHSamplerBeanInfo {
         p.setValue(NOT_UNDEFINED, Boolean.TRUE);
         p.setValue(DEFAULT, 50);
 
+        p = property("promptPattern");
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, "");
+
+        p = property("injectPromptMarker");
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, Boolean.FALSE);
+
+        p = property("abortOnCommandFailure");
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, Boolean.FALSE);
+
+        p = property("persistentShell");
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, Boolean.FALSE);
+
+        p = property("shellInitScript", TypeEditor.TextAreaEditor);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, "");
+        p.setValue(TEXT_LANGUAGE, "bash");
+
+        p = property("stripTerminalOutput");
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, Boolean.FALSE);
+
+        p = property("disablePty");
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, Boolean.FALSE);
+
+        p = property("pipelineScript");
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, Boolean.FALSE);
+
+        p = property("scriptShell");
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, "bash -s");
+
         p = property("scriptContent", TypeEditor.TextAreaEditor);
         p.setValue(NOT_UNDEFINED, Boolean.TRUE);
         p.setValue(DEFAULT, "");
@@ -0,0 +1,423 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.protocol.ssh2.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import ch.ethz.ssh2.Connection;
+import ch.ethz.ssh2.ConnectionMonitor;
+import ch.ethz.ssh2.DHGexParameters;
+import ch.ethz.ssh2.InteractiveCallback;
+import ch.ethz.ssh2.Session;
+import ch.ethz.ssh2.crypto.PEMDecoder;
+
+/**
+ * The Class GanymedSSHTransport is the default transport, based on the
+ * ganymed-ssh2 library: blocking I/O with one receive thread per connection.
+ */
+public class GanymedSSHTransport implements SSHTransport {
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.apache.jmeter.protocol.ssh2.util.SSHTransport#connect(org.apache.jmeter.protocol.ssh2.util.SSHClientConfig)
+     */
+    public SSHTransportConnection connect(SSHClientConfig config) throws IOException, SSHException {
+        Connection conn = new Connection(config.getHostname(), config.getPort());
+        configureConnection(conn, config);
+        try {
+            conn.connect(null, config.getConnectionTimeout(), config.getKexTimeout());
+        } catch (IOException e) {
+            conn.close();
+            throw e;
+        }
+        return new GanymedConnection(conn);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.apache.jmeter.protocol.ssh2.util.SSHTransport#shutdown()
+     */
+    public void shutdown() {
+        // connections own their threads, nothing shared
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.apache.jmeter.protocol.ssh2.util.SSHTransport#decodePrivateKey(char[], java.lang.String)
+     */
+    public Object decodePrivateKey(char[] pem,
+                                   String passphrase) throws IOException
+    {
+        // ganymed only authenticates from PEM: decode once to check the key and passphrase
+        PEMDecoder.decode(pem, passphrase);
+        return new PEMPrivateKey(pem, passphrase);
+    }
+
+    /**
+     * Configures the connection before connecting: algorithm preferences and
+     * socket options.
+     *
+     * @param conn
+     *            the connection, not connected yet
+     * @param config
+     *            the SSH client config
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     * @throws SSHException
+     *             if an algorithm list is invalid.
+     */
+    protected void configureConnection(Connection conn,
+                                       SSHClientConfig config) throws IOException, SSHException
+    {
+        try {
+            String[] ciphers = SSHClient.getAlgorithms(config.getCiphers());
+            if (ciphers != null) {
+                conn.setClient2ServerCiphers(ciphers);
+                conn.setServer2ClientCiphers(ciphers);
+            }
+            String[] macs = SSHClient.getAlgorithms(config.getMacs());
+            if (macs != null) {
+                conn.setClient2ServerMACs(macs);
+                conn.setServer2ClientMACs(macs);
+            }
+            String[] hostKeyAlgorithms = SSHClient.getAlgorithms(config.getServerHostKeyAlgorithms());
+            if (hostKeyAlgorithms != null) {
+                conn.setServerHostKeyAlgorithms(hostKeyAlgorithms);
+            }
+            if (config.getDhGroupSize() > 0) {
+                conn.setDHGexParameters(new DHGexParameters(config.getDhGroupSize()));
+            }
+        } catch (IllegalArgumentException e) {
+            throw new SSHException("Invalid algorithm configuration: " + e.getMessage(), e);
+        }
+        conn.setTCPNoDelay(config.isTcpNoDelay());
+    }
+
+    /**
+     * The Class GanymedConnection adapts a ganymed connection.
+     */
+    static class GanymedConnection implements SSHTransportConnection {
+
+        /** The connection. */
+        private final Connection connection;
+
+        /**
+         * Instantiates a new ganymed connection.
+         *
+         * @param connection
+         *            the connected connection
+         */
+        GanymedConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportConnection#getRemainingAuthMethods(java.lang.String)
+         */
+        public String[] getRemainingAuthMethods(String user) throws IOException {
+            // this tries 'none' authentication
+            return connection.getRemainingAuthMethods(user);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportConnection#isAuthenticationComplete()
+         */
+        public boolean isAuthenticationComplete() {
+            return connection.isAuthenticationComplete();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportConnection#authenticateWithPassword(java.lang.String,
+         * java.lang.String)
+         */
+        public boolean authenticateWithPassword(String user,
+                                                String password) throws IOException
+        {
+            return connection.authenticateWithPassword(user, password);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportConnection#authenticateWithKeyboardInteractive(java.lang.String,
+         * java.lang.String)
+         */
+        public boolean authenticateWithKeyboardInteractive(String user,
+                                                           String password) throws IOException
+        {
+            return connection.authenticateWithKeyboardInteractive(user, new PasswordCallback(password));
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportConnection#authenticateWithPublicKey(java.lang.String,
+         * java.lang.Object)
+         */
+        public boolean authenticateWithPublicKey(String user,
+                                                 Object privateKey) throws IOException
+        {
+            PEMPrivateKey key = (PEMPrivateKey) privateKey;
+            return connection.authenticateWithPublicKey(user, key.pem, key.passphrase);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportConnection#authenticateWithNone(java.lang.String)
+         */
+        public boolean authenticateWithNone(String user) throws IOException {
+            return connection.authenticateWithNone(user);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportConnection#openSession()
+         */
+        public SSHTransportSession openSession() throws IOException {
+            return new GanymedSession(connection.openSession());
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportConnection#sendIgnorePacket()
+         */
+        public void sendIgnorePacket() throws IOException {
+            connection.sendIgnorePacket();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportConnection#addConnectionListener(org.apache.jmeter.protocol.ssh2.util.SSHTransportConnection.ConnectionListener)
+         */
+        public void addConnectionListener(final ConnectionListener listener) {
+            connection.addConnectionMonitor(new ConnectionMonitor() {
+
+                public void connectionLost(Throwable reason) {
+                    listener.connectionLost(reason);
+                }
+            });
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportConnection#close()
+         */
+        public void close() {
+            connection.close();
+        }
+    }
+
+    /**
+     * The Class GanymedSession adapts a ganymed session. The condition
+     * constants of {@link SSHTransportSession} are those of ganymed.
+     */
+    static class GanymedSession implements SSHTransportSession {
+
+        /** The session. */
+        private final Session session;
+
+        /**
+         * Instantiates a new ganymed session.
+         *
+         * @param session
+         *            the session
+         */
+        GanymedSession(Session session) {
+            this.session = session;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportSession#requestPTY(java.lang.String, int, int)
+         */
+        public void requestPTY(String term,
+                               int columns,
+                               int rows) throws IOException
+        {
+            session.requestPTY(term, columns, rows, 0, 0, null);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportSession#execCommand(java.lang.String)
+         */
+        public void execCommand(String cmd) throws IOException {
+            session.execCommand(cmd);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportSession#startShell()
+         */
+        public void startShell() throws IOException {
+            session.startShell();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportSession#getStdin()
+         */
+        public OutputStream getStdin() {
+            return session.getStdin();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportSession#getStdout()
+         */
+        public InputStream getStdout() {
+            return session.getStdout();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportSession#getStderr()
+         */
+        public InputStream getStderr() {
+            return session.getStderr();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportSession#waitForCondition(int, long)
+         */
+        public int waitForCondition(int conditions,
+                                    long timeout)
+        {
+            return session.waitForCondition(conditions, timeout);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportSession#getExitStatus()
+         */
+        public Integer getExitStatus() {
+            return session.getExitStatus();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportSession#getExitSignal()
+         */
+        public String getExitSignal() {
+            return session.getExitSignal();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportSession#close()
+         */
+        public void close() {
+            session.close();
+        }
+    }
+
+    /**
+     * The Class PasswordCallback answers keyboard-interactive prompts with the
+     * password.
+     */
+    private static class PasswordCallback implements InteractiveCallback {
+
+        /** The password. */
+        private final String password;
+
+        /**
+         * Instantiates a new password callback.
+         *
+         * @param password
+         *            the password
+         */
+        PasswordCallback(String password) {
+            this.password = password;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see ch.ethz.ssh2.InteractiveCallback#replyToChallenge(java.lang.String,
+         * java.lang.String, int, java.lang.String[], boolean[])
+         */
+        public String[] replyToChallenge(String name,
+                                         String instruction,
+                                         int numPrompts,
+                                         String[] prompt,
+                                         boolean[] echo)
+        {
+            String[] responses = new String[numPrompts];
+            Arrays.fill(responses, password);
+            return responses;
+        }
+    }
+
+    /**
+     * The Class PEMPrivateKey is a private key as read from its file, with
+     * its passphrase: ganymed decodes (and decrypts) it on each
+     * authentication.
+     */
+    static class PEMPrivateKey {
+
+        /** The PEM private key. */
+        final char[] pem;
+
+        /** The passphrase, null if the key is not encrypted. */
+        final String passphrase;
+
+        /**
+         * Instantiates a new PEM private key.
+         *
+         * @param pem
+         *            the PEM private key
+         * @param passphrase
+         *            the passphrase
+         */
+        PEMPrivateKey(char[] pem,
+                      String passphrase)
+        {
+            this.pem = pem;
+            this.passphrase = passphrase;
+        }
+    }
+}
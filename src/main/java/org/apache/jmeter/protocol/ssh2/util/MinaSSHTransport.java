@@ -0,0 +1,1024 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.protocol.ssh2.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.spec.DSAPrivateKeySpec;
+import java.security.spec.DSAPublicKeySpec;
+import java.security.spec.RSAPrivateKeySpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+import org.apache.sshd.ClientSession;
+import org.apache.sshd.SshClient;
+import org.apache.sshd.client.channel.PtyCapableChannelSession;
+import org.apache.sshd.client.future.AuthFuture;
+import org.apache.sshd.client.future.ConnectFuture;
+import org.apache.sshd.client.future.OpenFuture;
+import org.apache.sshd.common.NamedFactory;
+import org.apache.sshd.common.Session;
+import org.apache.sshd.common.SessionListener;
+import org.apache.sshd.common.SshConstants;
+import org.apache.sshd.common.future.SshFuture;
+import org.apache.sshd.common.session.ConnectionService;
+import org.apache.sshd.common.util.Buffer;
+
+import ch.ethz.ssh2.crypto.PEMDecoder;
+import ch.ethz.ssh2.signature.DSAPrivateKey;
+import ch.ethz.ssh2.signature.RSAPrivateKey;
+
+/**
+ * The Class MinaSSHTransport is a transport based on Apache MINA SSHD, whose
+ * I/O is asynchronous (NIO2): all connections are served by a small pool of
+ * I/O threads instead of one receive thread per connection. The sshd-core
+ * library (0.14) must be in JMeter's lib directory.
+ * <p>
+ * Session output is pushed by the I/O threads into in-memory buffers which
+ * signal data arrival, so that output is read by the sampler thread (see
+ * {@link ShellConsoleReader}) as with the default transport. The channel
+ * window is only adjusted as output is read, so that the server stops
+ * sending while output is not read, and a buffer never exceeds the window.
+ * <p>
+ * Authentication is negotiated by the library: password authentication also
+ * answers keyboard-interactive prompts. The Diffie-Hellman group size and
+ * TCP_NODELAY settings are ignored.
+ */
+public class MinaSSHTransport implements SSHTransport {
+
+    /** The Constant logger. */
+    private static final Logger          logger       = LoggingManager.getLoggerForClass();
+
+    /** The authentication methods the library negotiates by itself. */
+    private static final String[]        AUTH_METHODS = { SSHAuthMethodCache.PASSWORD,
+            SSHAuthMethodCache.KEYBOARD_INTERACTIVE, SSHAuthMethodCache.PUBLIC_KEY };
+
+    /** The initial size of the session output buffers. */
+    private static final int             BUFFER_SIZE  = 10240;
+
+    /** The clients started, by algorithm configuration. */
+    private final Map<String, SshClient> clients      = new HashMap<String, SshClient>();
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.apache.jmeter.protocol.ssh2.util.SSHTransport#connect(org.apache.jmeter.protocol.ssh2.util.SSHClientConfig)
+     */
+    public SSHTransportConnection connect(SSHClientConfig config) throws IOException, SSHException {
+        SshClient client = getClient(config);
+        long start = System.currentTimeMillis();
+        ConnectFuture connectFuture = client.connect(config.getUserName(), config.getHostname(),
+                                                     config.getPort());
+        ClientSession session;
+        try {
+            if (!await(connectFuture, config.getConnectionTimeout())) {
+                connectFuture.cancel();
+                throw new SocketTimeoutException("Connect timed out after " + config.getConnectionTimeout()
+                        + " ms");
+            }
+            if (!connectFuture.isConnected()) {
+                throw toIOException("Failed to connect to " + config.getHostname() + ":" + config.getPort(),
+                                    connectFuture.getException());
+            }
+            session = connectFuture.getSession();
+        } catch (InterruptedException e) {
+            connectFuture.cancel();
+            throw new InterruptedIOException("Interrupted while connecting");
+        }
+
+        // key exchange is complete once the session waits for authentication
+        int kexTimeout = config.getKexTimeout();
+        long remaining = kexTimeout > 0 ? Math.max(1, kexTimeout - (System.currentTimeMillis() - start)) : 0;
+        int state = session.waitFor(ClientSession.WAIT_AUTH | ClientSession.CLOSED, remaining);
+        if ((state & ClientSession.WAIT_AUTH) == 0) {
+            session.close(true);
+            if ((state & ClientSession.TIMEOUT) != 0) {
+                throw new SocketTimeoutException("The kexTimeout (" + kexTimeout + " ms) expired.");
+            }
+            throw new IOException("Connection closed during key exchange");
+        }
+        return new MinaConnection(session, config.getConnectionTimeout(),
+                                  config.getKexTimeout() > 0 ? config.getKexTimeout() : config.getConnectionTimeout());
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.apache.jmeter.protocol.ssh2.util.SSHTransport#shutdown()
+     */
+    public void shutdown() {
+        List<SshClient> stopped;
+        synchronized (clients) {
+            stopped = new ArrayList<SshClient>(clients.values());
+            clients.clear();
+        }
+        for (SshClient client : stopped) {
+            client.stop();
+        }
+        if (!stopped.isEmpty()) {
+            logger.info("Stopped " + stopped.size() + " MINA SSH client(s)");
+        }
+    }
+
+    /**
+     * Gets the started client for the algorithm preferences of given
+     * configuration.
+     *
+     * @param config
+     *            the SSH client config
+     * @return the client
+     * @throws SSHException
+     *             if an algorithm list is invalid.
+     */
+    private SshClient getClient(SSHClientConfig config) throws SSHException {
+        String key = config.getCiphers() + "|" + config.getMacs() + "|" + config.getServerHostKeyAlgorithms();
+        synchronized (clients) {
+            SshClient client = clients.get(key);
+            if (client == null) {
+                client = SshClient.setUpDefaultClient();
+                client.setCipherFactories(select(client.getCipherFactories(), config.getCiphers()));
+                client.setMacFactories(select(client.getMacFactories(), config.getMacs()));
+                client.setSignatureFactories(select(client.getSignatureFactories(),
+                                                    config.getServerHostKeyAlgorithms()));
+                client.start();
+                clients.put(key, client);
+            }
+            return client;
+        }
+    }
+
+    /**
+     * Selects the factories of given algorithms, in the given order.
+     *
+     * @param <T>
+     *            the algorithm type
+     * @param factories
+     *            the available factories
+     * @param algorithms
+     *            the comma separated algorithm names, blank to keep all
+     * @return the selected factories
+     * @throws SSHException
+     *             if an algorithm is not supported.
+     */
+    private static <T> List<NamedFactory<T>> select(List<NamedFactory<T>> factories,
+                                                    String algorithms) throws SSHException
+    {
+        String[] names = SSHClient.getAlgorithms(algorithms);
+        if (names == null) {
+            return factories;
+        }
+        List<NamedFactory<T>> selected = new ArrayList<NamedFactory<T>>(names.length);
+        for (String name : names) {
+            NamedFactory<T> found = null;
+            for (NamedFactory<T> factory : factories) {
+                if (factory.getName().equals(name)) {
+                    found = factory;
+                    break;
+                }
+            }
+            if (found == null) {
+                throw new SSHException("Invalid algorithm configuration: " + name + " is not supported");
+            }
+            selected.add(found);
+        }
+        return selected;
+    }
+
+    /**
+     * Waits for a future.
+     *
+     * @param future
+     *            the future
+     * @param timeout
+     *            the max time to wait (in ms.), 0 to wait forever
+     * @return true, if the future is done
+     * @throws InterruptedException
+     *             if interrupted while waiting.
+     */
+    private static boolean await(SshFuture<?> future,
+                                 long timeout) throws InterruptedException
+    {
+        if (timeout > 0) {
+            return future.await(timeout);
+        }
+        future.await();
+        return true;
+    }
+
+    /**
+     * Wraps a failure cause in an IOException.
+     *
+     * @param message
+     *            the message
+     * @param cause
+     *            the cause, may be null
+     * @return the IO exception
+     */
+    private static IOException toIOException(String message,
+                                             Throwable cause)
+    {
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        IOException e = new IOException(message + (cause != null ? ": " + cause : ""));
+        e.initCause(cause);
+        return e;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.apache.jmeter.protocol.ssh2.util.SSHTransport#decodePrivateKey(char[], java.lang.String)
+     */
+    public Object decodePrivateKey(char[] pem,
+                                   String passphrase) throws IOException
+    {
+        return toKeyPair(pem, passphrase);
+    }
+
+    /**
+     * Decodes a PEM private key to a key pair.
+     *
+     * @param pem
+     *            the PEM private key
+     * @param passphrase
+     *            the passphrase, if the key is encrypted
+     * @return the key pair
+     * @throws IOException
+     *             if the key cannot be decoded.
+     */
+    static KeyPair toKeyPair(char[] pem,
+                             String passphrase) throws IOException
+    {
+        Object key = PEMDecoder.decode(pem, passphrase);
+        try {
+            if (key instanceof RSAPrivateKey) {
+                RSAPrivateKey rsa = (RSAPrivateKey) key;
+                KeyFactory factory = KeyFactory.getInstance("RSA");
+                return new KeyPair(factory.generatePublic(new RSAPublicKeySpec(rsa.getN(), rsa.getE())),
+                                   factory.generatePrivate(new RSAPrivateKeySpec(rsa.getN(), rsa.getD())));
+            }
+            if (key instanceof DSAPrivateKey) {
+                DSAPrivateKey dsa = (DSAPrivateKey) key;
+                KeyFactory factory = KeyFactory.getInstance("DSA");
+                return new KeyPair(factory.generatePublic(new DSAPublicKeySpec(dsa.getY(), dsa.getP(),
+                                                                                dsa.getQ(), dsa.getG())),
+                                   factory.generatePrivate(new DSAPrivateKeySpec(dsa.getX(), dsa.getP(),
+                                                                                  dsa.getQ(), dsa.getG())));
+            }
+        } catch (GeneralSecurityException e) {
+            throw toIOException("Invalid private key", e);
+        }
+        throw new IOException("Unsupported private key type");
+    }
+
+    /**
+     * The Class MinaConnection adapts a MINA client session.
+     */
+    static class MinaConnection implements SSHTransportConnection {
+
+        /** The client session. */
+        private final ClientSession session;
+
+        /** The max time (in ms.) to wait for a session to open, 0 for no limit. */
+        private final long          openTimeout;
+
+        /** The max time (in ms.) to wait for authentication, 0 for no limit. */
+        private final long          authTimeout;
+
+        /** Whether the connection is closed on purpose. */
+        private volatile boolean    closing;
+
+        /**
+         * Instantiates a new MINA connection.
+         *
+         * @param session
+         *            the client session, key exchange done
+         * @param openTimeout
+         *            the max time to wait for a session to open
+         * @param authTimeout
+         *            the max time to wait for authentication
+         */
+        MinaConnection(ClientSession session,
+                       long openTimeout,
+                       long authTimeout)
+        {
+            this.session = session;
+            this.openTimeout = openTimeout;
+            this.authTimeout = authTimeout;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportConnection#getRemainingAuthMethods(java.lang.String)
+         */
+        public String[] getRemainingAuthMethods(String user) {
+            // the server's methods are negotiated by the library on authentication
+            return AUTH_METHODS.clone();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportConnection#isAuthenticationComplete()
+         */
+        public boolean isAuthenticationComplete() {
+            return (session.waitFor(ClientSession.AUTHED, 1) & ClientSession.AUTHED) != 0;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportConnection#authenticateWithPassword(java.lang.String,
+         * java.lang.String)
+         */
+        public boolean authenticateWithPassword(String user,
+                                                String password) throws IOException
+        {
+            session.addPasswordIdentity(password);
+            return auth();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportConnection#authenticateWithKeyboardInteractive(java.lang.String,
+         * java.lang.String)
+         */
+        public boolean authenticateWithKeyboardInteractive(String user,
+                                                           String password) throws IOException
+        {
+            // keyboard-interactive prompts are answered with password identities
+            session.addPasswordIdentity(password);
+            return auth();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportConnection#authenticateWithPublicKey(java.lang.String,
+         * java.lang.Object)
+         */
+        public boolean authenticateWithPublicKey(String user,
+                                                 Object privateKey) throws IOException
+        {
+            session.addPublicKeyIdentity((KeyPair) privateKey);
+            return auth();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportConnection#authenticateWithNone(java.lang.String)
+         */
+        public boolean authenticateWithNone(String user) throws IOException {
+            return auth();
+        }
+
+        /**
+         * Authenticates with the identities added to the session.
+         *
+         * @return true, if authenticated
+         * @throws IOException
+         *             Signals that an I/O exception has occurred.
+         */
+        private boolean auth() throws IOException {
+            AuthFuture future = session.auth();
+            try {
+                if (!await(future, authTimeout)) {
+                    future.cancel();
+                    throw new SocketTimeoutException("Authentication timed out after " + authTimeout + " ms");
+                }
+            } catch (InterruptedException e) {
+                future.cancel();
+                throw new InterruptedIOException("Interrupted while authenticating");
+            }
+            return future.isSuccess();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportConnection#openSession()
+         */
+        public SSHTransportSession openSession() {
+            return new MinaSession(this);
+        }
+
+        /**
+         * Opens given channel on this connection.
+         *
+         * @param channel
+         *            the channel
+         * @throws IOException
+         *             if the channel could not be opened.
+         */
+        void open(MinaChannel channel) throws IOException {
+            OpenFuture future;
+            try {
+                session.getService(ConnectionService.class).registerChannel(channel);
+                future = channel.open();
+            } catch (IllegalStateException e) {
+                // the session is being closed
+                throw new IOException("Failed to open session", e);
+            }
+            try {
+                if (!await(future, openTimeout)) {
+                    channel.close(false);
+                    throw new SocketTimeoutException("Session open timed out after " + openTimeout + " ms");
+                }
+            } catch (InterruptedException e) {
+                channel.close(false);
+                throw new InterruptedIOException("Interrupted while opening session");
+            }
+            if (!future.isOpened()) {
+                throw toIOException("Failed to open session", future.getException());
+            }
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportConnection#sendIgnorePacket()
+         */
+        public void sendIgnorePacket() throws IOException {
+            if (session.isClosing() || session.isClosed()) {
+                throw new IOException("Connection closed");
+            }
+            Buffer buffer = session.createBuffer(SshConstants.SSH_MSG_IGNORE);
+            buffer.putString("");
+            session.writePacket(buffer);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportConnection#addConnectionListener(org.apache.jmeter.protocol.ssh2.util.SSHTransportConnection.ConnectionListener)
+         */
+        public void addConnectionListener(final ConnectionListener listener) {
+            session.addListener(new SessionListener() {
+
+                public void sessionCreated(Session s) {
+                }
+
+                public void sessionEvent(Session s,
+                                         Event event)
+                {
+                }
+
+                public void sessionClosed(Session s) {
+                    if (!closing) {
+                        listener.connectionLost(null);
+                    }
+                }
+            });
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportConnection#close()
+         */
+        public void close() {
+            closing = true;
+            session.close(true);
+        }
+    }
+
+    /**
+     * The Class MinaSession is a session whose channel is opened on
+     * {@link #execCommand(String)} or {@link #startShell()}. Its streams may be
+     * got before.
+     */
+    static class MinaSession implements SSHTransportSession {
+
+        /** The connection. */
+        private final MinaConnection connection;
+
+        /** The channel, opened when started. */
+        private final MinaChannel    channel;
+
+        /** Whether the channel was started. */
+        private boolean              started;
+
+        /**
+         * Instantiates a new MINA session.
+         *
+         * @param connection
+         *            the connection
+         */
+        MinaSession(MinaConnection connection) {
+            this.connection = connection;
+            this.channel = new MinaChannel();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportSession#requestPTY(java.lang.String, int, int)
+         */
+        public void requestPTY(String term,
+                               int columns,
+                               int rows)
+        {
+            channel.setUsePty(true);
+            channel.setPtyType(term);
+            channel.setPtyColumns(columns);
+            channel.setPtyLines(rows);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportSession#execCommand(java.lang.String)
+         */
+        public void execCommand(String cmd) throws IOException {
+            start(cmd);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportSession#startShell()
+         */
+        public void startShell() throws IOException {
+            start(null);
+        }
+
+        /**
+         * Opens the channel.
+         *
+         * @param cmd
+         *            the command, null for a shell
+         * @throws IOException
+         *             Signals that an I/O exception has occurred.
+         */
+        private void start(String cmd) throws IOException {
+            if (started) {
+                throw new IOException("Session already started");
+            }
+            started = true;
+            channel.setCommand(cmd);
+            connection.open(channel);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportSession#getStdin()
+         */
+        public OutputStream getStdin() {
+            // closing the standard input must signal end of input, as ganymed does
+            return new FilterOutputStream(channel.getInvertedIn()) {
+
+                @Override
+                public void write(byte[] b,
+                                  int off,
+                                  int len) throws IOException
+                {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    channel.sendEndOfInput();
+                }
+            };
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportSession#getStdout()
+         */
+        public InputStream getStdout() {
+            return channel.stdOut.getInputStream();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportSession#getStderr()
+         */
+        public InputStream getStderr() {
+            return channel.stdErr.getInputStream();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportSession#waitForCondition(int, long)
+         */
+        public int waitForCondition(int conditions,
+                                    long timeout)
+        {
+            return channel.waitForCondition(conditions, timeout);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportSession#getExitStatus()
+         */
+        public Integer getExitStatus() {
+            return channel.getExitStatus();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportSession#getExitSignal()
+         */
+        public String getExitSignal() {
+            return channel.getExitSignal();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportSession#close()
+         */
+        public void close() {
+            if (started) {
+                channel.close(false);
+            }
+        }
+    }
+
+    /**
+     * The Class MinaChannel is a session channel running a command or a shell,
+     * whose output is buffered in memory. Output arrival and channel state
+     * changes are both signaled on the channel's lock.
+     */
+    static class MinaChannel extends PtyCapableChannelSession {
+
+        /** The command, null for a shell. */
+        private String      command;
+
+        /** The standard output buffer. */
+        final ChannelBuffer stdOut;
+
+        /** The standard error buffer. */
+        final ChannelBuffer stdErr;
+
+        /** Whether end of input was sent. */
+        private boolean     inputEnded;
+
+        /**
+         * Instantiates a new MINA channel, without PTY until requested.
+         */
+        MinaChannel() {
+            super(false);
+            this.stdOut = new ChannelBuffer(this);
+            this.stdErr = new ChannelBuffer(this);
+            setOut(stdOut);
+            setErr(stdErr);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.sshd.client.channel.ChannelSession#doOpen()
+         */
+        @Override
+        protected void doOpen() throws IOException {
+            doOpenPty();
+            Buffer buffer = session.createBuffer(SshConstants.SSH_MSG_CHANNEL_REQUEST);
+            buffer.putInt(recipient);
+            buffer.putString(command == null ? "shell" : "exec");
+            buffer.putBoolean(false);
+            if (command != null) {
+                buffer.putString(command);
+            }
+            writePacket(buffer);
+            super.doOpen();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.sshd.client.channel.AbstractClientChannel#doWriteData(byte[], int, int)
+         */
+        @Override
+        protected void doWriteData(byte[] data,
+                                   int off,
+                                   int len) throws IOException
+        {
+            // the window is consumed as the output is read
+            if (!isClosing()) {
+                stdOut.write(data, off, len);
+            }
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.sshd.client.channel.AbstractClientChannel#doWriteExtendedData(byte[], int, int)
+         */
+        @Override
+        protected void doWriteExtendedData(byte[] data,
+                                           int off,
+                                           int len) throws IOException
+        {
+            if (!isClosing()) {
+                stdErr.write(data, off, len);
+            }
+        }
+
+        /**
+         * Consumes read output from the local window, which is adjusted once
+         * half of it has been consumed.
+         *
+         * @param len
+         *            the number of bytes read
+         * @throws IOException
+         *             if the window adjustment could not be sent.
+         */
+        void consumed(int len) throws IOException {
+            if (!isClosing()) {
+                localWindow.consumeAndCheck(len);
+            }
+        }
+
+        /**
+         * Sets the command to run when opened.
+         *
+         * @param command
+         *            the command, null for a shell
+         */
+        void setCommand(String command) {
+            this.command = command;
+        }
+
+        /**
+         * Signals the end of the standard input to the server.
+         *
+         * @throws IOException
+         *             Signals that an I/O exception has occurred.
+         */
+        synchronized void sendEndOfInput() throws IOException {
+            if (!inputEnded && !isClosing()) {
+                inputEnded = true;
+                sendEof();
+            }
+        }
+
+        /**
+         * Gets the lock on which output arrival and state changes are
+         * signaled.
+         *
+         * @return the lock
+         */
+        Object getLock() {
+            return lock;
+        }
+
+        /**
+         * Checks if no more output will arrive.
+         *
+         * @return true, if EOF received or channel closed
+         */
+        boolean isEof() {
+            return eof || closeFuture.isClosed();
+        }
+
+        /**
+         * Gets the exit signal.
+         *
+         * @return the exit signal or null if not received
+         */
+        String getExitSignal() {
+            return exitSignal;
+        }
+
+        /**
+         * Waits until one of given conditions is met.
+         *
+         * @param conditions
+         *            the awaited conditions
+         * @param timeout
+         *            the max time to wait (in ms.), 0 to wait forever
+         * @return the conditions met
+         * @see SSHTransportSession#waitForCondition(int, long)
+         */
+        int waitForCondition(int conditions,
+                             long timeout)
+        {
+            long deadline = System.currentTimeMillis() + timeout;
+            synchronized (lock) {
+                while (true) {
+                    int met = getConditions();
+                    if ((met & conditions) != 0) {
+                        return met;
+                    }
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (timeout > 0 && remaining <= 0) {
+                        return met | SSHTransportSession.TIMEOUT;
+                    }
+                    try {
+                        lock.wait(timeout > 0 ? remaining : 0);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return met | SSHTransportSession.TIMEOUT;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Gets the conditions currently met. Must hold the lock.
+         *
+         * @return the conditions
+         */
+        private int getConditions() {
+            int met = 0;
+            if (stdOut.size() > 0) {
+                met |= SSHTransportSession.STDOUT_DATA;
+            }
+            if (stdErr.size() > 0) {
+                met |= SSHTransportSession.STDERR_DATA;
+            }
+            if (closeFuture.isClosed()) {
+                met |= SSHTransportSession.CLOSED | SSHTransportSession.EOF;
+            }
+            if (eof) {
+                met |= SSHTransportSession.EOF;
+            }
+            if (exitStatus != null) {
+                met |= SSHTransportSession.EXIT_STATUS;
+            }
+            if (exitSignal != null) {
+                met |= SSHTransportSession.EXIT_SIGNAL;
+            }
+            return met;
+        }
+    }
+
+    /**
+     * The Class ChannelBuffer buffers output written by the I/O threads until
+     * it is read through its input stream. Writes never block: the server may
+     * not send more than the channel window, which is only adjusted as the
+     * buffer is read, hence the buffer never holds more than the window.
+     */
+    static class ChannelBuffer extends OutputStream {
+
+        /** The channel. */
+        private final MinaChannel channel;
+
+        /** The lock, shared with the channel. */
+        private final Object      lock;
+
+        /** The buffered bytes. */
+        private byte[]            buffer = new byte[BUFFER_SIZE];
+
+        /** The offset of the first unread byte. */
+        private int               start;
+
+        /** The offset after the last buffered byte. */
+        private int               end;
+
+        /**
+         * Instantiates a new channel buffer.
+         *
+         * @param channel
+         *            the channel
+         */
+        ChannelBuffer(MinaChannel channel) {
+            this.channel = channel;
+            this.lock = channel.getLock();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.io.OutputStream#write(int)
+         */
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.io.OutputStream#write(byte[], int, int)
+         */
+        @Override
+        public void write(byte[] b,
+                          int off,
+                          int len) throws IOException
+        {
+            synchronized (lock) {
+                int window = channel.getLocalWindow().getMaxSize();
+                if (end - start + len > window) {
+                    throw new IOException("Server exceeded the channel window of " + window + " bytes");
+                }
+                if (end + len > buffer.length) {
+                    int size = end - start;
+                    byte[] target = size + len > buffer.length
+                            ? new byte[Math.min(Math.max(buffer.length * 2, size + len), window)] : buffer;
+                    System.arraycopy(buffer, start, target, 0, size);
+                    buffer = target;
+                    start = 0;
+                    end = size;
+                }
+                System.arraycopy(b, off, buffer, end, len);
+                end += len;
+                lock.notifyAll();
+            }
+        }
+
+        /**
+         * Gets the number of unread bytes. Must hold the lock.
+         *
+         * @return the size
+         */
+        int size() {
+            return end - start;
+        }
+
+        /**
+         * Gets the input stream reading this buffer. Reading blocks until data
+         * arrives or the channel receives no more data.
+         *
+         * @return the input stream
+         */
+        InputStream getInputStream() {
+            return new InputStream() {
+
+                @Override
+                public int available() {
+                    synchronized (lock) {
+                        return end - start;
+                    }
+                }
+
+                @Override
+                public int read() throws IOException {
+                    byte[] b = new byte[1];
+                    return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+                }
+
+                @Override
+                public int read(byte[] b,
+                                int off,
+                                int len) throws IOException
+                {
+                    int count;
+                    synchronized (lock) {
+                        while (end == start) {
+                            if (channel.isEof()) {
+                                return -1;
+                            }
+                            try {
+                                lock.wait();
+                            } catch (InterruptedException e) {
+                                throw new InterruptedIOException();
+                            }
+                        }
+                        count = Math.min(len, end - start);
+                        System.arraycopy(buffer, start, b, off, count);
+                        start += count;
+                        if (start == end) {
+                            start = 0;
+                            end = 0;
+                        }
+                    }
+                    // outside the lock, as the window adjustment is sent
+                    channel.consumed(count);
+                    return count;
+                }
+            };
+        }
+    }
+}
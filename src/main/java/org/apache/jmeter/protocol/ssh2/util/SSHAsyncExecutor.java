@@ -0,0 +1,232 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.protocol.ssh2.util;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.jmeter.protocol.ssh2.util.SSHClient.SSHResult;
+import org.apache.jmeter.util.JMeterUtils;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * The Class SSHAsyncExecutor runs the executions submitted by all
+ * {@link SSHClient}s on a shared pool of daemon threads, so that a caller may
+ * have many executions in flight without blocking itself. It only offloads
+ * the blocking executions: each one keeps a pool thread busy until it
+ * completes. The pool size is given by the JMeter property
+ * {@value #MAX_THREADS_PROPERTY}: executions submitted while all threads are
+ * busy are queued in submission order. Callers needing dedicated threads,
+ * e.g. not to queue behind other callers, run executions on their own
+ * executor (see {@link #newExecutor(String, int)}).
+ */
+public final class SSHAsyncExecutor {
+
+    /** The JMeter property giving the max number of threads. */
+    public static final String         MAX_THREADS_PROPERTY = "ssh2.async.maxThreads";
+
+    /** The default max number of threads. */
+    public static final int            DEFAULT_MAX_THREADS  = 100;
+
+    /** The Constant logger. */
+    private static final Logger        logger               = LoggingManager.getLoggerForClass();
+
+    /** The number of threads created, used to name them. */
+    private static final AtomicInteger THREAD_COUNT         = new AtomicInteger();
+
+    /** The executor, created on first use. */
+    private static ExecutorService     executor;
+
+    /**
+     * Instantiates a new SSH async executor.
+     */
+    private SSHAsyncExecutor() {
+    }
+
+    /**
+     * Submits an execution.
+     *
+     * @param execution
+     *            the execution
+     * @param callback
+     *            the callback notified on start and completion, may be null
+     * @return the future result
+     */
+    static Future<SSHResult> submit(Callable<SSHResult> execution,
+                                    SSHResultCallback callback)
+    {
+        return submit(execution, callback, null);
+    }
+
+    /**
+     * Submits an execution to given executor.
+     *
+     * @param execution
+     *            the execution
+     * @param callback
+     *            the callback notified on start and completion, may be null
+     * @param executor
+     *            the executor, null for the shared one
+     * @return the future result
+     */
+    static Future<SSHResult> submit(final Callable<SSHResult> execution,
+                                    final SSHResultCallback callback,
+                                    ExecutorService executor)
+    {
+        FutureTask<SSHResult> task = new FutureTask<SSHResult>(new Callable<SSHResult>() {
+
+            public SSHResult call() throws Exception {
+                if (callback != null) {
+                    callback.started();
+                }
+                return execution.call();
+            }
+        }) {
+
+            @Override
+            protected void done() {
+                if (callback != null) {
+                    notifyCallback(this, callback);
+                }
+            }
+        };
+        (executor == null ? getExecutor() : executor).execute(task);
+        return task;
+    }
+
+    /**
+     * Shuts down the executor, interrupting the executions in flight and
+     * cancelling the queued ones, so that their futures and callbacks
+     * complete. It is created again on next submission.
+     */
+    public static void shutdown() {
+        ExecutorService stopped;
+        synchronized (SSHAsyncExecutor.class) {
+            stopped = executor;
+            executor = null;
+        }
+        if (stopped != null) {
+            shutdown(stopped);
+        }
+    }
+
+    /**
+     * Shuts down given executor, interrupting the executions in flight and
+     * cancelling the queued ones, so that their futures and callbacks
+     * complete.
+     *
+     * @param executor
+     *            the executor
+     */
+    public static void shutdown(ExecutorService executor) {
+        List<Runnable> queued = executor.shutdownNow();
+        for (Runnable task : queued) {
+            // a removed task never runs, its callback is only notified once cancelled
+            if (task instanceof Future) {
+                ((Future<?>) task).cancel(false);
+            }
+        }
+        if (!queued.isEmpty()) {
+            logger.info("Cancelled " + queued.size() + " queued asynchronous SSH execution(s)");
+        }
+    }
+
+    /**
+     * Creates an executor of daemon threads, which stop once idle for a
+     * minute. Executions submitted while all threads are busy are queued in
+     * submission order.
+     *
+     * @param name
+     *            the name prefix of the threads
+     * @param maxThreads
+     *            the max number of threads
+     * @return the executor, to shut down with {@link #shutdown(ExecutorService)}
+     */
+    public static ExecutorService newExecutor(final String name,
+                                              int maxThreads)
+    {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(maxThreads, maxThreads,
+                                                         60, TimeUnit.SECONDS,
+                                                         new LinkedBlockingQueue<Runnable>(),
+                                                         new ThreadFactory() {
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name + "-" + THREAD_COUNT.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Gets the executor, creating it if needed.
+     *
+     * @return the executor
+     */
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            int maxThreads = Math.max(1, JMeterUtils.getPropDefault(MAX_THREADS_PROPERTY, DEFAULT_MAX_THREADS));
+            executor = newExecutor("SSH-async", maxThreads);
+            logger.info("Created asynchronous SSH executor with " + maxThreads + " thread(s)");
+        }
+        return executor;
+    }
+
+    /**
+     * Notifies the callback of the outcome of a completed task.
+     *
+     * @param task
+     *            the completed task
+     * @param callback
+     *            the callback
+     */
+    private static void notifyCallback(Future<SSHResult> task,
+                                       SSHResultCallback callback)
+    {
+        try {
+            try {
+                callback.completed(task.get());
+            } catch (CancellationException e) {
+                callback.failed(new SSHException("SSH execution cancelled", e));
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                callback.failed(cause instanceof SSHException
+                        ? (SSHException) cause : new SSHException("SSH execution failed", cause));
+            }
+        } catch (InterruptedException e) {
+            // cannot happen, the task is done
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            logger.warn("SSH result callback failed", e);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.protocol.ssh2.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The Class SSHAuthMethodCache remembers, per server, user and credentials
+ * (see {@link SSHClientConfig#getConnectionKey()}), the authentication method
+ * which succeeded, so that later connections go straight to it instead of
+ * asking the server for the methods it accepts.
+ */
+public final class SSHAuthMethodCache {
+
+    /** The method name of password authentication. */
+    public static final String              PASSWORD             = "password";
+
+    /** The method name of keyboard-interactive authentication. */
+    public static final String              KEYBOARD_INTERACTIVE = "keyboard-interactive";
+
+    /** The method name of public key authentication. */
+    public static final String              PUBLIC_KEY           = "publickey";
+
+    /** The method name of none authentication. */
+    public static final String              NONE                 = "none";
+
+    /** The authentication methods, by connection key. */
+    private static final Map<String, String> METHODS              = new ConcurrentHashMap<String, String>();
+
+    /**
+     * Instantiates a new SSH auth method cache.
+     */
+    private SSHAuthMethodCache() {
+    }
+
+    /**
+     * Gets the authentication method which succeeded for given server and
+     * user.
+     *
+     * @param config
+     *            the SSH client config
+     * @return the method or null if not known.
+     */
+    public static String get(SSHClientConfig config) {
+        return METHODS.get(config.getConnectionKey());
+    }
+
+    /**
+     * Records the authentication method which succeeded for given server and
+     * user.
+     *
+     * @param config
+     *            the SSH client config
+     * @param method
+     *            the method
+     */
+    public static void put(SSHClientConfig config,
+                           String method)
+    {
+        METHODS.put(config.getConnectionKey(), method);
+    }
+
+    /**
+     * Forgets the authentication method for given server and user, e.g. after
+     * it failed.
+     *
+     * @param config
+     *            the SSH client config
+     */
+    public static void remove(SSHClientConfig config) {
+        METHODS.remove(config.getConnectionKey());
+    }
+
+    /**
+     * Clears the cache.
+     */
+    public static void clear() {
+        METHODS.clear();
+    }
+}
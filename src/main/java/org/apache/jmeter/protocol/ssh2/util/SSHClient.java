@@ -18,47 +18,88 @@
 
 package org.apache.jmeter.protocol.ssh2.util;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.regex.MatchResult;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.jorphan.logging.LoggingManager;
 import org.apache.log.Logger;
 
-import ch.ethz.ssh2.ChannelCondition;
-import ch.ethz.ssh2.Connection;
-import ch.ethz.ssh2.Session;
-
 /**
  * The Class SSHClient executes commands on remote SSH server. Server
  * information is provided as SSHClientConfig.
  */
 public class SSHClient {
 
-    /** The SSH script's line end character pattern. */
-    private static final String SCRIPT_LINE_END_PATTERN   = "[\r\n]+";
+    /**
+     * The pattern of the prompt injected into the shell when prompt marker is
+     * enabled. Group 1 is the exit status of previous command.
+     */
+    static final Pattern         PROMPT_MARKER_PATTERN       = Pattern.compile("__JMSSH2_PROMPT_(\\d+)__ ");
+
+    /**
+     * The command setting the injected prompt. The marker is quoted in two
+     * parts so that the echo of this command does not match the prompt.
+     */
+    static final String          PROMPT_MARKER_COMMAND       = "PS1='__JMSSH2''_PROMPT_$?__ '; PS2=''";
+
+    /** The charset commands are encoded with, by both transports and scripts. */
+    static final Charset         COMMAND_CHARSET             = Charset.forName("UTF-8");
 
-    /** The SSH script comment character. */
-    private static final String SCRIPT_COMMENT_IDENTIFIER = "#";
+    /** The command setting the injected prompt, encoded. */
+    private static final byte[]  PROMPT_MARKER_COMMAND_BYTES = SSHScript.encode(PROMPT_MARKER_COMMAND);
 
-    /** The wait command. */
-    private static final String SCRIPT_WAIT_COMMAND       = "wait ";
+    /**
+     * The pattern of the output which tells that a persistent shell is
+     * initialized.
+     */
+    static final Pattern         SHELL_READY_PATTERN         = Pattern.compile("__JMSSH2_READY__\\r?\\n");
+
+    /** The command ending the initialization of a persistent shell. */
+    private static final byte[]  SHELL_READY_COMMAND_BYTES   = SSHScript.encode("echo \"__JMSSH2\"\"_READY__\"");
+
+    /** The default command of the shell reading a pipelined script. */
+    static final String          DEFAULT_SCRIPT_SHELL        = "bash -s";
 
-    /** The end line character send to server to tell end of command. */
-    private static final String SCRIPT_END_LINE           = "\n";
+    /**
+     * The max length of the markers injected into the output: prompt, step
+     * and ready markers, with an exit status of at most 3 digits.
+     */
+    static final int             MARKER_MAX_LENGTH           = 32;
+
+    /**
+     * The max length of a prompt matching the configured prompt pattern.
+     * Output is scanned for the prompt incrementally, a longer prompt may be
+     * missed.
+     */
+    static final int             PROMPT_MAX_LENGTH           = 1024;
 
-    /** The patter to split the string of wait command. */
-    private static final String WAIT_CMD_SPLIT_PATTERN    = "[ \t]+";
+    /**
+     * The max time (in ms.) of one round over the channels of commands
+     * executed in parallel, shared out between the channels still open.
+     */
+    private static final long    PARALLEL_POLL_INTERVAL      = 20;
 
     /** The Constant logger. */
-    private static final Logger logger                    = LoggingManager.getLoggerForClass();
+    private static final Logger  logger                      = LoggingManager.getLoggerForClass();
 
     /** The ssh client config. */
-    private SSHClientConfig     sshClientConfig;
+    private SSHClientConfig      sshClientConfig;
 
     /**
      * Instantiates a new SSH client.
@@ -78,49 +119,338 @@ public class SSHClient {
      * and passphrase<br/>
      * If ssh-key-file not provided then connection with authenticated with none
      * (i.e. only username)
+     * <p>
+     * On first connection to a server (per user), the authentication methods
+     * accepted by the server are asked and the first one usable with the
+     * provided credentials is used: password, keyboard-interactive (answered
+     * with the password), public key, none. The method which succeeded is
+     * then used straight away on later connections.
+     *
+     * @return the authenticated SSH connection
+     * @throws SSHException
+     *             if user is not authenticated or on IO exception.
+     */
+    protected SSHTransportConnection getSSHConnection() throws SSHException {
+        return getSSHConnection(null);
+    }
+
+    /**
+     * Gets the authenticated SSH connection, see {@link #getSSHConnection()}.
+     * The time taken by connect (TCP connect and key exchange) and by
+     * authentication is recorded in given result.
      *
+     * @param timings
+     *            the result which records the connection timings, may be null
      * @return the authenticated SSH connection
      * @throws SSHException
      *             if user is not authenticated or on IO exception.
      */
-    protected Connection getSSHConnection() throws SSHException {
+    protected SSHTransportConnection getSSHConnection(SSHResult timings) throws SSHException {
 
-        Connection conn;
+        SSHTransportConnection conn = null;
+        boolean failed = true;
         try {
             if (logger.isDebugEnabled()) {
                 logger.debug("Creating SSH connection.");
             }
-            conn = new Connection(sshClientConfig.getHostname(), sshClientConfig.getPort());
-            conn.connect();
+            long start = System.currentTimeMillis();
+            conn = connect();
+            long connected = System.currentTimeMillis();
+            String method = SSHAuthMethodCache.get(sshClientConfig);
+            boolean cached = method != null;
             boolean isAuthenticated = false;
-            String authType = null;
-            if (StringUtils.isNotBlank(sshClientConfig.getPassword())) {
-                authType = "authentication with password";
-                isAuthenticated = conn.authenticateWithPassword(sshClientConfig.getUserName(),
-                                                                sshClientConfig.getPassword());
-            } else if (StringUtils.isNotBlank(sshClientConfig.getSshkeyfile())) {
-                authType = "authentication with public key";
-                isAuthenticated = conn.authenticateWithPublicKey(sshClientConfig.getUserName(),
-                                                                 new File(sshClientConfig
-                                                                         .getSshkeyfile()),
-                                                                 sshClientConfig.getPassphrase());
-            } else {
-                authType = "authentication with none";
-                isAuthenticated = conn.authenticateWithNone(sshClientConfig.getUserName());
+            if (!cached) {
+                // ask the server once, this tries 'none' authentication
+                String[] methods = conn.getRemainingAuthMethods(sshClientConfig.getUserName());
+                if (conn.isAuthenticationComplete()) {
+                    method = SSHAuthMethodCache.NONE;
+                    isAuthenticated = true;
+                } else {
+                    method = chooseAuthMethod(methods);
+                }
+            }
+            String authType = "authentication with " + method;
+            if (!isAuthenticated) {
+                isAuthenticated = authenticate(conn, method);
             }
 
+            if (timings != null) {
+                timings.setConnectTime(connected - start);
+                timings.setAuthTime(System.currentTimeMillis() - connected);
+            }
             if (isAuthenticated == false) {
+                if (cached) {
+                    // server policy may have changed, negotiate again next time
+                    SSHAuthMethodCache.remove(sshClientConfig);
+                }
                 throw new SSHException("Failed to create SSH connection :" + authType);
             }
+            SSHAuthMethodCache.put(sshClientConfig, method);
             if (logger.isDebugEnabled()) {
                 logger.debug("SSH connection created with " + authType);
             }
+            failed = false;
         } catch (IOException ioe) {
             throw new SSHException("Failed to create SSH connection ", ioe);
+        } finally {
+            if (failed) {
+                closeSSHResource(null, conn);
+            }
+        }
+        return conn;
+    }
+
+    /**
+     * Connects (TCP connect and key exchange) with the configured transport,
+     * within the configured connection and key exchange timeouts.
+     *
+     * @return the connection, not authenticated yet
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     * @throws SSHException
+     *             if connection or key exchange timed out (see
+     *             {@link SSHTimeoutException}) or the transport cannot be
+     *             used.
+     */
+    private SSHTransportConnection connect() throws IOException, SSHException {
+        SSHTransport transport = SSHTransportFactory.getTransport(sshClientConfig.getTransport());
+        try {
+            return transport.connect(sshClientConfig);
+        } catch (IOException e) {
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof SocketTimeoutException) {
+                    throw new SSHTimeoutException("Failed to create SSH connection : " + cause.getMessage()
+                            + " (connectionTimeout=" + sshClientConfig.getConnectionTimeout()
+                            + " ms, kexTimeout=" + sshClientConfig.getKexTimeout() + " ms)", e);
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Splits a comma separated algorithm list.
+     *
+     * @param algorithms
+     *            the algorithm list
+     * @return the algorithms or null if list is blank.
+     */
+    static String[] getAlgorithms(String algorithms) {
+        if (StringUtils.isBlank(algorithms)) {
+            return null;
+        }
+        return StringUtils.split(algorithms.replaceAll("\\s", ""), ',');
+    }
+
+    /**
+     * Chooses the authentication method among the methods accepted by the
+     * server, according to the provided credentials.
+     *
+     * @param methods
+     *            the methods accepted by the server
+     * @return the method
+     * @throws SSHException
+     *             if no accepted method can be used with the provided
+     *             credentials.
+     */
+    private String chooseAuthMethod(String[] methods) throws SSHException {
+        List<String> accepted = Arrays.asList(methods);
+        if (StringUtils.isNotBlank(sshClientConfig.getPassword())) {
+            if (accepted.contains(SSHAuthMethodCache.PASSWORD)) {
+                return SSHAuthMethodCache.PASSWORD;
+            }
+            if (accepted.contains(SSHAuthMethodCache.KEYBOARD_INTERACTIVE)) {
+                return SSHAuthMethodCache.KEYBOARD_INTERACTIVE;
+            }
+        }
+        if (StringUtils.isNotBlank(sshClientConfig.getSshkeyfile())
+                && accepted.contains(SSHAuthMethodCache.PUBLIC_KEY)) {
+            return SSHAuthMethodCache.PUBLIC_KEY;
+        }
+        throw new SSHException("Failed to create SSH connection : no usable authentication method, server accepts "
+                + accepted);
+    }
+
+    /**
+     * Authenticates the connection with given method.
+     *
+     * @param conn
+     *            the connection
+     * @param method
+     *            the authentication method
+     * @return true, if authenticated
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     * @throws SSHException
+     *             if the transport cannot be used.
+     */
+    private boolean authenticate(SSHTransportConnection conn,
+                                 String method) throws IOException, SSHException
+    {
+        String userName = sshClientConfig.getUserName();
+        if (SSHAuthMethodCache.PASSWORD.equals(method)) {
+            return conn.authenticateWithPassword(userName, sshClientConfig.getPassword());
+        }
+        if (SSHAuthMethodCache.KEYBOARD_INTERACTIVE.equals(method)) {
+            return conn.authenticateWithKeyboardInteractive(userName, sshClientConfig.getPassword());
+        }
+        if (SSHAuthMethodCache.PUBLIC_KEY.equals(method)) {
+            // key is read and decoded once, then authenticated from memory
+            Object privateKey = SSHKeyCache.getPrivateKey(SSHTransportFactory.getTransport(sshClientConfig.getTransport()),
+                                                          new File(sshClientConfig.getSshkeyfile()),
+                                                          sshClientConfig.getPassphrase());
+            return conn.authenticateWithPublicKey(userName, privateKey);
+        }
+        return conn.authenticateWithNone(userName);
+    }
+
+    /**
+     * Acquires an authenticated SSH connection. If connection pooling is
+     * enabled then a connection is borrowed from the shared pool. Else if
+     * connection reuse is enabled then the connection cached by the current
+     * thread is returned (it is created and cached on first use), otherwise a
+     * new connection is created.
+     *
+     * @param timings
+     *            the result which records the connection timings, may be null
+     * @return the authenticated SSH connection
+     * @throws SSHException
+     *             if user is not authenticated or on IO exception.
+     */
+    protected SSHTransportConnection acquireConnection(SSHResult timings) throws SSHException {
+        return acquireConnection(timings, 1);
+    }
+
+    /**
+     * Gets the SSH connection for an execution which opens given number of
+     * sessions at the same time. A pooled connection is borrowed with that
+     * many channels.
+     *
+     * @param timings
+     *            the result which records the connection timings, may be null
+     * @param channels
+     *            the number of sessions opened at the same time
+     * @return the SSH connection
+     * @throws SSHException
+     *             if failed to get a connection.
+     */
+    protected SSHTransportConnection acquireConnection(SSHResult timings,
+                                                       int channels) throws SSHException
+    {
+        if (sshClientConfig.getConnectionPoolSize() > 0) {
+            return SSHConnectionPool.getPool(sshClientConfig).borrow(this, timings, channels);
+        }
+        if (!sshClientConfig.isReuseConnection()) {
+            return getSSHConnection(timings);
+        }
+        String key = sshClientConfig.getConnectionKey();
+        SSHTransportConnection conn = SSHConnectionCache.get(key);
+        if (conn == null) {
+            conn = getSSHConnection(timings);
+            SSHConnectionCache.put(key, conn);
+        } else if (logger.isDebugEnabled()) {
+            logger.debug("Reusing SSH connection.");
         }
         return conn;
     }
 
+    /**
+     * Releases the SSH connection acquired by {@link #acquireConnection(SSHResult)}. A
+     * pooled connection is returned to the pool. A reused connection is kept
+     * open unless the execution on it failed, in which case it is discarded so
+     * that the next execution reconnects.
+     *
+     * @param conn
+     *            the SSH connection
+     * @param failed
+     *            whether the execution on this connection failed
+     */
+    protected void releaseConnection(SSHTransportConnection conn,
+                                     boolean failed)
+    {
+        releaseConnection(conn, failed, 1);
+    }
+
+    /**
+     * Releases the SSH connection acquired by
+     * {@link #acquireConnection(SSHResult, int)}.
+     *
+     * @param conn
+     *            the SSH connection
+     * @param failed
+     *            whether the execution on this connection failed
+     * @param channels
+     *            the number of sessions opened at the same time
+     */
+    protected void releaseConnection(SSHTransportConnection conn,
+                                     boolean failed,
+                                     int channels)
+    {
+        if (conn == null) {
+            return;
+        }
+        if (sshClientConfig.getConnectionPoolSize() > 0) {
+            SSHConnectionPool.getPool(sshClientConfig).release(conn, failed, channels);
+        } else if (!sshClientConfig.isReuseConnection()) {
+            closeSSHResource(null, conn);
+        } else if (failed) {
+            SSHConnectionCache.invalidate(sshClientConfig.getConnectionKey());
+        }
+    }
+
+    /**
+     * Opens in advance the connection(s) used by later executions of this
+     * configuration. For a pooled configuration the pool is filled using at
+     * most concurrency parallel connects. For a reused connection the current
+     * thread's connection is opened and, if requested, an idle session is
+     * opened on it for the next execution.
+     *
+     * @param concurrency
+     *            the max number of connections opened in parallel
+     * @param withIdleSession
+     *            whether to open an idle session on the reused connection
+     * @throws SSHException
+     *             if a connection could not be opened.
+     */
+    public void warmUp(int concurrency,
+                       boolean withIdleSession) throws SSHException
+    {
+        if (sshClientConfig.getConnectionPoolSize() > 0) {
+            SSHConnectionPool.getPool(sshClientConfig).warmUp(this, concurrency);
+        } else if (sshClientConfig.isReuseConnection()) {
+            SSHTransportConnection conn = acquireConnection(null);
+            if (withIdleSession) {
+                try {
+                    SSHConnectionCache.putIdleSession(sshClientConfig.getConnectionKey(),
+                                                      conn.openSession());
+                } catch (IOException e) {
+                    releaseConnection(conn, true);
+                    throw new SSHException("Failed to open SSH session", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens a session on given connection, or hands out the idle session
+     * opened in advance on the current thread's reused connection.
+     *
+     * @param conn
+     *            the SSH connection
+     * @return the session
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private SSHTransportSession openSession(SSHTransportConnection conn) throws IOException {
+        if (sshClientConfig.isReuseConnection() && sshClientConfig.getConnectionPoolSize() <= 0) {
+            SSHTransportSession session = SSHConnectionCache.takeIdleSession(sshClientConfig.getConnectionKey());
+            if (session != null) {
+                return session;
+            }
+        }
+        return conn.openSession();
+    }
+
     /**
      * Gets the simple SSH session for given SSH connection.
      *
@@ -130,9 +460,9 @@ public class SSHClient {
      * @throws SSHException
      *             if failed to open SSH session.
      */
-    protected Session getSSHSession(Connection conn) throws SSHException {
+    protected SSHTransportSession getSSHSession(SSHTransportConnection conn) throws SSHException {
         try {
-            return conn.openSession();
+            return openSession(conn);
         } catch (IOException e) {
             throw new SSHException("Failed to open SSH session", e);
         }
@@ -147,18 +477,15 @@ public class SSHClient {
      * @throws SSHException
      *             if failed to open session.
      */
-    protected Session getSSHSessionWithPTY(Connection conn) throws SSHException {
+    protected SSHTransportSession getSSHSessionWithPTY(SSHTransportConnection conn) throws SSHException {
 
-        Session session = null;
+        SSHTransportSession session = null;
         try {
             /* Create a session */
-            session = conn.openSession();
+            session = openSession(conn);
             session.requestPTY(sshClientConfig.getTerminalType(),
                                sshClientConfig.getTerminalWidth(),
-                               sshClientConfig.getTerminalHeight(),
-                               0,
-                               0,
-                               null);
+                               sshClientConfig.getTerminalHeight());
             session.startShell();
         } catch (IOException ioe) {
             throw new SSHException("Failed to create SSH session with PTY", ioe);
@@ -166,58 +493,147 @@ public class SSHClient {
         return session;
     }
 
+    /**
+     * Gets an SSH session executing the script shell, without PTY, which
+     * reads commands from its standard input.
+     *
+     * @param conn
+     *            the SSH connection
+     * @return the SSH session executing the script shell
+     * @throws SSHException
+     *             if failed to open session.
+     * @see SSHClientConfig#getScriptShell()
+     */
+    protected SSHTransportSession getSSHSessionWithScriptShell(SSHTransportConnection conn) throws SSHException {
+        String shell = StringUtils.isBlank(sshClientConfig.getScriptShell()) ? DEFAULT_SCRIPT_SHELL
+                : sshClientConfig.getScriptShell().trim();
+        SSHTransportSession session = null;
+        try {
+            session = openSession(conn);
+            session.execCommand(shell);
+        } catch (IOException ioe) {
+            closeSSHResource(session, null);
+            throw new SSHException("Failed to execute script shell:[" + shell + "]", ioe);
+        }
+        return session;
+    }
+
     /**
      * Execute the command.
      *
      * @param cmd
      *            the input command to be executed.
      * @param waitForResponseInSec
-     *            the wait for response (in sec.) after executing this command
+     *            ignored, command completes as soon as it exits.
      * @return the result of SSH command
      * @throws SSHException
      *             if failed to execute this command.
+     * @deprecated the command is not suffixed with a sleep any more, use
+     *             {@link #executeCmd(String)}.
      */
+    @Deprecated
     public SSHResult executeCmd(String cmd,
                                 int waitForResponseInSec) throws SSHException
     {
+        return executeCmd(cmd);
+    }
 
-        Connection conn = null;
-        Session session = null;
+    /**
+     * Execute the command. The execution completes as soon as the command
+     * has exited and all its output has been read, or when the max wait time
+     * for output has elapsed.
+     * <p>
+     * If an output sink is configured (see {@link SSHClientConfig#getOutputSink()}),
+     * standard output is written to it as it is received, and the result's
+     * standard output is only the sink's preview.
+     *
+     * @param cmd
+     *            the input command to be executed.
+     * @return the result of SSH command
+     * @throws SSHException
+     *             if failed to execute this command.
+     */
+    public SSHResult executeCmd(String cmd) throws SSHException {
+
+        SSHTransportConnection conn = null;
+        SSHTransportSession session = null;
+        SSHOutputSink sink = null;
+        ShellConsoleReader consoleReader = null;
+        SSHResult result = new SSHResult();
+        boolean failed = true;
         try {
 
-            conn = this.getSSHConnection();
-            session = conn.openSession();
+            long start = System.currentTimeMillis();
+            conn = this.acquireConnection(result);
+            long acquired = System.currentTimeMillis();
+            result.setAcquireTime(acquired - start);
+            session = this.getSSHSession(conn);
+            long sessionOpenTime = System.currentTimeMillis() - acquired;
 
-            ShellConsoleReader consoleThread = new ShellConsoleReader(session);
-            consoleThread.setName("ShellConsoleReader");
-            consoleThread.setDaemon(true);
-            consoleThread.start();
+            sink = SSHOutputSink.create(sshClientConfig);
+            consoleReader = new ShellConsoleReader(session, false, sink);
             logger.info(sshClientConfig.describe());
             logger.info(">>command: " + cmd);
-            session.execCommand(cmd + " && sleep " + waitForResponseInSec);
+            long executing = System.currentTimeMillis();
+            long deadline = getOutputDeadline();
+            session.execCommand(cmd);
+            // some transports (MINA) only open the channel on exec
+            result.setSessionOpenTime(sessionOpenTime + System.currentTimeMillis() - executing);
+            result.setBytesSent(cmd.getBytes(COMMAND_CHARSET).length);
 
-            // wait till command properly executed or timed-out
-            consoleThread.join(sshClientConfig.getMaxWaitTimeForOutput());
+            // read till all output is read (EOF) or timed-out
+            consoleReader.readUntil(deadline);
 
-            SSHResult result = new SSHResult();
+            // exit status may arrive after EOF
+            waitForExit(session, deadline);
+
+            result.setFirstByteTime(consoleReader.getFirstByteTime());
+            result.setBytesReceived(consoleReader.getBytesReceived());
             result.setExitSignal(session.getExitSignal());
             result.setExitStatus(session.getExitStatus());
-            result.setStdErr(consoleThread.getStdErr().toString());
-            result.setStdOut(consoleThread.getStdOut().toString());
-            return result;
+            result.setStdErr(consoleReader.getStdErr());
+            result.setStdOut(consoleReader.getStdOut());
+            if (sink == null) {
+                result.setOutputSize(consoleReader.getStdOutSize());
+            }
+            failed = false;
 
-        } catch (InterruptedException e) {
-            throw new SSHException("Failed to execute command:[" + cmd + "]", e);
         } catch (IOException e) {
             throw new SSHException("Failed to execute command:[" + cmd + "]", e);
         } finally {
-            closeSSHResource(session, conn);
+            if (sink != null) {
+                sink.close();
+            }
+            releaseOutput(consoleReader);
+            closeSSHResource(session, null);
+            releaseConnection(conn, failed);
         }
 
+        if (sink != null) {
+            // the digest is computed once closed
+            result.setOutputSize(sink.getSize());
+            result.setOutputDigest(sink.getDigest());
+        }
+        return result;
     }
 
     /**
      * Execute the script. Script will be executed line by line.
+     * <p>
+     * If a prompt pattern is configured (or the prompt marker injected), each
+     * command is sent once the shell prompt has been received, and script
+     * execution completes as soon as the prompt following the last command
+     * has been received. Otherwise commands are sent one after the other and
+     * the output is read until the shell exits or the max wait time for
+     * output has elapsed.
+     * <p>
+     * The result holds one step per command sent, with its own output and
+     * timings. In prompt mode, a step ends when the following prompt is
+     * received and its exit status is read from group 1 of the prompt
+     * pattern if any. Otherwise a step ends when the next command is sent.
+     * <p>
+     * If the script is pipelined (see {@link SSHClientConfig#isPipelineScript()}),
+     * it is executed as described in {@link #executeScript(SSHScript, long)}.
      *
      * @param script
      *            the input script content
@@ -229,87 +645,188 @@ public class SSHClient {
      * @return the SSH command result
      * @throws SSHException
      *             if failed to execute the SSH script.
+     * @see SSHScript#compile(String, boolean)
      */
-    @SuppressWarnings("resource")
     public SSHResult executeScript(String script,
                                    boolean waitCmdEnabled,
                                    long delayAfterEachCmd) throws SSHException
     {
-        Connection conn = null;
-        Session session = null;
+        return executeScript(SSHScript.compile(script, waitCmdEnabled), delayAfterEachCmd);
+    }
+
+    /**
+     * Execute the compiled script.
+     * <p>
+     * If the script is pipelined (see {@link SSHClientConfig#isPipelineScript()}),
+     * the script shell is executed without PTY and the whole script is
+     * written at once to its standard input, which is then closed: there is
+     * no delay after each command and no prompt to wait for. The remote
+     * shell runs the commands one after the other, and the step boundaries
+     * and exit statuses are recovered from the markers written after each
+     * command, which are removed from the output; a step starts when the
+     * previous one ended. The script completes when the shell exits.
+     * Commands reading their standard input would consume the rest of the
+     * script and must have it redirected.
+     * <p>
+     * If the shell is persistent (see {@link SSHClientConfig#isPersistentShell()}),
+     * the script is sent to the interactive shell kept open by the current
+     * thread, which is started (and initialized) on first use with the
+     * prompt marker injected: each command is sent once the prompt has been
+     * received, and the script completes as soon as the prompt following the
+     * last command has been received. A shell which died is restarted, one
+     * which hung (a prompt not received in time) is closed after the
+     * execution so that the next one starts a new shell.
+     *
+     * @param script
+     *            the compiled script
+     * @param delayAfterEachCmd
+     *            the delay after each command, ignored if script is
+     *            pipelined.
+     * @return the SSH command result
+     * @throws SSHException
+     *             if failed to execute the SSH script.
+     * @see #executeScript(String, boolean, long)
+     */
+    @SuppressWarnings("resource")
+    public SSHResult executeScript(SSHScript script,
+                                   long delayAfterEachCmd) throws SSHException
+    {
+        if (sshClientConfig.isPipelineScript()) {
+            return executePipelinedScript(script);
+        }
+        if (sshClientConfig.isPersistentShell()) {
+            return executeScriptInPersistentShell(script, delayAfterEachCmd);
+        }
+        SSHTransportConnection conn = null;
+        SSHTransportSession session = null;
         OutputStream cmdOutStream = null;
+        ShellConsoleReader consoleReader = null;
+        boolean failed = true;
         try {
 
-            conn = this.getSSHConnection();
-            session = this.getSSHSessionWithPTY(conn);
+            SSHResult result = new SSHResult();
+            long start = System.currentTimeMillis();
+            conn = this.acquireConnection(result);
+            long acquired = System.currentTimeMillis();
+            result.setAcquireTime(acquired - start);
+            boolean pty = !sshClientConfig.isDisablePty();
+            session = pty ? this.getSSHSessionWithPTY(conn) : this.getSSHSessionWithScriptShell(conn);
+            result.setSessionOpenTime(System.currentTimeMillis() - acquired);
             cmdOutStream = session.getStdin();
+            long bytesSent = 0;
 
-            ShellConsoleReader consoleThread = new ShellConsoleReader(session);
-            consoleThread.setName("ShellConsoleReader");
-            consoleThread.start();
+            consoleReader = new ShellConsoleReader(session, pty && sshClientConfig.isStripTerminalOutput());
 
             logger.info(sshClientConfig.describe());
 
-            String commands[] = script.split(SCRIPT_LINE_END_PATTERN);
-            for (String command : commands) {
-                // ignore empty line
-                if (StringUtils.isNotBlank(command)) {
+            // without PTY, each command is followed by a step marker awaited as prompt
+            Pattern prompt = pty ? getPromptPattern() : SSHScript.STEP_MARKER_PATTERN;
+            int promptEnd = 0;
+            if (pty && prompt != null) {
+                // when prompt is awaited, wait for the first one before sending commands
+                if (sshClientConfig.isInjectPromptMarker()) {
+                    bytesSent += writeCommand(cmdOutStream, PROMPT_MARKER_COMMAND_BYTES);
+                }
+                long deadline = getOutputDeadline();
+                MatchResult match = consoleReader.readUntilMatch(prompt, promptEnd, PROMPT_MAX_LENGTH, deadline);
+                if (match == null) {
+                    throw new SSHException("Prompt not received within "
+                            + sshClientConfig.getMaxWaitTimeForOutput() + " ms after login. Output:["
+                            + consoleReader.getStdOut() + "]");
+                }
+                promptEnd += match.end();
+            }
 
-                    // skip # (comment) line.
-                    if (command.startsWith(SCRIPT_COMMENT_IDENTIFIER)) {
-                        continue;
+            // the step awaiting the next command to end, if prompt is not awaited
+            SSHStepResult step = null;
+            boolean stopped = false;
+
+            for (SSHScript.Step scriptStep : script.getSteps()) {
+                if (scriptStep.isWait()) {
+                    // sleep the thread on wait command call.
+                    if (!stopped) {
+                        logger.info("Thread is waiting for(in sec):" + scriptStep.getWaitTime() / 1000);
+                        // keep reading output while waiting
+                        consoleReader.readFor(scriptStep.getWaitTime());
                     }
+                    continue;
+                }
+                String command = scriptStep.getCommand();
+
+                if (stopped) {
+                    logger.info("Skipping command: " + command);
+                    continue;
+                }
 
-                    // check for wait command.
-                    if (command.startsWith(SCRIPT_WAIT_COMMAND)) {
-                        // sleep the thread on wait command call.
-                        if (waitCmdEnabled) {
-                            // assuming 'wait' command format is like: wait 5
-                            String sleepArgs[] = command.split(WAIT_CMD_SPLIT_PATTERN);
-                            logger.info("Thread is waiting for(in sec):" + sleepArgs[1]);
-                            try {
-                                Thread.sleep(Long.parseLong(sleepArgs[1]) * 1000);
-                            } catch (NumberFormatException e) {
-                                throw new SSHException("Failed to parse time in wait command", e);
-                            } catch (InterruptedException ignore) {
-                                logger.debug("Command thread intruptted while execute wait command",
-                                             ignore);
-                            }
-                        }
+                if (step != null) {
+                    endStep(step, consoleReader);
+                }
+                step = new SSHStepResult(command);
+                step.setStartTime(System.currentTimeMillis());
+                step.setStdOutStart(consoleReader.getStdOutSize());
+                result.addStep(step);
+
+                bytesSent += writeCommand(cmdOutStream, pty ? scriptStep.getCommandBytes()
+                        : scriptStep.getMarkedCommandBytes());
+
+                logger.info(">>command: " + command);
+
+                if (prompt != null) {
+                    promptEnd = waitForPrompt(consoleReader, prompt, promptEnd, step);
+                    step = null;
+                    if (promptEnd < 0) {
+                        // shell exited or prompt not received
+                        stopped = true;
                         continue;
                     }
-
-                    cmdOutStream.write((command + SCRIPT_END_LINE).getBytes());
-                    cmdOutStream.flush();
-
-                    logger.info(">>command: " + command);
-
-                    // add delay after each command
+                    // simulate time taken by user to provide next input
                     if (delayAfterEachCmd > 0) {
-                        try {
-                            Thread.sleep(delayAfterEachCmd);
-                        } catch (InterruptedException ignore) {
-                            logger.debug("Command thread intruptted while delay after command",
-                                         ignore);
-                        }
+                        consoleReader.readFor(delayAfterEachCmd);
                     }
+                } else if (delayAfterEachCmd > 0) {
+                    // add delay after each command, reading output meanwhile
+                    consoleReader.readFor(delayAfterEachCmd);
+                } else {
+                    consoleReader.read(0);
                 }
 
             }
 
             logger.info("Script execution completed.");
-            try {
-                consoleThread.join(sshClientConfig.getMaxWaitTimeForOutput());
-            } catch (InterruptedException ignore) {
-                logger.debug("ShellConsoleReader thread intruptted", ignore);
+            long deadline = getOutputDeadline();
+            if (!pty) {
+                // end of input: the shell exits, unless stuck in a command
+                closeOutputStream(cmdOutStream);
+                cmdOutStream = null;
+                if (!stopped && !consoleReader.readUntil(deadline)) {
+                    waitForExit(session, deadline);
+                }
+            } else if (prompt != null) {
+                // last prompt received: only wait for exit status if shell exited
+                if (consoleReader.isEof()) {
+                    waitForExit(session, deadline);
+                }
+            } else if (!consoleReader.readUntil(deadline)) {
+                // shell exited, exit status may arrive after EOF
+                waitForExit(session, deadline);
+            }
+            if (step != null) {
+                endStep(step, consoleReader);
             }
 
             // collection the result
-            SSHResult result = new SSHResult();
+            result.setBytesSent(bytesSent);
+            result.setFirstByteTime(consoleReader.getFirstByteTime());
+            result.setBytesReceived(consoleReader.getBytesReceived());
             result.setExitSignal(session.getExitSignal());
             result.setExitStatus(session.getExitStatus());
-            String output = consoleThread.getStdOut();
+            String output = consoleReader.getStdOut();
+            if (!pty) {
+                output = SSHScript.STEP_MARKER_PATTERN.matcher(output).replaceAll("");
+                result.setStdErr(consoleReader.getStdErr());
+            }
             result.setStdOut(output);
+            failed = false;
 
             return result;
 
@@ -317,112 +834,567 @@ public class SSHClient {
             throw new SSHException("Failed to execute command:[" + script + "]", e);
         } finally {
             closeOutputStream(cmdOutStream);
-            closeSSHResource(session, conn);
+            releaseOutput(consoleReader);
+            closeSSHResource(session, null);
+            releaseConnection(conn, failed);
         }
 
     }
 
     /**
-     * The Class ShellConsoleReader reads the standard out and standard error
-     * for SSH session.
+     * Executes the compiled script pipelined to the script shell.
+     *
+     * @param script
+     *            the compiled script
+     * @return the SSH command result
+     * @throws SSHException
+     *             if failed to execute the SSH script.
+     * @see #executeScript(SSHScript, long)
      */
-    class ShellConsoleReader extends Thread {
-
-        /** The output stream buffer. */
-        ByteArrayOutputStream stdOut = null;
-
-        /** The error stream buffer. */
-        ByteArrayOutputStream stdErr = null;
-
-        /** The session. */
-        private Session       session;
-
-        /**
-         * Instantiates a new shell console reader.
-         *
-         * @param sess
-         *            the SSH session to be read.
-         */
-        public ShellConsoleReader(Session sess) {
-            super();
-            this.session = sess;
-        }
-
-        /*
-         * (non-Javadoc)
-         *
-         * @see java.lang.Thread#run()
-         */
-        public void run() {
-            byte buffer[] = new byte[10240];
-            if (stdOut == null) {
-                stdOut = new ByteArrayOutputStream(10240);
-            }
-            if (stdErr == null) {
-                stdErr = new ByteArrayOutputStream(10240);
-            }
-            BufferedInputStream shellInputStream = null;
-            InputStream cmdErrStream = null;
+    private SSHResult executePipelinedScript(SSHScript script) throws SSHException {
 
-            try {
-                shellInputStream = new BufferedInputStream(session.getStdout());
-                cmdErrStream = session.getStderr();
+        SSHTransportConnection conn = null;
+        SSHTransportSession session = null;
+        OutputStream cmdOutStream = null;
+        ShellConsoleReader consoleReader = null;
+        boolean failed = true;
+        try {
 
-                while (true) {
-                    try {
-                        if (!waitForCondition(session)) {
-                            break;
-                        }
-                        int len = -1;
-                        while ((len = shellInputStream.read(buffer)) != -1) {
-                            stdOut.write(buffer, 0, len);
-                        }
+            SSHResult result = new SSHResult();
+            long start = System.currentTimeMillis();
+            conn = this.acquireConnection(result);
+            long acquired = System.currentTimeMillis();
+            result.setAcquireTime(acquired - start);
+            session = this.getSSHSessionWithScriptShell(conn);
+            result.setSessionOpenTime(System.currentTimeMillis() - acquired);
+
+            consoleReader = new ShellConsoleReader(session);
+            logger.info(sshClientConfig.describe());
+            logger.info(">>script pipelined");
 
-                        while ((len = cmdErrStream.read(buffer)) != -1) {
-                            stdErr.write(buffer, 0, len);
-                        }
-                    } catch (Exception e) {
-                        e.printStackTrace();
+            long deadline = getOutputDeadline();
+            byte[] scriptBytes = script.getPipelinedBytes(sshClientConfig.isAbortOnCommandFailure());
+            long stepStart = System.currentTimeMillis();
+            cmdOutStream = session.getStdin();
+            cmdOutStream.write(scriptBytes);
+            // end of input: the shell exits after the last command
+            cmdOutStream.close();
+            cmdOutStream = null;
+
+            int from = 0;
+            for (SSHScript.Step scriptStep : script.getSteps()) {
+                MatchResult match = consoleReader.readUntilMatch(SSHScript.STEP_MARKER_PATTERN, from,
+                                                                 MARKER_MAX_LENGTH, deadline);
+                long stepEnd = System.currentTimeMillis();
+                SSHStepResult step = null;
+                if (!scriptStep.isWait()) {
+                    step = new SSHStepResult(scriptStep.getCommand());
+                    step.setStartTime(stepStart);
+                    step.setEndTime(stepEnd);
+                    result.addStep(step);
+                }
+                if (match == null) {
+                    // shell exited (e.g. 'exit' command) or timed out
+                    if (step != null) {
+                        step.setStdOut(consoleReader.getStdOut(from, consoleReader.getStdOutSize()));
+                        step.setCompleted(consoleReader.isEof());
+                        step.setAborting(!consoleReader.isEof());
                     }
+                    break;
+                }
+                if (step != null) {
+                    step.setStdOut(consoleReader.getStdOut(from, from + match.start()));
+                    step.setExitStatus(getExitStatus(match));
+                    step.setCompleted(true);
+                    step.setAborting(!step.isSuccessful() && sshClientConfig.isAbortOnCommandFailure());
+                }
+                if (step != null && step.isAborting()) {
+                    logger.info("Aborting script on failure of command: " + step.getCommand());
+                    break;
                 }
-            } finally {
-                closeInputStream(cmdErrStream);
-                closeInputStream(shellInputStream);
+                from += match.end();
+                stepStart = stepEnd;
             }
 
-        }
-
-        /**
-         * Gets the standard output of SSH session.
-         *
-         * @return the standard output of SSH session or blank string if nothing
-         *         read.
-         */
-        public String getStdOut() {
-            if (stdOut == null) {
-                return "";
+            logger.info("Script execution completed.");
+            if (!consoleReader.readUntil(deadline)) {
+                // exit status may arrive after EOF
+                waitForExit(session, deadline);
             }
-            return stdOut.toString();
-        }
 
-        /**
-         * Gets the standard error of SSH session.
-         *
-         * @return the standard error of SSH session or blank string if nothing
-         *         read.
-         */
-        public String getStdErr() {
-            if (stdErr == null) {
-                return "";
-            }
-            return stdErr.toString();
+            // collection the result
+            result.setBytesSent(scriptBytes.length);
+            result.setFirstByteTime(consoleReader.getFirstByteTime());
+            result.setBytesReceived(consoleReader.getBytesReceived());
+            result.setExitSignal(session.getExitSignal());
+            result.setExitStatus(session.getExitStatus());
+            result.setStdErr(consoleReader.getStdErr());
+            result.setStdOut(SSHScript.STEP_MARKER_PATTERN.matcher(consoleReader.getStdOut()).replaceAll(""));
+            failed = false;
+
+            return result;
+
+        } catch (IOException e) {
+            throw new SSHException("Failed to execute command:[" + script + "]", e);
+        } finally {
+            closeOutputStream(cmdOutStream);
+            releaseOutput(consoleReader);
+            closeSSHResource(session, null);
+            releaseConnection(conn, failed);
         }
+
     }
 
     /**
-     * The Class SSHResult hold the result of SSH Command.
+     * Executes the compiled script in the current thread's persistent shell.
+     *
+     * @param script
+     *            the compiled script
+     * @param delayAfterEachCmd
+     *            the delay after each command.
+     * @return the SSH command result
+     * @throws SSHException
+     *             if failed to start the shell or execute the SSH script.
+     * @see #executeScript(SSHScript, long)
      */
-    public class SSHResult {
+    private SSHResult executeScriptInPersistentShell(SSHScript script,
+                                                     long delayAfterEachCmd) throws SSHException
+    {
+        String key = getPersistentShellKey();
+        boolean healthy = false;
+        ShellConsoleReader consoleReader = null;
+        try {
+
+            SSHResult result = new SSHResult();
+            SSHShellCache.Shell shell = SSHShellCache.get(key);
+            if (shell == null) {
+                long start = System.currentTimeMillis();
+                shell = startPersistentShell(result);
+                SSHShellCache.put(key, shell);
+                result.setAcquireTime(System.currentTimeMillis() - start);
+            }
+            consoleReader = shell.getConsoleReader();
+            consoleReader.reset();
+            OutputStream cmdOutStream = shell.getStdin();
+            long bytesSent = 0;
+            int promptEnd = 0;
+            boolean stopped = false;
+
+            logger.info(sshClientConfig.describe());
+
+            for (SSHScript.Step scriptStep : script.getSteps()) {
+                if (scriptStep.isWait()) {
+                    if (!stopped) {
+                        logger.info("Thread is waiting for(in sec):" + scriptStep.getWaitTime() / 1000);
+                        consoleReader.readFor(scriptStep.getWaitTime());
+                    }
+                    continue;
+                }
+                if (stopped) {
+                    logger.info("Skipping command: " + scriptStep.getCommand());
+                    continue;
+                }
+                SSHStepResult step = new SSHStepResult(scriptStep.getCommand());
+                step.setStartTime(System.currentTimeMillis());
+                result.addStep(step);
+
+                bytesSent += writeCommand(cmdOutStream, scriptStep.getCommandBytes());
+                logger.info(">>command: " + scriptStep.getCommand());
+
+                promptEnd = waitForPrompt(consoleReader, PROMPT_MARKER_PATTERN, promptEnd, step);
+                if (promptEnd < 0) {
+                    stopped = true;
+                } else if (delayAfterEachCmd > 0) {
+                    consoleReader.readFor(delayAfterEachCmd);
+                }
+            }
+
+            logger.info("Script execution completed.");
+            if (consoleReader.isEof()) {
+                // e.g. 'exit' command, the shell is restarted next time
+                waitForExit(shell.getSession(), getOutputDeadline());
+            }
+            SSHStepResult last = result.getSteps().isEmpty() ? null
+                    : result.getSteps().get(result.getSteps().size() - 1);
+            // a shell which did not give back its prompt is hung
+            healthy = !consoleReader.isEof() && (last == null || last.isCompleted());
+
+            // collection the result
+            result.setBytesSent(bytesSent);
+            result.setFirstByteTime(consoleReader.getFirstByteTime());
+            result.setBytesReceived(consoleReader.getBytesReceived());
+            result.setExitSignal(shell.getSession().getExitSignal());
+            result.setExitStatus(shell.getSession().getExitStatus());
+            result.setStdOut(consoleReader.getStdOut());
+
+            return result;
+
+        } catch (IOException e) {
+            throw new SSHException("Failed to execute command:[" + script + "]", e);
+        } finally {
+            releaseOutput(consoleReader);
+            if (!healthy) {
+                SSHShellCache.invalidate(key);
+            }
+        }
+
+    }
+
+    /**
+     * Gets the key identifying the persistent shell of this configuration:
+     * its connection and every setting used to open the shell or read its
+     * output, i.e. the terminal type and size, whether the terminal output is
+     * stripped, whether PTY is disabled (see
+     * {@link #getStepOutput(ShellConsoleReader, int, int, SSHStepResult)})
+     * and the shell init script.
+     *
+     * @return the persistent shell key
+     */
+    private String getPersistentShellKey() {
+        StringBuilder sb = new StringBuilder(sshClientConfig.getConnectionKey());
+        sb.append("#").append(sshClientConfig.getTerminalType());
+        sb.append("#").append(sshClientConfig.getTerminalWidth()).append("x").append(sshClientConfig.getTerminalHeight());
+        sb.append("#").append(sshClientConfig.isStripTerminalOutput() ? "S" : "-");
+        sb.append(sshClientConfig.isDisablePty() ? "N" : "-");
+        sb.append("#").append(DigestUtils.md5Hex(String.valueOf(sshClientConfig.getShellInitScript())));
+        return sb.toString();
+    }
+
+    /**
+     * Starts a persistent shell on a new connection: a PTY is requested, the
+     * prompt marker injected and the shell init script executed. All these
+     * commands are sent at once, the prompt marker being injected again after
+     * each init command in case it started a new shell (e.g. 'sudo -s');
+     * their output is discarded.
+     *
+     * @param timings
+     *            the result to record connect and session open timings in
+     * @return the started shell
+     * @throws SSHException
+     *             if the shell could not be started or initialized within
+     *             the max wait time for output.
+     */
+    private SSHShellCache.Shell startPersistentShell(SSHResult timings) throws SSHException {
+        SSHTransportConnection conn = getSSHConnection(timings);
+        SSHTransportSession session = null;
+        ShellConsoleReader consoleReader = null;
+        boolean failed = true;
+        try {
+            long opening = System.currentTimeMillis();
+            session = conn.openSession();
+            session.requestPTY(sshClientConfig.getTerminalType(),
+                               sshClientConfig.getTerminalWidth(),
+                               sshClientConfig.getTerminalHeight());
+            session.startShell();
+            timings.setSessionOpenTime(System.currentTimeMillis() - opening);
+
+            consoleReader = new ShellConsoleReader(session, sshClientConfig.isStripTerminalOutput());
+            OutputStream cmdOutStream = session.getStdin();
+            writeCommand(cmdOutStream, PROMPT_MARKER_COMMAND_BYTES);
+            if (StringUtils.isNotBlank(sshClientConfig.getShellInitScript())) {
+                for (SSHScript.Step step : SSHScript.compile(sshClientConfig.getShellInitScript(), false).getSteps()) {
+                    logger.info(">>shell init command: " + step.getCommand());
+                    writeCommand(cmdOutStream, step.getCommandBytes());
+                    writeCommand(cmdOutStream, PROMPT_MARKER_COMMAND_BYTES);
+                }
+            }
+            writeCommand(cmdOutStream, SHELL_READY_COMMAND_BYTES);
+
+            long deadline = getOutputDeadline();
+            MatchResult ready = consoleReader.readUntilMatch(SHELL_READY_PATTERN, 0, MARKER_MAX_LENGTH, deadline);
+            MatchResult prompt = ready == null ? null
+                    : consoleReader.readUntilMatch(PROMPT_MARKER_PATTERN, ready.end(), MARKER_MAX_LENGTH, deadline);
+            if (prompt == null) {
+                throw new SSHException("Shell not initialized within "
+                        + sshClientConfig.getMaxWaitTimeForOutput() + " ms. Output:["
+                        + consoleReader.getStdOut() + "]");
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Shell initialized, output:[" + consoleReader.getStdOut() + "]");
+            }
+            failed = false;
+            return new SSHShellCache.Shell(conn, session, consoleReader);
+        } catch (IOException e) {
+            throw new SSHException("Failed to start SSH shell", e);
+        } finally {
+            if (failed) {
+                releaseOutput(consoleReader);
+                closeSSHResource(session, conn);
+            }
+        }
+    }
+
+    /**
+     * Executes the commands at the same time, each on its own session of one
+     * connection, so that one execution puts concurrent load on the server
+     * with a single handshake. All commands are started before any output is
+     * read; the calling thread then reads the channels in turn, waiting on
+     * each one for a share of {@value #PARALLEL_POLL_INTERVAL} ms. while
+     * several are open, so that no channel is left undrained. The execution
+     * completes when all commands have exited or the max wait time for output
+     * has elapsed.
+     * <p>
+     * The result holds one step per command, with its own output, error
+     * output, exit status and timings; a step is completed if the command's
+     * output was fully read in time. The result's output and error output are
+     * the ones of all commands, in order, and its exit status the first non
+     * zero one. With a connection pool, each session takes one of the pooled
+     * connection's channels: the number of commands must not exceed the max
+     * channels per connection.
+     *
+     * @param cmds
+     *            the commands
+     * @return the result of the SSH commands
+     * @throws SSHException
+     *             if failed to execute the commands.
+     */
+    public SSHResult executeCmdsInParallel(List<String> cmds) throws SSHException {
+
+        int count = cmds.size();
+        SSHTransportConnection conn = null;
+        List<SSHTransportSession> sessions = new ArrayList<SSHTransportSession>(count);
+        List<ShellConsoleReader> consoleReaders = new ArrayList<ShellConsoleReader>(count);
+        boolean failed = true;
+        try {
+
+            SSHResult result = new SSHResult();
+            long start = System.currentTimeMillis();
+            conn = this.acquireConnection(result, count);
+            long acquired = System.currentTimeMillis();
+            result.setAcquireTime(acquired - start);
+            for (int i = 0; i < count; i++) {
+                SSHTransportSession session = this.getSSHSession(conn);
+                sessions.add(session);
+                consoleReaders.add(new ShellConsoleReader(session));
+            }
+            long sessionOpenTime = System.currentTimeMillis() - acquired;
+
+            logger.info(sshClientConfig.describe());
+            long executing = System.currentTimeMillis();
+            long deadline = getOutputDeadline();
+            long bytesSent = 0;
+            for (int i = 0; i < count; i++) {
+                String cmd = cmds.get(i);
+                logger.info(">>command[" + i + "]: " + cmd);
+                SSHStepResult step = new SSHStepResult(cmd);
+                step.setStartTime(System.currentTimeMillis());
+                sessions.get(i).execCommand(cmd);
+                bytesSent += cmd.getBytes(COMMAND_CHARSET).length;
+                result.addStep(step);
+            }
+            // some transports (MINA) only open the channels on exec
+            result.setSessionOpenTime(sessionOpenTime + System.currentTimeMillis() - executing);
+
+            // read the channels in turn, a share of the round on each one
+            boolean[] ended = new boolean[count];
+            int open = count;
+            while (open > 0 && System.currentTimeMillis() < deadline) {
+                long slice = open == 1 ? Long.MAX_VALUE : Math.max(1, PARALLEL_POLL_INTERVAL / open);
+                for (int i = 0; i < count; i++) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    if (!ended[i] && !consoleReaders.get(i).read(Math.min(slice, remaining))) {
+                        // exit status may arrive after EOF
+                        waitForExit(sessions.get(i), deadline);
+                        endStep(result.getSteps().get(i), sessions.get(i), consoleReaders.get(i), true);
+                        ended[i] = true;
+                        open--;
+                    }
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                if (!ended[i]) {
+                    endStep(result.getSteps().get(i), sessions.get(i), consoleReaders.get(i), false);
+                }
+            }
+
+            // collect the result
+            StringBuilder stdOut = new StringBuilder();
+            StringBuilder stdErr = new StringBuilder();
+            long bytesReceived = 0;
+            for (int i = 0; i < count; i++) {
+                ShellConsoleReader consoleReader = consoleReaders.get(i);
+                long firstByteTime = consoleReader.getFirstByteTime();
+                if (firstByteTime > 0 && (result.getFirstByteTime() == 0 || firstByteTime < result.getFirstByteTime())) {
+                    result.setFirstByteTime(firstByteTime);
+                }
+                bytesReceived += consoleReader.getBytesReceived();
+                stdOut.append(consoleReader.getStdOut());
+                stdErr.append(consoleReader.getStdErr());
+                SSHTransportSession session = sessions.get(i);
+                if (result.getExitSignal() == null) {
+                    result.setExitSignal(session.getExitSignal());
+                }
+                Integer exitStatus = session.getExitStatus();
+                if (result.getExitStatus() == null || result.getExitStatus().intValue() == 0) {
+                    result.setExitStatus(exitStatus != null ? exitStatus : result.getExitStatus());
+                }
+            }
+            result.setBytesSent(bytesSent);
+            result.setBytesReceived(bytesReceived);
+            result.setStdOut(stdOut.toString());
+            result.setStdErr(stdErr.toString());
+            failed = false;
+            return result;
+
+        } catch (IOException e) {
+            throw new SSHException("Failed to execute commands:" + cmds, e);
+        } finally {
+            for (SSHTransportSession session : sessions) {
+                closeSSHResource(session, null);
+            }
+            for (ShellConsoleReader consoleReader : consoleReaders) {
+                releaseOutput(consoleReader);
+            }
+            releaseConnection(conn, failed, count);
+        }
+
+    }
+
+    /**
+     * Ends the step of a command executed in parallel, with the output read
+     * from its session.
+     *
+     * @param step
+     *            the step of the command
+     * @param session
+     *            the session
+     * @param consoleReader
+     *            the console reader of the session
+     * @param completed
+     *            whether the command's output was fully read in time
+     */
+    private static void endStep(SSHStepResult step,
+                                SSHTransportSession session,
+                                ShellConsoleReader consoleReader,
+                                boolean completed)
+    {
+        step.setEndTime(System.currentTimeMillis());
+        step.setStdOut(consoleReader.getStdOut());
+        step.setStdErr(consoleReader.getStdErr());
+        step.setExitStatus(session.getExitStatus());
+        step.setCompleted(completed);
+    }
+
+    /**
+     * Submits the command to the {@link SSHAsyncExecutor}: this is not
+     * non-blocking I/O, a pool thread runs the blocking
+     * {@link #executeCmd(String)} and stays busy until it completes.
+     *
+     * @param cmd
+     *            the input command to be executed.
+     * @return the future result, failing with an {@link SSHException}
+     * @see #executeCmd(String)
+     */
+    public Future<SSHResult> submitCmd(String cmd) {
+        return submitCmd(cmd, null);
+    }
+
+    /**
+     * Submits the command to the {@link SSHAsyncExecutor}, and notifies given
+     * callback on completion. This is not non-blocking I/O: a pool thread runs
+     * the blocking {@link #executeCmd(String)} and stays busy until it
+     * completes, so at most {@value SSHAsyncExecutor#MAX_THREADS_PROPERTY}
+     * executions are in flight and the others wait in its queue.
+     * <p>
+     * With a reused connection (see {@link SSHClientConfig#isReuseConnection()})
+     * the connection is the one of the executing thread, not of the caller.
+     *
+     * @param cmd
+     *            the input command to be executed.
+     * @param callback
+     *            the callback, may be null
+     * @return the future result, failing with an {@link SSHException}
+     * @see #executeCmd(String)
+     */
+    public Future<SSHResult> submitCmd(String cmd,
+                                       SSHResultCallback callback)
+    {
+        return submitCmd(cmd, callback, null);
+    }
+
+    /**
+     * Submits the command to given executor, and notifies given callback on
+     * completion. An executor thread runs the blocking
+     * {@link #executeCmd(String)} and stays busy until it completes.
+     *
+     * @param cmd
+     *            the input command to be executed.
+     * @param callback
+     *            the callback, may be null
+     * @param executor
+     *            the executor (see
+     *            {@link SSHAsyncExecutor#newExecutor(String, int)}), null for
+     *            the shared {@link SSHAsyncExecutor}
+     * @return the future result, failing with an {@link SSHException}
+     * @throws RejectedExecutionException
+     *             if the executor has been shut down.
+     * @see #executeCmd(String)
+     */
+    public Future<SSHResult> submitCmd(final String cmd,
+                                       SSHResultCallback callback,
+                                       ExecutorService executor)
+    {
+        return SSHAsyncExecutor.submit(new Callable<SSHResult>() {
+
+            public SSHResult call() throws SSHException {
+                return executeCmd(cmd);
+            }
+        }, callback, executor);
+    }
+
+    /**
+     * Submits the compiled script to the {@link SSHAsyncExecutor}: this is not
+     * non-blocking I/O, a pool thread runs the blocking
+     * {@link #executeScript(SSHScript, long)} and stays busy until it
+     * completes.
+     *
+     * @param script
+     *            the compiled script
+     * @param delayAfterEachCmd
+     *            the delay after each command.
+     * @return the future result, failing with an {@link SSHException}
+     * @see #executeScript(SSHScript, long)
+     */
+    public Future<SSHResult> submitScript(SSHScript script,
+                                          long delayAfterEachCmd)
+    {
+        return submitScript(script, delayAfterEachCmd, null);
+    }
+
+    /**
+     * Submits the compiled script to the {@link SSHAsyncExecutor}, and
+     * notifies given callback on completion. A pool thread runs the blocking
+     * {@link #executeScript(SSHScript, long)} and stays busy until it
+     * completes.
+     *
+     * @param script
+     *            the compiled script
+     * @param delayAfterEachCmd
+     *            the delay after each command.
+     * @param callback
+     *            the callback, may be null
+     * @return the future result, failing with an {@link SSHException}
+     * @see #executeScript(SSHScript, long)
+     */
+    public Future<SSHResult> submitScript(final SSHScript script,
+                                          final long delayAfterEachCmd,
+                                          SSHResultCallback callback)
+    {
+        return SSHAsyncExecutor.submit(new Callable<SSHResult>() {
+
+            public SSHResult call() throws SSHException {
+                return executeScript(script, delayAfterEachCmd);
+            }
+        }, callback);
+    }
+
+    /**
+     * The Class SSHResult hold the result of SSH Command.
+     */
+    public class SSHResult {
 
         /** The std out. */
         String  stdOut;
@@ -436,6 +1408,39 @@ public class SSHClient {
         /** The exit signal. */
         String  exitSignal;
 
+        /** The time (in ms.) taken to get a connection (incl. connect/auth). */
+        long    acquireTime;
+
+        /** The time (in ms.) taken by TCP connect and key exchange. */
+        long    connectTime;
+
+        /** The time (in ms.) taken by authentication. */
+        long    authTime;
+
+        /**
+         * The time (in ms.) taken to open the session(s), including the exec
+         * or shell request which opens the channel on some transports.
+         */
+        long    sessionOpenTime;
+
+        /** The time (in ms.) first output byte was received, 0 if none. */
+        long    firstByteTime;
+
+        /** The number of output bytes received. */
+        long    bytesReceived;
+
+        /** The number of input bytes sent. */
+        long    bytesSent;
+
+        /** The size (in bytes) of standard output, even if not kept. */
+        long    outputSize;
+
+        /** The digest of standard output, null if not computed. */
+        String  outputDigest;
+
+        /** The steps (one per command sent) of a script. */
+        final List<SSHStepResult> steps = new ArrayList<SSHStepResult>();
+
         /**
          * Gets the standard output of SSH command.
          *
@@ -511,52 +1516,627 @@ public class SSHClient {
         public void setExitSignal(String exitSignal) {
             this.exitSignal = exitSignal;
         }
+
+        /**
+         * Gets the time (in ms.) taken to get a connection, including connect
+         * and authentication if a new connection was created.
+         *
+         * @return the acquireTime
+         */
+        public long getAcquireTime() {
+            return this.acquireTime;
+        }
+
+        /**
+         * Sets the time (in ms.) taken to get a connection.
+         *
+         * @param acquireTime
+         *            the acquireTime to set
+         */
+        public void setAcquireTime(long acquireTime) {
+            this.acquireTime = acquireTime;
+        }
+
+        /**
+         * Gets the time (in ms.) taken by TCP connect and key exchange, 0 if
+         * an open connection was reused.
+         *
+         * @return the connectTime
+         */
+        public long getConnectTime() {
+            return this.connectTime;
+        }
+
+        /**
+         * Sets the time (in ms.) taken by TCP connect and key exchange.
+         *
+         * @param connectTime
+         *            the connectTime to set
+         */
+        public void setConnectTime(long connectTime) {
+            this.connectTime = connectTime;
+        }
+
+        /**
+         * Gets the time (in ms.) taken by authentication, 0 if an open
+         * connection was reused.
+         *
+         * @return the authTime
+         */
+        public long getAuthTime() {
+            return this.authTime;
+        }
+
+        /**
+         * Sets the time (in ms.) taken by authentication.
+         *
+         * @param authTime
+         *            the authTime to set
+         */
+        public void setAuthTime(long authTime) {
+            this.authTime = authTime;
+        }
+
+        /**
+         * Gets the time (in ms.) taken to open the session (channel).
+         *
+         * @return the sessionOpenTime
+         */
+        public long getSessionOpenTime() {
+            return this.sessionOpenTime;
+        }
+
+        /**
+         * Sets the time (in ms.) taken to open the session (channel).
+         *
+         * @param sessionOpenTime
+         *            the sessionOpenTime to set
+         */
+        public void setSessionOpenTime(long sessionOpenTime) {
+            this.sessionOpenTime = sessionOpenTime;
+        }
+
+        /**
+         * Gets the time (in ms.) first output byte was received.
+         *
+         * @return the firstByteTime, 0 if no output received
+         */
+        public long getFirstByteTime() {
+            return this.firstByteTime;
+        }
+
+        /**
+         * Sets the time (in ms.) first output byte was received.
+         *
+         * @param firstByteTime
+         *            the firstByteTime to set
+         */
+        public void setFirstByteTime(long firstByteTime) {
+            this.firstByteTime = firstByteTime;
+        }
+
+        /**
+         * Gets the number of output bytes (standard output and error)
+         * received.
+         *
+         * @return the bytesReceived
+         */
+        public long getBytesReceived() {
+            return this.bytesReceived;
+        }
+
+        /**
+         * Sets the number of output bytes received.
+         *
+         * @param bytesReceived
+         *            the bytesReceived to set
+         */
+        public void setBytesReceived(long bytesReceived) {
+            this.bytesReceived = bytesReceived;
+        }
+
+        /**
+         * Gets the number of input bytes (command or script) sent.
+         *
+         * @return the bytesSent
+         */
+        public long getBytesSent() {
+            return this.bytesSent;
+        }
+
+        /**
+         * Sets the number of input bytes sent.
+         *
+         * @param bytesSent
+         *            the bytesSent to set
+         */
+        public void setBytesSent(long bytesSent) {
+            this.bytesSent = bytesSent;
+        }
+
+        /**
+         * Gets the size (in bytes) of standard output, including the part
+         * not kept by an output sink.
+         *
+         * @return the output size
+         */
+        public long getOutputSize() {
+            return outputSize;
+        }
+
+        /**
+         * Sets the size (in bytes) of standard output.
+         *
+         * @param outputSize
+         *            the new output size
+         */
+        public void setOutputSize(long outputSize) {
+            this.outputSize = outputSize;
+        }
+
+        /**
+         * Gets the digest of standard output, computed by a digest sink.
+         *
+         * @return the hex digest, null if not computed
+         */
+        public String getOutputDigest() {
+            return outputDigest;
+        }
+
+        /**
+         * Sets the digest of standard output.
+         *
+         * @param outputDigest
+         *            the new output digest
+         */
+        public void setOutputDigest(String outputDigest) {
+            this.outputDigest = outputDigest;
+        }
+
+        /**
+         * Gets the steps (one per command sent) of a script.
+         *
+         * @return the steps, empty if not a script
+         */
+        public List<SSHStepResult> getSteps() {
+            return this.steps;
+        }
+
+        /**
+         * Adds a step.
+         *
+         * @param step
+         *            the step
+         */
+        public void addStep(SSHStepResult step) {
+            this.steps.add(step);
+        }
+
+        /**
+         * Checks if the script has been aborted, i.e. some commands have been
+         * skipped after a command failed or did not complete.
+         *
+         * @return true, if aborted
+         */
+        public boolean isAborted() {
+            return !steps.isEmpty() && steps.get(steps.size() - 1).isAborting();
+        }
+    }
+
+    /**
+     * The Class SSHStepResult holds the result of one command of a script.
+     */
+    public class SSHStepResult {
+
+        /** The command. */
+        final String command;
+
+        /** The output of the command. */
+        String       stdOut;
+
+        /** The error output of the command, if read separately. */
+        String       stdErr;
+
+        /** The exit status, null if not detected. */
+        Integer      exitStatus;
+
+        /** The time (in ms.) the command was sent. */
+        long         startTime;
+
+        /** The time (in ms.) the command completed. */
+        long         endTime;
+
+        /** The offset of the command's output in the script's output. */
+        int          stdOutStart;
+
+        /** Whether the command completed (e.g. prompt received). */
+        boolean      completed;
+
+        /** Whether the rest of the script is skipped after this command. */
+        boolean      aborting;
+
+        /**
+         * Instantiates a new SSH step result.
+         *
+         * @param command
+         *            the command
+         */
+        public SSHStepResult(String command) {
+            this.command = command;
+        }
+
+        /**
+         * Checks if the command succeeded: it completed and did not exit with
+         * a non zero status.
+         *
+         * @return true, if successful
+         */
+        public boolean isSuccessful() {
+            return completed && (exitStatus == null || exitStatus.intValue() == 0);
+        }
+
+        /**
+         * Gets the command.
+         *
+         * @return the command
+         */
+        public String getCommand() {
+            return this.command;
+        }
+
+        /**
+         * Gets the output of the command, including its echo in the terminal.
+         *
+         * @return the stdOut
+         */
+        public String getStdOut() {
+            return this.stdOut;
+        }
+
+        /**
+         * Sets the output of the command.
+         *
+         * @param stdOut
+         *            the stdOut to set
+         */
+        public void setStdOut(String stdOut) {
+            this.stdOut = stdOut;
+        }
+
+        /**
+         * Gets the error output of the command.
+         *
+         * @return the stdErr, null if not read separately from the output
+         */
+        public String getStdErr() {
+            return this.stdErr;
+        }
+
+        /**
+         * Sets the error output of the command.
+         *
+         * @param stdErr
+         *            the stdErr to set
+         */
+        public void setStdErr(String stdErr) {
+            this.stdErr = stdErr;
+        }
+
+        /**
+         * Gets the exit status of the command.
+         *
+         * @return the exitStatus, null if not detected
+         */
+        public Integer getExitStatus() {
+            return this.exitStatus;
+        }
+
+        /**
+         * Sets the exit status of the command.
+         *
+         * @param exitStatus
+         *            the exitStatus to set
+         */
+        public void setExitStatus(Integer exitStatus) {
+            this.exitStatus = exitStatus;
+        }
+
+        /**
+         * Gets the time (in ms.) the command was sent.
+         *
+         * @return the startTime
+         */
+        public long getStartTime() {
+            return this.startTime;
+        }
+
+        /**
+         * Sets the time (in ms.) the command was sent.
+         *
+         * @param startTime
+         *            the startTime to set
+         */
+        public void setStartTime(long startTime) {
+            this.startTime = startTime;
+        }
+
+        /**
+         * Gets the time (in ms.) the command completed.
+         *
+         * @return the endTime
+         */
+        public long getEndTime() {
+            return this.endTime;
+        }
+
+        /**
+         * Sets the time (in ms.) the command completed.
+         *
+         * @param endTime
+         *            the endTime to set
+         */
+        public void setEndTime(long endTime) {
+            this.endTime = endTime;
+        }
+
+        /**
+         * Gets the offset of the command's output in the script's output.
+         *
+         * @return the stdOutStart
+         */
+        int getStdOutStart() {
+            return this.stdOutStart;
+        }
+
+        /**
+         * Sets the offset of the command's output in the script's output.
+         *
+         * @param stdOutStart
+         *            the stdOutStart to set
+         */
+        void setStdOutStart(int stdOutStart) {
+            this.stdOutStart = stdOutStart;
+        }
+
+        /**
+         * Checks if the command completed.
+         *
+         * @return the completed
+         */
+        public boolean isCompleted() {
+            return this.completed;
+        }
+
+        /**
+         * Sets whether the command completed.
+         *
+         * @param completed
+         *            the completed to set
+         */
+        public void setCompleted(boolean completed) {
+            this.completed = completed;
+        }
+
+        /**
+         * Checks if the rest of the script is skipped after this command.
+         *
+         * @return the aborting
+         */
+        public boolean isAborting() {
+            return this.aborting;
+        }
+
+        /**
+         * Sets whether the rest of the script is skipped after this command.
+         *
+         * @param aborting
+         *            the aborting to set
+         */
+        public void setAborting(boolean aborting) {
+            this.aborting = aborting;
+        }
     }
 
     /**
-     * Wait for condition(Whether data available on channel of timeout
-     * happened).
+     * Gets the compiled prompt pattern: the injected prompt marker if
+     * enabled, otherwise the configured prompt pattern.
      *
-     * @param session
-     *            the ssh session
-     * @return true, if data available on channel. false, if timeout happened
+     * @return the prompt pattern or null if prompt is not awaited.
+     * @throws SSHException
+     *             if the configured prompt pattern is invalid.
+     */
+    private Pattern getPromptPattern() throws SSHException {
+        if (sshClientConfig.isInjectPromptMarker()) {
+            return PROMPT_MARKER_PATTERN;
+        }
+        String promptPattern = sshClientConfig.getPromptPattern();
+        if (StringUtils.isEmpty(promptPattern)) {
+            return null;
+        }
+        try {
+            return Pattern.compile(promptPattern);
+        } catch (PatternSyntaxException e) {
+            throw new SSHException("Invalid prompt pattern:[" + promptPattern + "]", e);
+        }
+    }
+
+    /**
+     * Writes a command line to the shell.
+     *
+     * @param cmdOutStream
+     *            the shell's standard input
+     * @param commandBytes
+     *            the encoded command, end line included
+     * @return the number of bytes written
      * @throws IOException
      *             Signals that an I/O exception has occurred.
      */
-    protected boolean waitForCondition(Session session) throws IOException {
-        int conditions = session.waitForCondition(ChannelCondition.STDOUT_DATA
-                                                          | ChannelCondition.STDERR_DATA
-                                                          | ChannelCondition.EOF,
-                                                  sshClientConfig.getMaxWaitTimeForOutput());
+    private int writeCommand(OutputStream cmdOutStream,
+                             byte[] commandBytes) throws IOException
+    {
+        cmdOutStream.write(commandBytes);
+        cmdOutStream.flush();
+        return commandBytes.length;
+    }
 
-        if ((conditions & ChannelCondition.TIMEOUT) != 0) {
-            // A timeout occurred.
-            if (logger.isDebugEnabled()) {
-                logger.debug("WaitForCondition: waiting timeout");
+    /**
+     * Reads output until the shell prompt is received after given offset, and
+     * ends the step of the command the prompt is awaited after.
+     *
+     * @param consoleReader
+     *            the console reader
+     * @param prompt
+     *            the prompt pattern
+     * @param from
+     *            the offset in standard output to search the prompt from
+     * @param step
+     *            the step of the command the prompt is awaited after
+     * @return the offset in standard output after the prompt, -1 if the shell
+     *         exited or prompt has not been received within max wait time for
+     *         output, or if the script is aborted on command failure.
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private int waitForPrompt(ShellConsoleReader consoleReader,
+                              Pattern prompt,
+                              int from,
+                              SSHStepResult step) throws IOException
+    {
+        long deadline = getOutputDeadline();
+        MatchResult match = consoleReader.readUntilMatch(prompt, from, PROMPT_MAX_LENGTH, deadline);
+        step.setEndTime(System.currentTimeMillis());
+        if (match == null) {
+            step.setStdOut(getStepOutput(consoleReader, from, consoleReader.getStdOutSize(), step));
+            if (consoleReader.isEof()) {
+                // e.g. 'exit' command
+                logger.info("Shell exited after command: " + step.getCommand());
+                step.setCompleted(true);
+            } else {
+                logger.warn("Prompt not received within " + sshClientConfig.getMaxWaitTimeForOutput()
+                        + " ms after command: " + step.getCommand());
+                step.setAborting(true);
             }
-            return false;
+            return -1;
+        }
+        step.setStdOut(getStepOutput(consoleReader, from, from + match.start(), step));
+        step.setExitStatus(getExitStatus(match));
+        step.setCompleted(true);
+        if (!step.isSuccessful() && sshClientConfig.isAbortOnCommandFailure()) {
+            logger.info("Aborting script on failure of command: " + step.getCommand());
+            step.setAborting(true);
+            return -1;
         }
+        return from + match.end();
+    }
 
-        /*
-         * Here we are not checking separately for CLOSED, since CLOSED implies
-         * EOF
-         */
-        if ((conditions & ChannelCondition.EOF) != 0) {
-            // The remote side will not send us further data
-            if (logger.isDebugEnabled()) {
-                logger.debug("WaitForCondition: EOF reached");
+    /**
+     * Ends the step of a command which is not followed by an awaited prompt:
+     * the step ends when the next command is sent or the script completes.
+     *
+     * @param step
+     *            the step
+     * @param consoleReader
+     *            the console reader
+     */
+    private void endStep(SSHStepResult step,
+                         ShellConsoleReader consoleReader)
+    {
+        step.setEndTime(System.currentTimeMillis());
+        step.setStdOut(getStepOutput(consoleReader, step.getStdOutStart(), consoleReader.getStdOutSize(), step));
+        step.setCompleted(true);
+    }
+
+    /**
+     * Gets the output of a script step, without the echo of its command if
+     * terminal output is stripped.
+     *
+     * @param consoleReader
+     *            the console reader
+     * @param from
+     *            the start offset of the step's output
+     * @param to
+     *            the end offset of the step's output
+     * @param step
+     *            the step
+     * @return the step output
+     */
+    private String getStepOutput(ShellConsoleReader consoleReader,
+                                 int from,
+                                 int to,
+                                 SSHStepResult step)
+    {
+        String output = consoleReader.getStdOut(from, to);
+        if (sshClientConfig.isStripTerminalOutput() && !sshClientConfig.isDisablePty()
+                && output.startsWith(step.getCommand())) {
+            int echoEnd = step.getCommand().length();
+            if (output.startsWith("\n", echoEnd)) {
+                output = output.substring(echoEnd + 1);
+            } else if (echoEnd == output.length()) {
+                output = "";
             }
-            return false;
         }
-        if ((conditions & (ChannelCondition.STDOUT_DATA | ChannelCondition.STDERR_DATA)) == 0) {
-            // we have consumed all data in the local arrival window.
-            if (logger.isDebugEnabled()) {
-                logger.debug("WaitForCondition(): Unexpected condtion occured");
-            }
-            return false;
+        return output;
+    }
+
+    /**
+     * Gets the exit status of previous command from a prompt, i.e. group 1 of
+     * the prompt pattern.
+     *
+     * @param match
+     *            the prompt match
+     * @return the exit status or null if not available in prompt.
+     */
+    private static Integer getExitStatus(MatchResult match) {
+        if (match.groupCount() < 1 || match.group(1) == null) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(match.group(1).trim());
+        } catch (NumberFormatException e) {
+            return null;
         }
-        return true;
+    }
+
+    /**
+     * Gets the time after which not to wait any more for output awaited from
+     * now on, given by the max wait time for output: a max wait time of 0
+     * means no limit.
+     *
+     * @return the deadline (in ms.), {@link Long#MAX_VALUE} if none
+     */
+    private long getOutputDeadline() {
+        long maxWaitTimeForOutput = sshClientConfig.getMaxWaitTimeForOutput();
+        return maxWaitTimeForOutput > 0 ? System.currentTimeMillis() + maxWaitTimeForOutput : Long.MAX_VALUE;
+    }
 
+    /**
+     * Wait until the remote command has exited (exit status or signal
+     * received, or channel closed) or the deadline is reached.
+     *
+     * @param session
+     *            the ssh session
+     * @param deadline
+     *            the time (in ms.) after which not to wait any more
+     * @return true, if command has exited. false, if deadline reached
+     */
+    protected boolean waitForExit(SSHTransportSession session,
+                                  long deadline)
+    {
+        int exitConditions = SSHTransportSession.EXIT_STATUS | SSHTransportSession.EXIT_SIGNAL
+                | SSHTransportSession.CLOSED;
+        long remaining = deadline - System.currentTimeMillis();
+        do {
+            // a timeout of 0 would wait forever
+            long timeout = Math.max(1, Math.min(remaining, ShellConsoleReader.MAX_WAIT));
+            if ((session.waitForCondition(exitConditions, timeout) & exitConditions) != 0) {
+                return true;
+            }
+            remaining = deadline - System.currentTimeMillis();
+        } while (remaining > 0);
+        if (logger.isDebugEnabled()) {
+            logger.debug("WaitForExit: waiting timeout");
+        }
+        return false;
     }
 
     /**
@@ -589,6 +2169,19 @@ public class SSHClient {
         }
     }
 
+    /**
+     * Releases the output budget charged by a console reader (see
+     * {@link SSHOutputBudget}), once its output has been collected.
+     *
+     * @param consoleReader
+     *            the console reader, may be null
+     */
+    private static void releaseOutput(ShellConsoleReader consoleReader) {
+        if (consoleReader != null) {
+            consoleReader.release();
+        }
+    }
+
     /**
      * Close ssh resource.
      *
@@ -597,8 +2190,8 @@ public class SSHClient {
      * @param conn
      *            the conn
      */
-    public static void closeSSHResource(Session sess,
-                                        Connection conn)
+    public static void closeSSHResource(SSHTransportSession sess,
+                                        SSHTransportConnection conn)
     {
         try {
             if (sess != null) {
@@ -18,6 +18,9 @@
 
 package org.apache.jmeter.protocol.ssh2.util;
 
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+
 /**
  * The Class SSHClientConfig is a POJO that contains the SSH client's
  * configuration properties.
@@ -35,6 +38,9 @@ public class SSHClientConfig {
     /** The connection timeout. */
     private int    connectionTimeout;
 
+    /** The key exchange timeout. */
+    private int    kexTimeout;
+
     /** The max wait time for output. */
     private int    maxWaitTimeForOutput;
 
@@ -59,6 +65,75 @@ public class SSHClientConfig {
     /** The terminal height. */
     private int    terminalHeight;
 
+    /** The shell prompt pattern awaited before sending each script command. */
+    private String promptPattern;
+
+    /** Whether a unique prompt is injected into the shell and awaited. */
+    private boolean injectPromptMarker;
+
+    /** Whether the rest of the script is skipped once a command failed. */
+    private boolean abortOnCommandFailure;
+
+    /** Whether the whole script is sent at once to a non interactive shell. */
+    private boolean pipelineScript;
+
+    /** The command of the non interactive shell reading the script, blank for default. */
+    private String  scriptShell;
+
+    /** Whether the script is executed by the script shell, without PTY. */
+    private boolean disablePty;
+
+    /** Whether escape sequences and command echo are removed from PTY output. */
+    private boolean stripTerminalOutput;
+
+    /** Whether scripts are sent to a shell kept open by the thread. */
+    private boolean persistentShell;
+
+    /** The script executed once when a persistent shell is started. */
+    private String  shellInitScript;
+
+    /** Whether the authenticated connection is kept open and reused. */
+    private boolean reuseConnection;
+
+    /** The max number of pooled connections per server, 0 if not pooled. */
+    private int    connectionPoolSize;
+
+    /** The max number of channels (sessions) per pooled connection. */
+    private int    maxChannelsPerConnection;
+
+    /** The max time to wait for a pooled connection (in ms.). */
+    private long   poolBorrowTimeout;
+
+    /** The preferred ciphers (comma separated), blank for defaults. */
+    private String ciphers;
+
+    /** The preferred MACs (comma separated), blank for defaults. */
+    private String macs;
+
+    /** The preferred server host key algorithms (comma separated). */
+    private String serverHostKeyAlgorithms;
+
+    /** The preferred Diffie-Hellman group exchange size (in bits), 0 for default. */
+    private int    dhGroupSize;
+
+    /** Whether TCP_NODELAY is set on the connection socket. */
+    private boolean tcpNoDelay;
+
+    /** The SSH transport name or class name, blank for the default. */
+    private String  transport;
+
+    /** The sink of a command's standard output, blank to keep it in memory. */
+    private String  outputSink;
+
+    /** The local file the output is written to by the file sink. */
+    private String  outputFile;
+
+    /** The number of output bytes kept as preview by a sink, 0 for default. */
+    private int     outputPreviewSize;
+
+    /** Whether the tail sink keeps its ring buffer off heap. */
+    private boolean outputOffHeap;
+
     /*
      * (non-Javadoc)
      *
@@ -70,12 +145,35 @@ public class SSHClientConfig {
         sb.append("hostname=").append(hostname);
         sb.append(", port=").append(port);
         sb.append(", connectionTimeout=").append(connectionTimeout);
+        sb.append(", kexTimeout=").append(kexTimeout);
         sb.append(", maxWaitTimeForOutput=").append(maxWaitTimeForOutput);
         sb.append(", userName=").append(userName);
         sb.append(", sshkeyfile=").append(sshkeyfile);
         sb.append(", terminalType=").append(terminalType);
         sb.append(", terminalWidth=").append(terminalWidth);
         sb.append(", terminalHeight=").append(terminalHeight);
+        sb.append(", promptPattern=").append(promptPattern);
+        sb.append(", injectPromptMarker=").append(injectPromptMarker);
+        sb.append(", abortOnCommandFailure=").append(abortOnCommandFailure);
+        sb.append(", pipelineScript=").append(pipelineScript);
+        sb.append(", scriptShell=").append(scriptShell);
+        sb.append(", disablePty=").append(disablePty);
+        sb.append(", stripTerminalOutput=").append(stripTerminalOutput);
+        sb.append(", persistentShell=").append(persistentShell);
+        sb.append(", reuseConnection=").append(reuseConnection);
+        sb.append(", connectionPoolSize=").append(connectionPoolSize);
+        sb.append(", maxChannelsPerConnection=").append(maxChannelsPerConnection);
+        sb.append(", poolBorrowTimeout=").append(poolBorrowTimeout);
+        sb.append(", ciphers=").append(ciphers);
+        sb.append(", macs=").append(macs);
+        sb.append(", serverHostKeyAlgorithms=").append(serverHostKeyAlgorithms);
+        sb.append(", dhGroupSize=").append(dhGroupSize);
+        sb.append(", tcpNoDelay=").append(tcpNoDelay);
+        sb.append(", transport=").append(transport);
+        sb.append(", outputSink=").append(outputSink);
+        sb.append(", outputFile=").append(outputFile);
+        sb.append(", outputPreviewSize=").append(outputPreviewSize);
+        sb.append(", outputOffHeap=").append(outputOffHeap);
         sb.append("]");
         return sb.toString();
     }
@@ -90,7 +188,9 @@ public class SSHClientConfig {
         sb.append(userName).append("@").append(hostname);
         sb.append(":").append(port);
         sb.append("/?connectionTimeout=").append(connectionTimeout);
+        sb.append(" &kexTimeout=").append(kexTimeout);
         sb.append(" &maxWaitTimeForOutput=").append(maxWaitTimeForOutput);
+        sb.append(" &reuseConnection=").append(reuseConnection);
         sb.append("]");
         return sb.toString();
     }
@@ -134,9 +234,10 @@ public class SSHClientConfig {
     }
 
     /**
-     * Gets the connection timeout.
+     * Gets the connection timeout (in ms.), i.e. the max time to wait for TCP
+     * connect.
      *
-     * @return the connection timeout
+     * @return the connection timeout, 0 for no timeout
      */
     public int getConnectionTimeout() {
         return connectionTimeout;
@@ -152,6 +253,27 @@ public class SSHClientConfig {
         this.connectionTimeout = connectionTimeout;
     }
 
+    /**
+     * Gets the key exchange timeout (in ms.), i.e. the max time from the start
+     * of connection (TCP connect included) until the first key exchange has
+     * completed.
+     *
+     * @return the key exchange timeout, 0 for no timeout
+     */
+    public int getKexTimeout() {
+        return kexTimeout;
+    }
+
+    /**
+     * Sets the key exchange timeout (in ms.).
+     *
+     * @param kexTimeout
+     *            the new key exchange timeout, 0 for no timeout
+     */
+    public void setKexTimeout(int kexTimeout) {
+        this.kexTimeout = kexTimeout;
+    }
+
     /**
      * Gets the max wait time for output.
      *
@@ -304,4 +426,506 @@ public class SSHClientConfig {
         this.terminalHeight = terminalHeight;
     }
 
+    /**
+     * Gets the shell prompt pattern (regular expression). When set, script
+     * commands are sent one at a time, each one once the prompt has been
+     * received.
+     *
+     * @return the prompt pattern, blank if prompt is not awaited
+     */
+    public String getPromptPattern() {
+        return promptPattern;
+    }
+
+    /**
+     * Sets the shell prompt pattern (regular expression).
+     *
+     * @param promptPattern
+     *            the new prompt pattern, blank if prompt is not awaited
+     */
+    public void setPromptPattern(String promptPattern) {
+        this.promptPattern = promptPattern;
+    }
+
+    /**
+     * Checks if a unique prompt is injected into the shell (by setting PS1)
+     * and awaited before sending each script command. This overrides the
+     * prompt pattern.
+     *
+     * @return true, if prompt marker is injected
+     */
+    public boolean isInjectPromptMarker() {
+        return injectPromptMarker;
+    }
+
+    /**
+     * Sets whether a unique prompt is injected into the shell and awaited.
+     *
+     * @param injectPromptMarker
+     *            the new inject prompt marker
+     */
+    public void setInjectPromptMarker(boolean injectPromptMarker) {
+        this.injectPromptMarker = injectPromptMarker;
+    }
+
+    /**
+     * Checks if the rest of the script is skipped once a command failed, i.e.
+     * exited with a non zero status (detected from the prompt) or did not
+     * complete within the max wait time for output.
+     *
+     * @return true, if script is aborted on command failure
+     */
+    public boolean isAbortOnCommandFailure() {
+        return abortOnCommandFailure;
+    }
+
+    /**
+     * Sets whether the rest of the script is skipped once a command failed.
+     *
+     * @param abortOnCommandFailure
+     *            the new abort on command failure
+     */
+    public void setAbortOnCommandFailure(boolean abortOnCommandFailure) {
+        this.abortOnCommandFailure = abortOnCommandFailure;
+    }
+
+    /**
+     * Checks if the whole script is sent at once, in one write, to a non
+     * interactive shell executed without PTY (see {@link #getScriptShell()}),
+     * instead of line by line to an interactive shell.
+     *
+     * @return true, if script is pipelined
+     */
+    public boolean isPipelineScript() {
+        return pipelineScript;
+    }
+
+    /**
+     * Sets whether the whole script is sent at once to a non interactive
+     * shell.
+     *
+     * @param pipelineScript
+     *            the new pipeline script
+     */
+    public void setPipelineScript(boolean pipelineScript) {
+        this.pipelineScript = pipelineScript;
+    }
+
+    /**
+     * Gets the command of the non interactive shell which reads the script
+     * from its standard input, e.g. 'bash -s'.
+     *
+     * @return the script shell, blank for default
+     */
+    public String getScriptShell() {
+        return scriptShell;
+    }
+
+    /**
+     * Sets the command of the non interactive shell which reads the script.
+     *
+     * @param scriptShell
+     *            the new script shell
+     */
+    public void setScriptShell(String scriptShell) {
+        this.scriptShell = scriptShell;
+    }
+
+    /**
+     * Checks if the script is executed line by line by the script shell,
+     * without PTY (see {@link #getScriptShell()}), instead of an interactive
+     * login shell: the output holds no echo, prompt nor terminal escape
+     * sequences, and standard error is kept apart.
+     *
+     * @return true, if PTY is disabled
+     */
+    public boolean isDisablePty() {
+        return disablePty;
+    }
+
+    /**
+     * Sets whether the script is executed by the script shell, without PTY.
+     *
+     * @param disablePty
+     *            the new disable PTY
+     */
+    public void setDisablePty(boolean disablePty) {
+        this.disablePty = disablePty;
+    }
+
+    /**
+     * Checks if terminal escape sequences and CR of line ends are removed
+     * from the output of a shell with PTY as it is received, and the echo of
+     * each command from the output of its step.
+     *
+     * @return true, if terminal output is stripped
+     */
+    public boolean isStripTerminalOutput() {
+        return stripTerminalOutput;
+    }
+
+    /**
+     * Sets whether terminal escape sequences and command echo are removed
+     * from the output of a shell with PTY.
+     *
+     * @param stripTerminalOutput
+     *            the new strip terminal output
+     */
+    public void setStripTerminalOutput(boolean stripTerminalOutput) {
+        this.stripTerminalOutput = stripTerminalOutput;
+    }
+
+    /**
+     * Checks if scripts are sent to a logged-in interactive shell kept open
+     * by the thread across executions (see {@link SSHShellCache}), with its
+     * own connection, instead of a new shell each time.
+     *
+     * @return true, if the shell is persistent
+     */
+    public boolean isPersistentShell() {
+        return persistentShell;
+    }
+
+    /**
+     * Sets whether scripts are sent to a shell kept open by the thread.
+     *
+     * @param persistentShell
+     *            the new persistent shell
+     */
+    public void setPersistentShell(boolean persistentShell) {
+        this.persistentShell = persistentShell;
+    }
+
+    /**
+     * Gets the script executed once when a persistent shell is started, e.g.
+     * to set the environment, change directory or switch user.
+     *
+     * @return the shell init script, may be blank
+     */
+    public String getShellInitScript() {
+        return shellInitScript;
+    }
+
+    /**
+     * Sets the script executed once when a persistent shell is started.
+     *
+     * @param shellInitScript
+     *            the new shell init script
+     */
+    public void setShellInitScript(String shellInitScript) {
+        this.shellInitScript = shellInitScript;
+    }
+
+    /**
+     * Checks if the authenticated connection is kept open and reused.
+     *
+     * @return true, if connection is reused
+     */
+    public boolean isReuseConnection() {
+        return reuseConnection;
+    }
+
+    /**
+     * Sets whether the authenticated connection is kept open and reused.
+     *
+     * @param reuseConnection
+     *            the new reuse connection
+     */
+    public void setReuseConnection(boolean reuseConnection) {
+        this.reuseConnection = reuseConnection;
+    }
+
+    /**
+     * Gets the max number of pooled connections per server. Connections are
+     * not pooled if this value is 0.
+     *
+     * @return the connection pool size
+     */
+    public int getConnectionPoolSize() {
+        return connectionPoolSize;
+    }
+
+    /**
+     * Sets the max number of pooled connections per server.
+     *
+     * @param connectionPoolSize
+     *            the new connection pool size, 0 to disable pooling
+     */
+    public void setConnectionPoolSize(int connectionPoolSize) {
+        this.connectionPoolSize = connectionPoolSize;
+    }
+
+    /**
+     * Gets the max number of channels (sessions) per pooled connection.
+     *
+     * @return the max channels per connection
+     */
+    public int getMaxChannelsPerConnection() {
+        return maxChannelsPerConnection;
+    }
+
+    /**
+     * Sets the max number of channels (sessions) per pooled connection.
+     *
+     * @param maxChannelsPerConnection
+     *            the new max channels per connection
+     */
+    public void setMaxChannelsPerConnection(int maxChannelsPerConnection) {
+        this.maxChannelsPerConnection = maxChannelsPerConnection;
+    }
+
+    /**
+     * Gets the max time to wait for a pooled connection (in ms.).
+     *
+     * @return the pool borrow timeout
+     */
+    public long getPoolBorrowTimeout() {
+        return poolBorrowTimeout;
+    }
+
+    /**
+     * Sets the max time to wait for a pooled connection (in ms.).
+     *
+     * @param poolBorrowTimeout
+     *            the new pool borrow timeout
+     */
+    public void setPoolBorrowTimeout(long poolBorrowTimeout) {
+        this.poolBorrowTimeout = poolBorrowTimeout;
+    }
+
+    /**
+     * Gets the key identifying an authenticated connection of this
+     * configuration: server, user, a digest of the credentials, the
+     * algorithm preferences and TCP options, and the transport if not the
+     * default. Two configurations with same key can share the same
+     * authenticated connection.
+     *
+     * @return the connection key
+     */
+    public String getConnectionKey() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(userName).append("@").append(hostname);
+        sb.append(":").append(port);
+        sb.append("#").append(DigestUtils.md5Hex(password + "\n" + sshkeyfile + "\n" + passphrase));
+        // connections negotiated with other algorithms are not interchangeable
+        sb.append("%").append(normalizeAlgorithms(ciphers));
+        sb.append("/").append(normalizeAlgorithms(macs));
+        sb.append("/").append(normalizeAlgorithms(serverHostKeyAlgorithms));
+        sb.append("/").append(Math.max(0, dhGroupSize));
+        sb.append(tcpNoDelay ? "/nodelay" : "/delay");
+        if (StringUtils.isNotBlank(transport)) {
+            // connections of different transports are not interchangeable
+            sb.append("!").append(transport.trim());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Normalizes a comma separated algorithm list, white spaces and empty
+     * entries removed.
+     *
+     * @param algorithms
+     *            the algorithm list
+     * @return the normalized list, empty for the SSH library defaults
+     */
+    private static String normalizeAlgorithms(String algorithms) {
+        return StringUtils.defaultString(StringUtils.join(SSHClient.getAlgorithms(algorithms), ','));
+    }
+
+    /**
+     * Gets the preferred ciphers, in order of preference, for both directions.
+     *
+     * @return the ciphers (comma separated), blank for the SSH library defaults
+     */
+    public String getCiphers() {
+        return ciphers;
+    }
+
+    /**
+     * Sets the preferred ciphers, in order of preference, for both directions.
+     *
+     * @param ciphers
+     *            the new ciphers (comma separated)
+     */
+    public void setCiphers(String ciphers) {
+        this.ciphers = ciphers;
+    }
+
+    /**
+     * Gets the preferred MACs, in order of preference, for both directions.
+     *
+     * @return the MACs (comma separated), blank for the SSH library defaults
+     */
+    public String getMacs() {
+        return macs;
+    }
+
+    /**
+     * Sets the preferred MACs, in order of preference, for both directions.
+     *
+     * @param macs
+     *            the new MACs (comma separated)
+     */
+    public void setMacs(String macs) {
+        this.macs = macs;
+    }
+
+    /**
+     * Gets the preferred server host key algorithms, in order of preference.
+     *
+     * @return the server host key algorithms (comma separated), blank for the SSH library defaults
+     */
+    public String getServerHostKeyAlgorithms() {
+        return serverHostKeyAlgorithms;
+    }
+
+    /**
+     * Sets the preferred server host key algorithms, in order of preference.
+     *
+     * @param serverHostKeyAlgorithms
+     *            the new server host key algorithms (comma separated)
+     */
+    public void setServerHostKeyAlgorithms(String serverHostKeyAlgorithms) {
+        this.serverHostKeyAlgorithms = serverHostKeyAlgorithms;
+    }
+
+    /**
+     * Gets the preferred group size (in bits) requested on Diffie-Hellman group exchange. A smaller group makes key exchange cheaper.
+     *
+     * @return the DH group size, 0 for the SSH library default
+     */
+    public int getDhGroupSize() {
+        return dhGroupSize;
+    }
+
+    /**
+     * Sets the preferred group size (in bits) requested on Diffie-Hellman group exchange.
+     *
+     * @param dhGroupSize
+     *            the new DH group size (1024 to 8192), 0 for default
+     */
+    public void setDhGroupSize(int dhGroupSize) {
+        this.dhGroupSize = dhGroupSize;
+    }
+
+    /**
+     * Checks if TCP_NODELAY is set on the connection socket (Nagle's algorithm disabled).
+     *
+     * @return true, if TCP_NODELAY is set
+     */
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    /**
+     * Sets whether TCP_NODELAY is set on the connection socket.
+     *
+     * @param tcpNoDelay
+     *            the new TCP no delay
+     */
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    /**
+     * Gets the SSH transport, see {@link SSHTransportFactory#getTransport(String)}.
+     *
+     * @return the transport name or class name, blank for the default
+     */
+    public String getTransport() {
+        return transport;
+    }
+
+    /**
+     * Sets the SSH transport.
+     *
+     * @param transport
+     *            the new transport name or class name
+     */
+    public void setTransport(String transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Gets the sink receiving the standard output of a command instead of
+     * memory (see {@link SSHOutputSink}): {@link SSHOutputSink#MEMORY},
+     * {@link SSHOutputSink#COUNT}, {@link SSHOutputSink#MD5},
+     * {@link SSHOutputSink#SHA256}, {@link SSHOutputSink#FILE} or
+     * {@link SSHOutputSink#TAIL}.
+     *
+     * @return the output sink, blank to keep output in memory
+     */
+    public String getOutputSink() {
+        return outputSink;
+    }
+
+    /**
+     * Sets the sink receiving the standard output of a command.
+     *
+     * @param outputSink
+     *            the new output sink
+     */
+    public void setOutputSink(String outputSink) {
+        this.outputSink = outputSink;
+    }
+
+    /**
+     * Gets the local file the output is written to by the file sink.
+     *
+     * @return the output file
+     */
+    public String getOutputFile() {
+        return outputFile;
+    }
+
+    /**
+     * Sets the local file the output is written to by the file sink.
+     *
+     * @param outputFile
+     *            the new output file
+     */
+    public void setOutputFile(String outputFile) {
+        this.outputFile = outputFile;
+    }
+
+    /**
+     * Gets the number of output bytes kept as preview by a sink: the first
+     * bytes, or the last ones for the tail sink.
+     *
+     * @return the output preview size, 0 for default
+     */
+    public int getOutputPreviewSize() {
+        return outputPreviewSize;
+    }
+
+    /**
+     * Sets the number of output bytes kept as preview by a sink.
+     *
+     * @param outputPreviewSize
+     *            the new output preview size
+     */
+    public void setOutputPreviewSize(int outputPreviewSize) {
+        this.outputPreviewSize = outputPreviewSize;
+    }
+
+    /**
+     * Checks if the tail sink keeps its ring buffer off heap, in a direct
+     * buffer reused by the thread.
+     *
+     * @return true, if off heap
+     */
+    public boolean isOutputOffHeap() {
+        return outputOffHeap;
+    }
+
+    /**
+     * Sets whether the tail sink keeps its ring buffer off heap.
+     *
+     * @param outputOffHeap
+     *            the new output off heap
+     */
+    public void setOutputOffHeap(boolean outputOffHeap) {
+        this.outputOffHeap = outputOffHeap;
+    }
+
 }
@@ -0,0 +1,287 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.protocol.ssh2.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.jmeter.protocol.ssh2.util.SSHTransportConnection.ConnectionListener;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * The Class SSHConnectionCache keeps one authenticated SSH connection per
+ * JMeter thread and per connection key (see
+ * {@link SSHClientConfig#getConnectionKey()}), so that samples only have to
+ * open a new session on an already established connection.
+ */
+public final class SSHConnectionCache {
+
+    /** The Constant logger. */
+    private static final Logger logger = LoggingManager.getLoggerForClass();
+
+    /** The connections owned by the current thread, by connection key. */
+    private static final ThreadLocal<Map<String, CachedConnection>> THREAD_CONNECTIONS =
+            new ThreadLocal<Map<String, CachedConnection>>() {
+
+                @Override
+                protected Map<String, CachedConnection> initialValue() {
+                    return new HashMap<String, CachedConnection>();
+                }
+            };
+
+    /** All cached connections of all threads, used to close them on test end. */
+    private static final Set<CachedConnection> OPEN_CONNECTIONS = new HashSet<CachedConnection>();
+
+    /**
+     * Instantiates a new SSH connection cache.
+     */
+    private SSHConnectionCache() {
+    }
+
+    /**
+     * Gets the cached connection of the current thread for given key. A
+     * connection which has been lost since it was cached is closed and
+     * discarded.
+     *
+     * @param key
+     *            the connection key
+     * @return the cached connection or null if none (or if it was lost).
+     */
+    public static SSHTransportConnection get(String key) {
+        Map<String, CachedConnection> connections = THREAD_CONNECTIONS.get();
+        CachedConnection cached = connections.get(key);
+        if (cached == null) {
+            return null;
+        }
+        if (cached.isLost()) {
+            logger.info("Cached SSH connection lost, reconnecting: " + cached.getCause());
+            connections.remove(key);
+            close(cached);
+            return null;
+        }
+        return cached.getConnection();
+    }
+
+    /**
+     * Caches the connection for the current thread.
+     *
+     * @param key
+     *            the connection key
+     * @param conn
+     *            the authenticated connection
+     */
+    public static void put(String key,
+                           SSHTransportConnection conn)
+    {
+        CachedConnection cached = new CachedConnection(conn);
+        conn.addConnectionListener(cached);
+        CachedConnection previous = THREAD_CONNECTIONS.get().put(key, cached);
+        synchronized (OPEN_CONNECTIONS) {
+            OPEN_CONNECTIONS.add(cached);
+        }
+        if (previous != null) {
+            close(previous);
+        }
+    }
+
+    /**
+     * Keeps an idle session opened in advance on the current thread's cached
+     * connection for given key. It is handed out by
+     * {@link #takeIdleSession(String)}.
+     *
+     * @param key
+     *            the connection key
+     * @param session
+     *            the idle session
+     */
+    public static void putIdleSession(String key,
+                                      SSHTransportSession session)
+    {
+        CachedConnection cached = THREAD_CONNECTIONS.get().get(key);
+        if (cached == null) {
+            SSHClient.closeSSHResource(session, null);
+            return;
+        }
+        SSHClient.closeSSHResource(cached.takeIdleSession(), null);
+        cached.setIdleSession(session);
+    }
+
+    /**
+     * Takes the idle session opened in advance on the current thread's cached
+     * connection for given key.
+     *
+     * @param key
+     *            the connection key
+     * @return the idle session or null if none.
+     */
+    public static SSHTransportSession takeIdleSession(String key) {
+        CachedConnection cached = THREAD_CONNECTIONS.get().get(key);
+        if (cached == null || cached.isLost()) {
+            return null;
+        }
+        return cached.takeIdleSession();
+    }
+
+    /**
+     * Removes and closes the current thread's connection for given key, e.g.
+     * after a failure on that connection.
+     *
+     * @param key
+     *            the connection key
+     */
+    public static void invalidate(String key) {
+        CachedConnection cached = THREAD_CONNECTIONS.get().remove(key);
+        if (cached != null) {
+            close(cached);
+        }
+    }
+
+    /**
+     * Closes all connections cached by the current thread.
+     */
+    public static void closeThreadConnections() {
+        Map<String, CachedConnection> connections = THREAD_CONNECTIONS.get();
+        for (CachedConnection cached : connections.values()) {
+            close(cached);
+        }
+        connections.clear();
+    }
+
+    /**
+     * Closes all connections cached by any thread.
+     */
+    public static void closeAll() {
+        List<CachedConnection> connections;
+        synchronized (OPEN_CONNECTIONS) {
+            connections = new ArrayList<CachedConnection>(OPEN_CONNECTIONS);
+            OPEN_CONNECTIONS.clear();
+        }
+        if (!connections.isEmpty()) {
+            logger.info("Closing " + connections.size() + " cached SSH connection(s)");
+        }
+        for (CachedConnection cached : connections) {
+            SSHClient.closeSSHResource(cached.takeIdleSession(), cached.getConnection());
+        }
+    }
+
+    /**
+     * Close the cached connection and forget it.
+     *
+     * @param cached
+     *            the cached connection
+     */
+    private static void close(CachedConnection cached) {
+        synchronized (OPEN_CONNECTIONS) {
+            OPEN_CONNECTIONS.remove(cached);
+        }
+        SSHClient.closeSSHResource(cached.takeIdleSession(), cached.getConnection());
+    }
+
+    /**
+     * The Class CachedConnection holds a cached connection and tracks whether
+     * it has been lost.
+     */
+    static class CachedConnection implements ConnectionListener {
+
+        /** The connection. */
+        private final SSHTransportConnection connection;
+
+        /** The cause of connection loss, null while connection is alive. */
+        private volatile Throwable           cause;
+
+        /** Whether connection has been lost. */
+        private volatile boolean             lost;
+
+        /** The session opened in advance, null if none. */
+        private SSHTransportSession          idleSession;
+
+        /**
+         * Instantiates a new cached connection.
+         *
+         * @param connection
+         *            the connection
+         */
+        CachedConnection(SSHTransportConnection connection) {
+            this.connection = connection;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportConnection.ConnectionListener#connectionLost(java.lang.Throwable)
+         */
+        public void connectionLost(Throwable reason) {
+            this.cause = reason;
+            this.lost = true;
+        }
+
+        /**
+         * Gets the connection.
+         *
+         * @return the connection
+         */
+        SSHTransportConnection getConnection() {
+            return connection;
+        }
+
+        /**
+         * Checks if connection is lost.
+         *
+         * @return true, if connection is lost
+         */
+        boolean isLost() {
+            return lost;
+        }
+
+        /**
+         * Takes the idle session.
+         *
+         * @return the idle session or null if none.
+         */
+        synchronized SSHTransportSession takeIdleSession() {
+            SSHTransportSession session = idleSession;
+            idleSession = null;
+            return session;
+        }
+
+        /**
+         * Sets the idle session.
+         *
+         * @param idleSession
+         *            the new idle session
+         */
+        synchronized void setIdleSession(SSHTransportSession idleSession) {
+            this.idleSession = idleSession;
+        }
+
+        /**
+         * Gets the cause of connection loss.
+         *
+         * @return the cause
+         */
+        Throwable getCause() {
+            return cause;
+        }
+    }
+}
@@ -0,0 +1,502 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.protocol.ssh2.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jmeter.protocol.ssh2.util.SSHClient.SSHResult;
+import org.apache.jmeter.protocol.ssh2.util.SSHTransportConnection.ConnectionListener;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * The Class SSHConnectionPool shares a bounded number of authenticated SSH
+ * connections to one server between all JMeter threads. Each borrower opens
+ * its own session (channel) on the borrowed connection, so one connection
+ * carries up to maxChannelsPerConnection concurrent sessions.<br/>
+ * Borrowers are served in FIFO order and wait at most the borrow timeout for
+ * a free channel.<br/>
+ * There is one pool per connection key (see
+ * {@link SSHClientConfig#getConnectionKey()}); its limits are taken from the
+ * configuration which created it.
+ */
+public class SSHConnectionPool {
+
+    /** The Constant logger. */
+    private static final Logger                                 logger = LoggingManager.getLoggerForClass();
+
+    /** The pools by connection key. */
+    private static final Map<String, SSHConnectionPool>         POOLS  = new HashMap<String, SSHConnectionPool>();
+
+    /** The description of the server, for logging. */
+    private final String                                        description;
+
+    /** The max number of connections. */
+    private final int                                           maxConnections;
+
+    /** The max number of channels per connection. */
+    private final int                                           maxChannelsPerConnection;
+
+    /** The max time to wait for a free channel (in ms.). */
+    private final long                                          borrowTimeout;
+
+    /** The channel permits, fair to serve borrowers in arrival order. */
+    private final Semaphore                                     permits;
+
+    /** The live connections. */
+    private final List<PooledConnection>                        connections;
+
+    /** All connections handed out, including retired ones still in use. */
+    private final Map<SSHTransportConnection, PooledConnection> borrowed;
+
+    /** The number of connections being created. */
+    private int                                                 pending;
+
+    /** Whether the pool has been closed. */
+    private boolean                                             closed;
+
+    /**
+     * Instantiates a new SSH connection pool.
+     *
+     * @param sshClientConfig
+     *            the ssh client config
+     */
+    SSHConnectionPool(SSHClientConfig sshClientConfig) {
+        this.description = sshClientConfig.getUserName() + "@" + sshClientConfig.getHostname() + ":"
+                + sshClientConfig.getPort();
+        this.maxConnections = Math.max(1, sshClientConfig.getConnectionPoolSize());
+        this.maxChannelsPerConnection = Math.max(1, sshClientConfig.getMaxChannelsPerConnection());
+        this.borrowTimeout = sshClientConfig.getPoolBorrowTimeout();
+        this.permits = new Semaphore(maxConnections * maxChannelsPerConnection, true);
+        this.connections = new ArrayList<PooledConnection>(maxConnections);
+        this.borrowed = new IdentityHashMap<SSHTransportConnection, PooledConnection>();
+    }
+
+    /**
+     * Gets the pool for given configuration, creating it on first use.
+     *
+     * @param sshClientConfig
+     *            the ssh client config
+     * @return the pool
+     */
+    public static SSHConnectionPool getPool(SSHClientConfig sshClientConfig) {
+        String key = sshClientConfig.getConnectionKey();
+        synchronized (POOLS) {
+            SSHConnectionPool pool = POOLS.get(key);
+            if (pool == null) {
+                pool = new SSHConnectionPool(sshClientConfig);
+                POOLS.put(key, pool);
+                logger.info("Created SSH connection pool for " + sshClientConfig.describe()
+                        + " maxConnections=" + pool.maxConnections + " maxChannelsPerConnection="
+                        + pool.maxChannelsPerConnection);
+            }
+            return pool;
+        }
+    }
+
+    /**
+     * Closes all pools and their connections.
+     */
+    public static void closeAll() {
+        List<SSHConnectionPool> pools;
+        synchronized (POOLS) {
+            pools = new ArrayList<SSHConnectionPool>(POOLS.values());
+            POOLS.clear();
+        }
+        for (SSHConnectionPool pool : pools) {
+            pool.close();
+        }
+    }
+
+    /**
+     * Borrows a connection with one free channel. The least loaded connection
+     * is chosen; a new connection is created by given client if all
+     * connections are busy and the pool is not full.
+     *
+     * @param sshClient
+     *            the ssh client used to create new connections
+     * @param timings
+     *            the result which records the connection timings, may be null
+     * @return the borrowed connection
+     * @throws SSHException
+     *             if no channel became free within the borrow timeout or if
+     *             the connection could not be created.
+     */
+    public SSHTransportConnection borrow(SSHClient sshClient,
+                                         SSHResult timings) throws SSHException
+    {
+        return borrow(sshClient, timings, 1);
+    }
+
+    /**
+     * Borrows a connection with given number of free channels, for an
+     * execution which opens that many sessions at the same time. The least
+     * loaded connection with enough free channels is chosen; a new connection
+     * is created by given client if there is none and the pool is not full.
+     *
+     * @param sshClient
+     *            the ssh client used to create new connections
+     * @param timings
+     *            the result which records the connection timings, may be null
+     * @param channels
+     *            the number of channels to borrow
+     * @return the borrowed connection
+     * @throws SSHException
+     *             if more channels are requested than a connection may carry,
+     *             if they did not become free within the borrow timeout or if
+     *             the connection could not be created.
+     */
+    public SSHTransportConnection borrow(SSHClient sshClient,
+                                         SSHResult timings,
+                                         int channels) throws SSHException
+    {
+        if (channels > maxChannelsPerConnection) {
+            throw new SSHException(channels + " channels requested on one pooled SSH connection, at most "
+                    + maxChannelsPerConnection + " allowed");
+        }
+        long deadline = System.currentTimeMillis() + borrowTimeout;
+        try {
+            if (!permits.tryAcquire(channels, borrowTimeout, TimeUnit.MILLISECONDS)) {
+                throw new SSHTimeoutException("Timed out after " + borrowTimeout
+                        + " ms waiting for a pooled SSH connection");
+            }
+        } catch (InterruptedException e) {
+            throw new SSHException("Interrupted while waiting for a pooled SSH connection", e);
+        }
+
+        List<SSHTransportConnection> lost = new ArrayList<SSHTransportConnection>();
+        try {
+            synchronized (this) {
+                while (true) {
+                    if (closed) {
+                        throw new SSHException("SSH connection pool is closed");
+                    }
+                    PooledConnection pooled = leastLoaded(channels, lost);
+                    if (pooled != null) {
+                        pooled.channels += channels;
+                        return pooled.connection;
+                    }
+                    if (connections.size() + pending < maxConnections) {
+                        pending++;
+                        break;
+                    }
+                    // a connection is being created and will have free channels
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        throw new SSHTimeoutException("Timed out after " + borrowTimeout
+                                + " ms waiting for a pooled SSH connection");
+                    }
+                    wait(remaining);
+                }
+            }
+        } catch (InterruptedException e) {
+            permits.release(channels);
+            throw new SSHException("Interrupted while waiting for a pooled SSH connection", e);
+        } catch (SSHException e) {
+            permits.release(channels);
+            throw e;
+        } finally {
+            // closing may block, not while holding the pool lock
+            for (SSHTransportConnection conn : lost) {
+                SSHClient.closeSSHResource(null, conn);
+            }
+        }
+
+        // create the connection outside the lock, others keep borrowing
+        SSHTransportConnection conn = null;
+        try {
+            conn = sshClient.getSSHConnection(timings);
+        } finally {
+            synchronized (this) {
+                pending--;
+                if (conn != null) {
+                    PooledConnection pooled = new PooledConnection(conn);
+                    conn.addConnectionListener(pooled);
+                    pooled.channels = channels;
+                    connections.add(pooled);
+                    borrowed.put(conn, pooled);
+                }
+                notifyAll();
+            }
+            if (conn == null) {
+                permits.release(channels);
+            }
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Added pooled SSH connection for " + description + ", connections: "
+                    + connections.size());
+        }
+        return conn;
+    }
+
+    /**
+     * Opens all connections of the pool in advance, at most concurrency
+     * connections at the same time.
+     *
+     * @param sshClient
+     *            the ssh client used to create new connections
+     * @param concurrency
+     *            the max number of connections opened in parallel
+     * @return the number of connections opened
+     * @throws SSHException
+     *             if any connection could not be opened, the ones which could
+     *             are kept in the pool.
+     */
+    public int warmUp(final SSHClient sshClient,
+                      int concurrency) throws SSHException
+    {
+        int count;
+        synchronized (this) {
+            count = maxConnections - connections.size() - pending;
+            if (count <= 0 || closed) {
+                return 0;
+            }
+            pending += count;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(concurrency, count)));
+        List<Future<SSHTransportConnection>> futures = new ArrayList<Future<SSHTransportConnection>>(count);
+        for (int i = 0; i < count; i++) {
+            futures.add(executor.submit(new Callable<SSHTransportConnection>() {
+
+                public SSHTransportConnection call() throws SSHException {
+                    return sshClient.getSSHConnection();
+                }
+            }));
+        }
+        executor.shutdown();
+
+        int opened = 0;
+        Throwable firstFailure = null;
+        for (Future<SSHTransportConnection> future : futures) {
+            SSHTransportConnection conn = null;
+            try {
+                conn = future.get();
+            } catch (ExecutionException e) {
+                firstFailure = firstFailure == null ? e.getCause() : firstFailure;
+            } catch (InterruptedException e) {
+                future.cancel(true);
+                firstFailure = firstFailure == null ? e : firstFailure;
+            }
+            synchronized (this) {
+                pending--;
+                if (conn != null) {
+                    if (closed) {
+                        SSHClient.closeSSHResource(null, conn);
+                    } else {
+                        PooledConnection pooled = new PooledConnection(conn);
+                        conn.addConnectionListener(pooled);
+                        connections.add(pooled);
+                        borrowed.put(conn, pooled);
+                        opened++;
+                    }
+                }
+                notifyAll();
+            }
+        }
+        logger.info("Warmed up SSH connection pool for " + description + ": " + opened + " of " + count
+                + " connection(s) opened");
+        if (firstFailure != null) {
+            throw new SSHException((count - opened) + " of " + count
+                    + " SSH connection(s) failed during warm-up", firstFailure);
+        }
+        return opened;
+    }
+
+    /**
+     * Returns the channel borrowed on given connection. If the execution
+     * failed and the connection does not respond any more then the connection
+     * is retired and closed once its last channel is returned.
+     *
+     * @param conn
+     *            the borrowed connection
+     * @param failed
+     *            whether the execution on this connection failed
+     */
+    public void release(SSHTransportConnection conn,
+                        boolean failed)
+    {
+        release(conn, failed, 1);
+    }
+
+    /**
+     * Returns the channels borrowed on given connection by
+     * {@link #borrow(SSHClient, SSHResult, int)}.
+     *
+     * @param conn
+     *            the borrowed connection
+     * @param failed
+     *            whether the execution on this connection failed
+     * @param channels
+     *            the number of channels borrowed
+     */
+    public void release(SSHTransportConnection conn,
+                        boolean failed,
+                        int channels)
+    {
+        // the check does network I/O, it must not block the pool
+        boolean dead = failed && !isAlive(conn);
+        boolean closeConnection = false;
+        synchronized (this) {
+            PooledConnection pooled = borrowed.get(conn);
+            if (pooled == null) {
+                return;
+            }
+            if (dead) {
+                pooled.lost = true;
+            }
+            if (pooled.lost || closed) {
+                connections.remove(pooled);
+            }
+            pooled.channels -= channels;
+            if (pooled.channels <= 0 && !connections.contains(pooled)) {
+                borrowed.remove(conn);
+                closeConnection = true;
+            }
+            notifyAll();
+        }
+        permits.release(channels);
+        if (closeConnection) {
+            SSHClient.closeSSHResource(null, conn);
+        }
+    }
+
+    /**
+     * Closes all idle connections of this pool. Connections in use are closed
+     * as soon as they are released.
+     */
+    public void close() {
+        List<SSHTransportConnection> idle = new ArrayList<SSHTransportConnection>();
+        synchronized (this) {
+            closed = true;
+            for (PooledConnection pooled : connections) {
+                if (pooled.channels <= 0) {
+                    idle.add(pooled.connection);
+                    borrowed.remove(pooled.connection);
+                }
+            }
+            connections.clear();
+            notifyAll();
+        }
+        logger.info("Closing SSH connection pool for " + description + ", idle connections: " + idle.size());
+        for (SSHTransportConnection conn : idle) {
+            SSHClient.closeSSHResource(null, conn);
+        }
+    }
+
+    /**
+     * Gets the least loaded live connection with given number of free
+     * channels. Lost connections are retired on the way; the idle ones are
+     * added to the given list, for the caller to close them once it has
+     * released the lock.
+     *
+     * @param channels
+     *            the number of channels needed
+     * @param lost
+     *            the list receiving the lost connections to close
+     * @return the least loaded connection or null if all are busy.
+     */
+    private PooledConnection leastLoaded(int channels,
+                                         List<SSHTransportConnection> lost)
+    {
+        PooledConnection best = null;
+        for (int i = connections.size() - 1; i >= 0; i--) {
+            PooledConnection pooled = connections.get(i);
+            if (pooled.lost) {
+                connections.remove(i);
+                if (pooled.channels <= 0) {
+                    borrowed.remove(pooled.connection);
+                    lost.add(pooled.connection);
+                }
+                continue;
+            }
+            if (pooled.channels + channels <= maxChannelsPerConnection
+                    && (best == null || pooled.channels < best.channels)) {
+                best = pooled;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Checks whether the connection still accepts packets.
+     *
+     * @param conn
+     *            the connection
+     * @return true, if connection is alive
+     */
+    private static boolean isAlive(SSHTransportConnection conn) {
+        try {
+            conn.sendIgnorePacket();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * The Class PooledConnection tracks the channels in use on a pooled
+     * connection and whether it has been lost.
+     */
+    static class PooledConnection implements ConnectionListener {
+
+        /** The connection. */
+        final SSHTransportConnection connection;
+
+        /** The channels in use. */
+        int                          channels;
+
+        /** Whether connection has been lost. */
+        volatile boolean             lost;
+
+        /**
+         * Instantiates a new pooled connection.
+         *
+         * @param connection
+         *            the connection
+         */
+        PooledConnection(SSHTransportConnection connection) {
+            this.connection = connection;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportConnection.ConnectionListener#connectionLost(java.lang.Throwable)
+         */
+        public void connectionLost(Throwable reason) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Pooled SSH connection lost: " + reason);
+            }
+            this.lost = true;
+        }
+    }
+}
@@ -0,0 +1,474 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.protocol.ssh2.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * The Class SSHHostInventory is a list of hosts, read from a file or given
+ * inline, among which JMeter threads are spread. Each line holds
+ * <code>host[,port[,user[,keyfile]]]</code>, empty or missing fields keeping
+ * the sampler's settings; blank lines and lines starting with # are ignored.
+ * <p>
+ * An inventory is parsed once and shared. A file is checked for changes at
+ * most every {@value #CHECK_INTERVAL} ms and parsed again when it changed; if
+ * the new content is invalid, the previous hosts are kept.
+ * <p>
+ * A thread is assigned a host by {@link #SHARDING_CONSISTENT_HASH consistent
+ * hashing} of its name, which keeps most threads on the same host when hosts
+ * are added or removed, or {@link #SHARDING_ROUND_ROBIN round-robin} in the
+ * order threads first ask, which balances threads exactly.
+ */
+public final class SSHHostInventory {
+
+    /** The sharding by consistent hashing of thread names. */
+    public static final String                         SHARDING_CONSISTENT_HASH = "consistent-hash";
+
+    /** The sharding by round-robin over threads. */
+    public static final String                         SHARDING_ROUND_ROBIN     = "round-robin";
+
+    /** The min time (in ms.) between checks of a file for changes. */
+    public static final long                           CHECK_INTERVAL           = 1000;
+
+    /** The number of points of each host on the hash ring. */
+    private static final int                           VIRTUAL_NODES            = 160;
+
+    /** The Constant logger. */
+    private static final Logger                        logger                   = LoggingManager.getLoggerForClass();
+
+    /** The inventories, by absolute file path or inline content. */
+    private static final Map<String, SSHHostInventory> INVENTORIES              = new ConcurrentHashMap<String, SSHHostInventory>();
+
+    /** The round-robin index of each thread, by thread name. */
+    private static final Map<String, Integer>          THREAD_INDEXES           = new ConcurrentHashMap<String, Integer>();
+
+    /** The next round-robin index. */
+    private static final AtomicInteger                 NEXT_THREAD_INDEX        = new AtomicInteger();
+
+    /** The file, null for an inline inventory. */
+    private final File                                 file;
+
+    /** The hosts and hash ring currently in use. */
+    private volatile Hosts                             hosts;
+
+    /** The time of next check of the file for changes. */
+    private volatile long                              nextCheck;
+
+    /**
+     * Instantiates a new SSH host inventory.
+     *
+     * @param file
+     *            the file, null for an inline inventory
+     * @param hosts
+     *            the hosts
+     */
+    private SSHHostInventory(File file, Hosts hosts) {
+        this.file = file;
+        this.hosts = hosts;
+        this.nextCheck = System.currentTimeMillis() + CHECK_INTERVAL;
+    }
+
+    /**
+     * Gets the inventory of given file, parsed on first use.
+     *
+     * @param path
+     *            the file path
+     * @return the inventory
+     * @throws SSHException
+     *             if the file cannot be read or is invalid.
+     */
+    public static SSHHostInventory getFileInventory(String path) throws SSHException {
+        File file = new File(path.trim()).getAbsoluteFile();
+        String key = "file:" + file.getPath();
+        SSHHostInventory inventory = INVENTORIES.get(key);
+        if (inventory != null) {
+            return inventory;
+        }
+        synchronized (INVENTORIES) {
+            inventory = INVENTORIES.get(key);
+            if (inventory == null) {
+                inventory = new SSHHostInventory(file, read(file));
+                INVENTORIES.put(key, inventory);
+                logger.info("Loaded " + inventory.hosts.list.size() + " host(s) from " + file);
+            }
+            return inventory;
+        }
+    }
+
+    /**
+     * Gets the inventory of given inline content, parsed on first use.
+     *
+     * @param content
+     *            the inventory lines
+     * @return the inventory
+     * @throws SSHException
+     *             if the content is invalid.
+     */
+    public static SSHHostInventory getInlineInventory(String content) throws SSHException {
+        String key = "inline:" + content;
+        SSHHostInventory inventory = INVENTORIES.get(key);
+        if (inventory == null) {
+            try {
+                inventory = new SSHHostInventory(null, parse(new StringReader(content), "inline inventory"));
+            } catch (IOException e) {
+                // cannot happen on a string
+                throw new SSHException("Failed to read inline inventory", e);
+            }
+            INVENTORIES.put(key, inventory);
+        }
+        return inventory;
+    }
+
+    /**
+     * Clears all inventories and thread assignments, e.g. on test end.
+     */
+    public static void clear() {
+        INVENTORIES.clear();
+        THREAD_INDEXES.clear();
+        NEXT_THREAD_INDEX.set(0);
+    }
+
+    /**
+     * Gets the hosts, reloading the file if it changed.
+     *
+     * @return the hosts, unmodifiable
+     */
+    public List<Host> getHosts() {
+        return getCurrentHosts().list;
+    }
+
+    /**
+     * Gets the host assigned to given thread, reloading the file if it
+     * changed.
+     *
+     * @param threadName
+     *            the thread name
+     * @param sharding
+     *            {@link #SHARDING_ROUND_ROBIN} or
+     *            {@link #SHARDING_CONSISTENT_HASH} (the default)
+     * @return the host
+     */
+    public Host getHost(String threadName,
+                        String sharding)
+    {
+        Hosts current = getCurrentHosts();
+        if (SHARDING_ROUND_ROBIN.equalsIgnoreCase(StringUtils.trim(sharding))) {
+            Integer index = THREAD_INDEXES.get(threadName);
+            if (index == null) {
+                index = Integer.valueOf(NEXT_THREAD_INDEX.getAndIncrement());
+                THREAD_INDEXES.put(threadName, index);
+            }
+            return current.list.get(index.intValue() % current.list.size());
+        }
+        Map.Entry<Long, Host> point = current.ring.ceilingEntry(hash(threadName));
+        return point != null ? point.getValue() : current.ring.firstEntry().getValue();
+    }
+
+    /**
+     * Gets the current hosts, reloading the file if it changed since last
+     * check.
+     *
+     * @return the hosts
+     */
+    private Hosts getCurrentHosts() {
+        if (file == null || System.currentTimeMillis() < nextCheck) {
+            return hosts;
+        }
+        synchronized (this) {
+            if (System.currentTimeMillis() >= nextCheck) {
+                Hosts current = hosts;
+                if (file.lastModified() != current.lastModified || file.length() != current.length) {
+                    try {
+                        hosts = read(file);
+                        logger.info("Reloaded " + hosts.list.size() + " host(s) from " + file);
+                    } catch (SSHException e) {
+                        // keep the previous hosts until the file is fixed
+                        hosts = new Hosts(current.list, current.ring, file.lastModified(), file.length());
+                        logger.error("Failed to reload host inventory, keeping previous hosts", e);
+                    }
+                }
+                nextCheck = System.currentTimeMillis() + CHECK_INTERVAL;
+            }
+            return hosts;
+        }
+    }
+
+    /**
+     * Reads the hosts of given file.
+     *
+     * @param file
+     *            the file
+     * @return the hosts
+     * @throws SSHException
+     *             if the file cannot be read or is invalid.
+     */
+    private static Hosts read(File file) throws SSHException {
+        long lastModified = file.lastModified();
+        long length = file.length();
+        try {
+            Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+            try {
+                Hosts read = parse(reader, file.getPath());
+                return new Hosts(read.list, read.ring, lastModified, length);
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            throw new SSHException("Failed to read host inventory " + file, e);
+        }
+    }
+
+    /**
+     * Parses inventory lines.
+     *
+     * @param reader
+     *            the reader of the lines
+     * @param source
+     *            the source, for error messages
+     * @return the hosts
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     * @throws SSHException
+     *             if a line is invalid or there is no host.
+     */
+    private static Hosts parse(Reader reader,
+                               String source) throws IOException, SSHException
+    {
+        List<Host> list = new ArrayList<Host>();
+        BufferedReader lines = new BufferedReader(reader);
+        String line;
+        int lineNumber = 0;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.length() == 0 || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s*,\\s*", -1);
+            if (fields[0].length() == 0 || fields.length > 4) {
+                throw new SSHException("Invalid host at line " + lineNumber + " of " + source
+                        + ", expecting host[,port[,user[,keyfile]]]: " + line);
+            }
+            int port = 0;
+            if (fields.length > 1 && fields[1].length() > 0) {
+                try {
+                    port = Integer.parseInt(fields[1]);
+                } catch (NumberFormatException e) {
+                    throw new SSHException("Invalid port at line " + lineNumber + " of " + source + ": " + line, e);
+                }
+            }
+            list.add(new Host(fields[0],
+                              port,
+                              fields.length > 2 ? StringUtils.trimToNull(fields[2]) : null,
+                              fields.length > 3 ? StringUtils.trimToNull(fields[3]) : null));
+        }
+        if (list.isEmpty()) {
+            throw new SSHException("No host in " + source);
+        }
+        TreeMap<Long, Host> ring = new TreeMap<Long, Host>();
+        for (Host host : list) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                ring.put(hash(host.toString() + "#" + i), host);
+            }
+        }
+        return new Hosts(Collections.unmodifiableList(list), ring, 0, 0);
+    }
+
+    /**
+     * Hashes given key onto the ring.
+     *
+     * @param key
+     *            the key
+     * @return the hash
+     */
+    private static Long hash(String key) {
+        byte[] digest = DigestUtils.md5(key);
+        long hash = 0;
+        for (int i = 0; i < 8; i++) {
+            hash = (hash << 8) | (digest[i] & 0xff);
+        }
+        return Long.valueOf(hash);
+    }
+
+    /**
+     * The Class Hosts holds the hosts parsed from one version of the
+     * inventory.
+     */
+    private static class Hosts {
+
+        /** The hosts, in inventory order. */
+        final List<Host>          list;
+
+        /** The hash ring. */
+        final TreeMap<Long, Host> ring;
+
+        /** The modification time of the file parsed. */
+        final long                lastModified;
+
+        /** The length of the file parsed. */
+        final long                length;
+
+        /**
+         * Instantiates new hosts.
+         *
+         * @param list
+         *            the hosts
+         * @param ring
+         *            the hash ring
+         * @param lastModified
+         *            the modification time of the file parsed
+         * @param length
+         *            the length of the file parsed
+         */
+        Hosts(List<Host> list, TreeMap<Long, Host> ring, long lastModified, long length) {
+            this.list = list;
+            this.ring = ring;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+    }
+
+    /**
+     * The Class Host is one host of the inventory.
+     */
+    public static class Host {
+
+        /** The host name. */
+        private final String hostname;
+
+        /** The port, 0 for the sampler's. */
+        private final int    port;
+
+        /** The user name, null for the sampler's. */
+        private final String username;
+
+        /** The private key file, null for the sampler's. */
+        private final String sshkeyfile;
+
+        /**
+         * Instantiates a new host.
+         *
+         * @param hostname
+         *            the host name
+         * @param port
+         *            the port, 0 for the sampler's
+         * @param username
+         *            the user name, null for the sampler's
+         * @param sshkeyfile
+         *            the private key file, null for the sampler's
+         */
+        public Host(String hostname, int port, String username, String sshkeyfile) {
+            this.hostname = hostname;
+            this.port = port;
+            this.username = username;
+            this.sshkeyfile = sshkeyfile;
+        }
+
+        /**
+         * Sets the host's settings on given config.
+         *
+         * @param config
+         *            the SSH client config
+         */
+        public void applyTo(SSHClientConfig config) {
+            config.setHostname(hostname);
+            if (port > 0) {
+                config.setPort(port);
+            }
+            if (username != null) {
+                config.setUserName(username);
+            }
+            if (sshkeyfile != null) {
+                config.setSshkeyfile(sshkeyfile);
+            }
+        }
+
+        /**
+         * Gets the host name.
+         *
+         * @return the host name
+         */
+        public String getHostname() {
+            return hostname;
+        }
+
+        /**
+         * Gets the port.
+         *
+         * @return the port, 0 for the sampler's
+         */
+        public int getPort() {
+            return port;
+        }
+
+        /**
+         * Gets the user name.
+         *
+         * @return the user name, null for the sampler's
+         */
+        public String getUsername() {
+            return username;
+        }
+
+        /**
+         * Gets the private key file.
+         *
+         * @return the private key file, null for the sampler's
+         */
+        public String getSshkeyfile() {
+            return sshkeyfile;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            if (username != null) {
+                sb.append(username).append('@');
+            }
+            sb.append(hostname);
+            if (port > 0) {
+                sb.append(':').append(port);
+            }
+            return sb.toString();
+        }
+    }
+}
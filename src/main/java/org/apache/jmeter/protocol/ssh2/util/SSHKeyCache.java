@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.protocol.ssh2.util;
+
+import java.io.CharArrayWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * The Class SSHKeyCache keeps the private keys used for public key
+ * authentication in memory, so that a key file is read and decoded once, and
+ * not on every connection.<br/>
+ * A key is cached by transport and file path, and reloaded when the file's
+ * modification time or the passphrase changes. Keys are cached in the form the
+ * transport authenticates with (see
+ * {@link SSHTransport#decodePrivateKey(char[], String)}).
+ */
+public final class SSHKeyCache {
+
+    /** The Constant logger. */
+    private static final Logger                logger = LoggingManager.getLoggerForClass();
+
+    /** The cached keys, by transport class and absolute file path. */
+    private static final Map<String, CachedKey> KEYS   = new ConcurrentHashMap<String, CachedKey>();
+
+    /**
+     * Instantiates a new SSH key cache.
+     */
+    private SSHKeyCache() {
+    }
+
+    /**
+     * Gets the private key of given key file, decoded by given transport. The
+     * key is shared and must not be modified.
+     *
+     * @param transport
+     *            the transport which authenticates with the key
+     * @param keyFile
+     *            the private key file
+     * @param passphrase
+     *            the passphrase, if the key is encrypted
+     * @return the decoded private key
+     * @throws IOException
+     *             if the key file cannot be read or decoded (e.g. wrong
+     *             passphrase).
+     */
+    public static Object getPrivateKey(SSHTransport transport,
+                                       File keyFile,
+                                       String passphrase) throws IOException
+    {
+        String cacheKey = transport.getClass().getName() + "#" + keyFile.getAbsolutePath();
+        long lastModified = keyFile.lastModified();
+        String passphraseDigest = DigestUtils.md5Hex(String.valueOf(passphrase));
+        CachedKey cached = KEYS.get(cacheKey);
+        if (cached != null && cached.matches(lastModified, passphraseDigest)) {
+            return cached.key;
+        }
+        synchronized (KEYS) {
+            // another thread may have loaded it meanwhile
+            cached = KEYS.get(cacheKey);
+            if (cached == null || !cached.matches(lastModified, passphraseDigest)) {
+                long start = System.currentTimeMillis();
+                cached = new CachedKey(lastModified, passphraseDigest,
+                                       transport.decodePrivateKey(readKeyFile(keyFile), passphrase));
+                KEYS.put(cacheKey, cached);
+                logger.info("Loaded private key " + keyFile.getAbsolutePath() + " in "
+                        + (System.currentTimeMillis() - start) + " ms");
+            }
+            return cached.key;
+        }
+    }
+
+    /**
+     * Clears the cache.
+     */
+    public static void clear() {
+        KEYS.clear();
+    }
+
+    /**
+     * Reads the key file.
+     *
+     * @param keyFile
+     *            the key file
+     * @return the file content
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private static char[] readKeyFile(File keyFile) throws IOException {
+        CharArrayWriter content = new CharArrayWriter();
+        Reader reader = new InputStreamReader(new FileInputStream(keyFile), "ISO-8859-1");
+        try {
+            char[] buffer = new char[1024];
+            int len;
+            while ((len = reader.read(buffer)) != -1) {
+                content.write(buffer, 0, len);
+            }
+        } finally {
+            reader.close();
+        }
+        return content.toCharArray();
+    }
+
+    /**
+     * The Class CachedKey holds a decoded key and what it was decoded from.
+     */
+    private static class CachedKey {
+
+        /** The key file modification time. */
+        final long   lastModified;
+
+        /** The digest of the passphrase. */
+        final String passphraseDigest;
+
+        /** The decoded private key. */
+        final Object key;
+
+        /**
+         * Instantiates a new cached key.
+         *
+         * @param lastModified
+         *            the key file modification time
+         * @param passphraseDigest
+         *            the digest of the passphrase
+         * @param key
+         *            the decoded private key
+         */
+        CachedKey(long lastModified, String passphraseDigest, Object key) {
+            this.lastModified = lastModified;
+            this.passphraseDigest = passphraseDigest;
+            this.key = key;
+        }
+
+        /**
+         * Checks if this key was decoded from given file version and
+         * passphrase.
+         *
+         * @param lastModified
+         *            the key file modification time
+         * @param passphraseDigest
+         *            the digest of the passphrase
+         * @return true, if matches
+         */
+        boolean matches(long lastModified,
+                        String passphraseDigest)
+        {
+            return this.lastModified == lastModified && this.passphraseDigest.equals(passphraseDigest);
+        }
+    }
+}
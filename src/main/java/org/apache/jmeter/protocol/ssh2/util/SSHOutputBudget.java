@@ -0,0 +1,458 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.protocol.ssh2.util;
+
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.jmeter.util.JMeterUtils;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * The Class SSHOutputBudget bounds the output held in memory by all
+ * {@link ShellConsoleReader}s of the JVM. The budget (in bytes) is given by
+ * the JMeter property {@value #BUDGET_PROPERTY}, 0 (the default) for no
+ * limit. When it is exhausted, the JMeter property {@value #POLICY_PROPERTY}
+ * tells what readers do:
+ * <ul>
+ * <li>{@link #BLOCK} (the default): readers stop draining their channel until
+ * other readers release budget, so that the SSH window makes the remote side
+ * wait. A reader waits at most until its deadline (max wait time for output).
+ * When all readers holding budget wait, none would complete and release its
+ * budget: one of them is then let exceed the budget until it completes.</li>
+ * <li>{@link #TRUNCATE}: readers go on draining their channel but discard
+ * their output from then on. A prompt or step marker discarded is never
+ * matched then.</li>
+ * </ul>
+ * Output written to a sink (see {@link SSHOutputSink}) is not held in memory
+ * and does not count. Neither does output not read yet, which each transport
+ * buffers up to the channel window: the window stops the server while a
+ * reader waits.
+ * <p>
+ * Budget usage is exposed through JMX as {@value #OBJECT_NAME} (see
+ * {@link SSHOutputBudgetMBean}) and logged on test end. Without budget,
+ * readers do not use it at all, so that reading takes no shared lock, and
+ * usage is not tracked.
+ */
+public final class SSHOutputBudget implements SSHOutputBudgetMBean {
+
+    /** The JMeter property giving the budget (in bytes). */
+    public static final String     BUDGET_PROPERTY = "ssh2.output.budget";
+
+    /** The JMeter property giving the policy. */
+    public static final String     POLICY_PROPERTY = "ssh2.output.budgetPolicy";
+
+    /** The policy making readers wait for budget. */
+    public static final String     BLOCK           = "block";
+
+    /** The policy making readers discard output. */
+    public static final String     TRUNCATE        = "truncate";
+
+    /** The JMX name of the budget. */
+    public static final String     OBJECT_NAME     = "org.apache.jmeter.protocol.ssh2:type=SSHOutputBudget";
+
+    /** The Constant logger. */
+    private static final Logger    logger          = LoggingManager.getLoggerForClass();
+
+    /** The budget of the current test, created on first use. */
+    private static volatile SSHOutputBudget instance;
+
+    /** The budget (in bytes), 0 if unlimited. */
+    private final long             budget;
+
+    /** Whether output is discarded when the budget is exhausted. */
+    private final boolean          truncate;
+
+    /** The bytes held by readers. */
+    private long                   used;
+
+    /** The highest bytes held at once. */
+    private long                   peakUsed;
+
+    /** The readers waiting for budget. */
+    private int                    waitingReaders;
+
+    /** The readers holding budget. */
+    private int                    holdingReaders;
+
+    /** The readers holding budget and waiting for more. */
+    private int                    waitingHolders;
+
+    /** The reader let exceed the budget, null if none. */
+    private ShellConsoleReader     overdraft;
+
+    /** The number of readers let exceed the budget. */
+    private long                   overdraftCount;
+
+    /** The number of waits for budget. */
+    private long                   waitCount;
+
+    /** The time (in ms.) spent waiting for budget. */
+    private long                   waitTime;
+
+    /** The bytes discarded. */
+    private long                   truncatedBytes;
+
+    /**
+     * Instantiates a new SSH output budget.
+     *
+     * @param budget
+     *            the budget (in bytes), 0 or less if unlimited
+     * @param truncate
+     *            whether output is discarded when the budget is exhausted
+     */
+    private SSHOutputBudget(long budget,
+                            boolean truncate)
+    {
+        this.budget = Math.max(0, budget);
+        this.truncate = truncate;
+    }
+
+    /**
+     * Gets the budget of the current test, creating it from the JMeter
+     * properties and registering it in JMX on first use.
+     *
+     * @return the budget
+     */
+    public static SSHOutputBudget getInstance() {
+        SSHOutputBudget current = instance;
+        return current != null ? current : createInstance();
+    }
+
+    /**
+     * Creates the budget of the current test if not done yet.
+     *
+     * @return the budget
+     */
+    private static synchronized SSHOutputBudget createInstance() {
+        if (instance == null) {
+            String policy = JMeterUtils.getPropDefault(POLICY_PROPERTY, BLOCK).trim();
+            if (!BLOCK.equalsIgnoreCase(policy) && !TRUNCATE.equalsIgnoreCase(policy)) {
+                logger.warn("Unknown " + POLICY_PROPERTY + ":[" + policy + "], using " + BLOCK);
+            }
+            instance = new SSHOutputBudget(JMeterUtils.getPropDefault(BUDGET_PROPERTY, 0L),
+                                           TRUNCATE.equalsIgnoreCase(policy));
+            if (!instance.isUnlimited()) {
+                instance.register();
+                logger.info("SSH output budget: " + instance.budget + " bytes, policy " + instance.getPolicy());
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Logs the usage of the current test's budget and discards it, e.g. on
+     * test end. The next test reads the JMeter properties again.
+     */
+    public static void shutdown() {
+        SSHOutputBudget stopped;
+        synchronized (SSHOutputBudget.class) {
+            stopped = instance;
+            instance = null;
+        }
+        if (stopped != null && !stopped.isUnlimited()) {
+            stopped.unregister();
+            logger.info(stopped.toString());
+        }
+    }
+
+    /**
+     * Reserves up to given number of bytes for a reader.
+     *
+     * @param reader
+     *            the reader
+     * @param wanted
+     *            the bytes wanted
+     * @param holding
+     *            whether the reader already holds budget
+     * @return the bytes reserved, less than wanted (or 0) if the budget is
+     *         exhausted
+     */
+    synchronized int acquire(ShellConsoleReader reader,
+                             int wanted,
+                             boolean holding)
+    {
+        int granted = budget == 0 || reader == overdraft ? wanted
+                : (int) Math.max(0, Math.min(wanted, budget - used));
+        if (granted > 0 && !holding) {
+            holdingReaders++;
+        }
+        used += granted;
+        peakUsed = Math.max(peakUsed, used);
+        return granted;
+    }
+
+    /**
+     * Releases bytes reserved by a reader, waking up the readers waiting for
+     * budget.
+     *
+     * @param reader
+     *            the reader
+     * @param bytes
+     *            the bytes released
+     * @param all
+     *            whether the reader holds no more budget
+     */
+    synchronized void release(ShellConsoleReader reader,
+                              long bytes,
+                              boolean all)
+    {
+        used -= bytes;
+        if (all) {
+            holdingReaders--;
+            if (overdraft == reader) {
+                overdraft = null;
+            }
+        }
+        if (waitingReaders > 0) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Waits until some budget is available for a reader. If all readers
+     * holding budget wait, the last one to wait is let exceed the budget.
+     *
+     * @param reader
+     *            the reader
+     * @param holding
+     *            whether the reader holds budget
+     * @param timeout
+     *            the max time to wait (in ms.)
+     * @return true, if budget is available
+     * @throws InterruptedIOException
+     *             if the thread is interrupted while waiting.
+     */
+    synchronized boolean awaitAvailable(ShellConsoleReader reader,
+                                        boolean holding,
+                                        long timeout) throws InterruptedIOException
+    {
+        if (budget == 0 || used < budget || reader == overdraft) {
+            return true;
+        }
+        long start = System.currentTimeMillis();
+        long deadline = start + timeout;
+        waitingReaders++;
+        if (holding) {
+            waitingHolders++;
+        }
+        waitCount++;
+        try {
+            long remaining = timeout;
+            while (used >= budget && remaining > 0) {
+                if (holding && overdraft == null && waitingHolders == holdingReaders) {
+                    // no reader would release budget
+                    overdraft = reader;
+                    overdraftCount++;
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("SSH output budget exhausted, all " + holdingReaders
+                                + " reader(s) holding budget wait, letting one exceed it");
+                    }
+                    return true;
+                }
+                wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for SSH output budget");
+        } finally {
+            waitingReaders--;
+            if (holding) {
+                waitingHolders--;
+            }
+            waitTime += System.currentTimeMillis() - start;
+        }
+        return used < budget;
+    }
+
+    /**
+     * Counts bytes discarded.
+     *
+     * @param bytes
+     *            the bytes discarded
+     */
+    synchronized void truncated(long bytes) {
+        truncatedBytes += bytes;
+    }
+
+    /**
+     * Checks if there is no budget, in which case readers do not use it.
+     *
+     * @return true, if unlimited
+     */
+    boolean isUnlimited() {
+        return budget == 0;
+    }
+
+    /**
+     * Checks if output is discarded when the budget is exhausted, rather
+     * than readers waiting.
+     *
+     * @return true, if truncating
+     */
+    boolean isTruncating() {
+        return truncate;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.apache.jmeter.protocol.ssh2.util.SSHOutputBudgetMBean#getBudget()
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.apache.jmeter.protocol.ssh2.util.SSHOutputBudgetMBean#getPolicy()
+     */
+    public String getPolicy() {
+        return truncate ? TRUNCATE : BLOCK;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.apache.jmeter.protocol.ssh2.util.SSHOutputBudgetMBean#getUsed()
+     */
+    public synchronized long getUsed() {
+        return used;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.apache.jmeter.protocol.ssh2.util.SSHOutputBudgetMBean#getPeakUsed()
+     */
+    public synchronized long getPeakUsed() {
+        return peakUsed;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.apache.jmeter.protocol.ssh2.util.SSHOutputBudgetMBean#getWaitingReaders()
+     */
+    public synchronized int getWaitingReaders() {
+        return waitingReaders;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.apache.jmeter.protocol.ssh2.util.SSHOutputBudgetMBean#getHoldingReaders()
+     */
+    public synchronized int getHoldingReaders() {
+        return holdingReaders;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.apache.jmeter.protocol.ssh2.util.SSHOutputBudgetMBean#getOverdraftCount()
+     */
+    public synchronized long getOverdraftCount() {
+        return overdraftCount;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.apache.jmeter.protocol.ssh2.util.SSHOutputBudgetMBean#getWaitCount()
+     */
+    public synchronized long getWaitCount() {
+        return waitCount;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.apache.jmeter.protocol.ssh2.util.SSHOutputBudgetMBean#getWaitTime()
+     */
+    public synchronized long getWaitTime() {
+        return waitTime;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.apache.jmeter.protocol.ssh2.util.SSHOutputBudgetMBean#getTruncatedBytes()
+     */
+    public synchronized long getTruncatedBytes() {
+        return truncatedBytes;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("SSH output budget [");
+        sb.append("budget=").append(budget);
+        sb.append(", policy=").append(getPolicy());
+        sb.append(", used=").append(used);
+        sb.append(", peakUsed=").append(peakUsed);
+        sb.append(", waitCount=").append(waitCount);
+        sb.append(", waitTime=").append(waitTime);
+        sb.append(", overdraftCount=").append(overdraftCount);
+        sb.append(", truncatedBytes=").append(truncatedBytes);
+        sb.append("]");
+        return sb.toString();
+    }
+
+    /**
+     * Registers the budget in the platform MBean server.
+     */
+    private void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (Exception e) {
+            logger.warn("Failed to register SSH output budget in JMX: " + e);
+        }
+    }
+
+    /**
+     * Unregisters the budget from the platform MBean server.
+     */
+    private void unregister() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (Exception e) {
+            logger.warn("Failed to unregister SSH output budget from JMX: " + e);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.protocol.ssh2.util;
+
+/**
+ * The Interface SSHOutputBudgetMBean exposes the usage of the
+ * {@link SSHOutputBudget} through JMX.
+ */
+public interface SSHOutputBudgetMBean {
+
+    /**
+     * Gets the budget.
+     *
+     * @return the budget (in bytes), 0 if unlimited
+     */
+    long getBudget();
+
+    /**
+     * Gets the policy applied when the budget is exhausted.
+     *
+     * @return the policy
+     */
+    String getPolicy();
+
+    /**
+     * Gets the number of output bytes currently held in memory by readers.
+     *
+     * @return the used bytes
+     */
+    long getUsed();
+
+    /**
+     * Gets the highest number of output bytes held in memory at once.
+     *
+     * @return the peak used bytes
+     */
+    long getPeakUsed();
+
+    /**
+     * Gets the number of readers currently waiting for budget.
+     *
+     * @return the waiting readers
+     */
+    int getWaitingReaders();
+
+    /**
+     * Gets the number of readers currently holding budget.
+     *
+     * @return the holding readers
+     */
+    int getHoldingReaders();
+
+    /**
+     * Gets the number of times a reader was let exceed the budget, all
+     * readers holding budget waiting for more.
+     *
+     * @return the overdraft count
+     */
+    long getOverdraftCount();
+
+    /**
+     * Gets the number of times a reader had to wait for budget.
+     *
+     * @return the wait count
+     */
+    long getWaitCount();
+
+    /**
+     * Gets the time readers spent waiting for budget.
+     *
+     * @return the wait time (in ms.)
+     */
+    long getWaitTime();
+
+    /**
+     * Gets the number of output bytes discarded by the truncate policy.
+     *
+     * @return the truncated bytes
+     */
+    long getTruncatedBytes();
+}
@@ -0,0 +1,444 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.protocol.ssh2.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * The Class SSHOutputSink receives the standard output of a command instead
+ * of the in-memory buffer, so that the heap used does not grow with the
+ * output size: the output is only counted, digested or written to a local
+ * file. Only the first bytes are kept, as a preview, except by the tail sink
+ * which keeps the last bytes in a ring buffer.
+ */
+public abstract class SSHOutputSink {
+
+    /** The sink keeping the whole output in memory, the default. */
+    public static final String MEMORY               = "memory";
+
+    /** The sink only counting output bytes. */
+    public static final String COUNT                = "count";
+
+    /** The sink computing the MD5 digest of the output. */
+    public static final String MD5                  = "md5";
+
+    /** The sink computing the SHA-256 digest of the output. */
+    public static final String SHA256               = "sha256";
+
+    /** The sink writing the output to a local file. */
+    public static final String FILE                 = "file";
+
+    /** The sink keeping the last output bytes in a ring buffer. */
+    public static final String TAIL                 = "tail";
+
+    /** The default number of bytes kept as preview. */
+    public static final int    DEFAULT_PREVIEW_SIZE = 10240;
+
+    /** The first bytes of the output. */
+    private final byte[]       preview;
+
+    /** The number of bytes in preview. */
+    private int                previewLength;
+
+    /** The number of output bytes received. */
+    private long               size;
+
+    /**
+     * Instantiates a new output sink.
+     *
+     * @param previewSize
+     *            the number of bytes kept as preview
+     */
+    protected SSHOutputSink(int previewSize) {
+        this.preview = new byte[Math.max(0, previewSize)];
+    }
+
+    /**
+     * Creates the output sink of given configuration (see
+     * {@link SSHClientConfig#getOutputSink()}).
+     *
+     * @param config
+     *            the SSH client config
+     * @return the output sink, null if output is kept in memory
+     * @throws SSHException
+     *             if the sink is unknown or its file cannot be opened.
+     */
+    public static SSHOutputSink create(SSHClientConfig config) throws SSHException {
+        String type = StringUtils.isBlank(config.getOutputSink()) ? MEMORY : config.getOutputSink().trim();
+        int previewSize = config.getOutputPreviewSize() > 0 ? config.getOutputPreviewSize() : DEFAULT_PREVIEW_SIZE;
+        if (MEMORY.equalsIgnoreCase(type)) {
+            return null;
+        }
+        if (COUNT.equalsIgnoreCase(type)) {
+            return new CountingSink(previewSize);
+        }
+        if (MD5.equalsIgnoreCase(type)) {
+            return new DigestSink(previewSize, "MD5");
+        }
+        if (SHA256.equalsIgnoreCase(type)) {
+            return new DigestSink(previewSize, "SHA-256");
+        }
+        if (TAIL.equalsIgnoreCase(type)) {
+            return new TailSink(previewSize, config.isOutputOffHeap());
+        }
+        if (FILE.equalsIgnoreCase(type)) {
+            if (StringUtils.isBlank(config.getOutputFile())) {
+                throw new SSHException("No output file set for output sink " + type);
+            }
+            return new FileSink(previewSize, new File(config.getOutputFile().trim()));
+        }
+        throw new SSHException("Unknown output sink:[" + type + "]");
+    }
+
+    /**
+     * Writes output bytes to the sink.
+     *
+     * @param b
+     *            the bytes
+     * @param off
+     *            the offset
+     * @param len
+     *            the number of bytes
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    public final void write(byte[] b,
+                            int off,
+                            int len) throws IOException
+    {
+        int kept = Math.min(len, preview.length - previewLength);
+        if (kept > 0) {
+            System.arraycopy(b, off, preview, previewLength, kept);
+            previewLength += kept;
+        }
+        size += len;
+        doWrite(b, off, len);
+    }
+
+    /**
+     * Writes output bytes to the sink's target.
+     *
+     * @param b
+     *            the bytes
+     * @param off
+     *            the offset
+     * @param len
+     *            the number of bytes
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    protected abstract void doWrite(byte[] b,
+                                    int off,
+                                    int len) throws IOException;
+
+    /**
+     * Gets the number of output bytes received.
+     *
+     * @return the size
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Gets the first bytes of the output (the last ones for the tail sink),
+     * decoded.
+     *
+     * @return the preview
+     */
+    public String getPreview() {
+        return new String(preview, 0, previewLength, Charset.defaultCharset());
+    }
+
+    /**
+     * Gets the digest of the output.
+     *
+     * @return the hex digest, null if not computed by this sink
+     */
+    public String getDigest() {
+        return null;
+    }
+
+    /**
+     * Closes the sink's target. The digest is available once closed.
+     */
+    public void close() {
+    }
+
+    /**
+     * The Class CountingSink only counts output bytes.
+     */
+    private static class CountingSink extends SSHOutputSink {
+
+        /**
+         * Instantiates a new counting sink.
+         *
+         * @param previewSize
+         *            the preview size
+         */
+        CountingSink(int previewSize) {
+            super(previewSize);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHOutputSink#doWrite(byte[], int, int)
+         */
+        @Override
+        protected void doWrite(byte[] b,
+                               int off,
+                               int len)
+        {
+            // counted by write
+        }
+    }
+
+    /**
+     * The Class DigestSink computes a running digest of the output.
+     */
+    private static class DigestSink extends SSHOutputSink {
+
+        /** The message digest. */
+        private final MessageDigest messageDigest;
+
+        /** The hex digest, once closed. */
+        private String              digest;
+
+        /**
+         * Instantiates a new digest sink.
+         *
+         * @param previewSize
+         *            the preview size
+         * @param algorithm
+         *            the digest algorithm
+         * @throws SSHException
+         *             if the algorithm is not available.
+         */
+        DigestSink(int previewSize,
+                   String algorithm) throws SSHException
+        {
+            super(previewSize);
+            try {
+                this.messageDigest = MessageDigest.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                throw new SSHException("Digest algorithm not available: " + algorithm, e);
+            }
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHOutputSink#doWrite(byte[], int, int)
+         */
+        @Override
+        protected void doWrite(byte[] b,
+                               int off,
+                               int len)
+        {
+            messageDigest.update(b, off, len);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHOutputSink#getDigest()
+         */
+        @Override
+        public String getDigest() {
+            return digest;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHOutputSink#close()
+         */
+        @Override
+        public void close() {
+            if (digest == null) {
+                digest = Hex.encodeHexString(messageDigest.digest());
+            }
+        }
+    }
+
+    /**
+     * The Class FileSink writes the output to a local file through a file
+     * channel.
+     */
+    private static class FileSink extends SSHOutputSink {
+
+        /** The file channel. */
+        private final FileChannel channel;
+
+        /**
+         * Instantiates a new file sink, truncating the file.
+         *
+         * @param previewSize
+         *            the preview size
+         * @param file
+         *            the file
+         * @throws SSHException
+         *             if the file cannot be opened.
+         */
+        @SuppressWarnings("resource")
+        FileSink(int previewSize,
+                 File file) throws SSHException
+        {
+            super(previewSize);
+            try {
+                this.channel = new FileOutputStream(file).getChannel();
+            } catch (IOException e) {
+                throw new SSHException("Failed to open output file " + file, e);
+            }
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHOutputSink#doWrite(byte[], int, int)
+         */
+        @Override
+        protected void doWrite(byte[] b,
+                               int off,
+                               int len) throws IOException
+        {
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHOutputSink#close()
+         */
+        @Override
+        public void close() {
+            try {
+                channel.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    /**
+     * The Class TailSink keeps the last output bytes in a fixed-size ring
+     * buffer, on heap or off heap (direct buffer). The direct buffer of a
+     * thread is reused by its next tail sink of same size, as allocating and
+     * freeing direct memory is expensive.
+     */
+    private static class TailSink extends SSHOutputSink {
+
+        /** The direct buffer of the last tail sink of each thread. */
+        private static final ThreadLocal<ByteBuffer> DIRECT_BUFFERS = new ThreadLocal<ByteBuffer>();
+
+        /** The ring buffer. */
+        private final ByteBuffer                     ring;
+
+        /** Whether the ring buffer has been filled once. */
+        private boolean                              wrapped;
+
+        /**
+         * Instantiates a new tail sink.
+         *
+         * @param tailSize
+         *            the number of last bytes kept
+         * @param offHeap
+         *            whether the ring buffer is a direct buffer
+         */
+        TailSink(int tailSize,
+                 boolean offHeap)
+        {
+            super(0);
+            if (offHeap) {
+                ByteBuffer buffer = DIRECT_BUFFERS.get();
+                if (buffer == null || buffer.capacity() != tailSize) {
+                    buffer = ByteBuffer.allocateDirect(tailSize);
+                    DIRECT_BUFFERS.set(buffer);
+                }
+                buffer.clear();
+                this.ring = buffer;
+            } else {
+                this.ring = ByteBuffer.allocate(tailSize);
+            }
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHOutputSink#doWrite(byte[], int, int)
+         */
+        @Override
+        protected void doWrite(byte[] b,
+                               int off,
+                               int len)
+        {
+            int capacity = ring.capacity();
+            if (len >= capacity) {
+                // only the last bytes of the chunk are kept
+                ring.clear();
+                ring.put(b, off + len - capacity, capacity);
+                ring.clear();
+                wrapped = true;
+                return;
+            }
+            int first = Math.min(len, ring.remaining());
+            ring.put(b, off, first);
+            if (!ring.hasRemaining()) {
+                ring.clear();
+                wrapped = true;
+            }
+            if (first < len) {
+                ring.put(b, off + first, len - first);
+            }
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHOutputSink#getPreview()
+         */
+        @Override
+        public String getPreview() {
+            int position = ring.position();
+            byte[] tail = new byte[wrapped ? ring.capacity() : position];
+            ByteBuffer buffer = ring.duplicate();
+            if (wrapped) {
+                buffer.limit(buffer.capacity());
+                buffer.get(tail, 0, buffer.remaining());
+            }
+            buffer.clear();
+            buffer.limit(position);
+            buffer.get(tail, tail.length - position, position);
+            return new String(tail, Charset.defaultCharset());
+        }
+    }
+}
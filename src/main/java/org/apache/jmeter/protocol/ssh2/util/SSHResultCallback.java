@@ -0,0 +1,52 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.protocol.ssh2.util;
+
+import org.apache.jmeter.protocol.ssh2.util.SSHClient.SSHResult;
+
+/**
+ * The Interface SSHResultCallback is notified of the start and completion of
+ * an execution submitted to the {@link SSHAsyncExecutor} (see
+ * {@link SSHClient#submitCmd(String, SSHResultCallback)}). It is called by the
+ * pool thread which runs the execution, so it must not block.
+ */
+public interface SSHResultCallback {
+
+    /**
+     * Called when the execution starts running, once it has left the queue
+     * of the executor. Not called if the execution is cancelled before.
+     */
+    void started();
+
+    /**
+     * Called when the execution completed.
+     *
+     * @param result
+     *            the result
+     */
+    void completed(SSHResult result);
+
+    /**
+     * Called when the execution failed or was cancelled.
+     *
+     * @param e
+     *            the failure
+     */
+    void failed(SSHException e);
+}
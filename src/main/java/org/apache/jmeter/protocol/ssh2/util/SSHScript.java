@@ -0,0 +1,319 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.protocol.ssh2.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * The Class SSHScript is a compiled, immutable SSH script: the list of
+ * commands to send, already encoded, and of 'wait' directives. Compiled
+ * scripts are cached by script content, so that a script is parsed once and
+ * then shared by all threads and iterations.
+ */
+public final class SSHScript {
+
+    /** The SSH script's line end character pattern. */
+    private static final Pattern                 SCRIPT_LINE_END_PATTERN   = Pattern.compile("[\r\n]+");
+
+    /** The SSH script comment character. */
+    private static final String                  SCRIPT_COMMENT_IDENTIFIER = "#";
+
+    /** The wait command. */
+    private static final String                  SCRIPT_WAIT_COMMAND       = "wait ";
+
+    /** The end line character send to server to tell end of command. */
+    private static final String                  SCRIPT_END_LINE           = "\n";
+
+    /** The patter to split the string of wait command. */
+    private static final Pattern                 WAIT_CMD_SPLIT_PATTERN    = Pattern.compile("[ \t]+");
+
+    /**
+     * The pattern of the marker written after each step of a pipelined
+     * script. Group 1 is the exit status of the step's command.
+     */
+    static final Pattern                         STEP_MARKER_PATTERN       = Pattern.compile("__JMSSH2_STEP_(\\d+)__\\r?\\n");
+
+    /**
+     * The command writing the step marker. The marker is quoted in two parts
+     * so that an echo of the script does not match it.
+     */
+    private static final String                  STEP_MARKER_COMMAND       = "__jmssh2_rc=$?; echo \"__JMSSH2\"\"_STEP_${__jmssh2_rc}__\"";
+
+    /** The command exiting the shell on failure of the previous command. */
+    private static final String                  STEP_ABORT_COMMAND        = "; [ $__jmssh2_rc -eq 0 ] || exit $__jmssh2_rc";
+
+    /** The max number of compiled scripts kept in cache. */
+    private static final int                     CACHE_SIZE                = 64;
+
+    /** The compiled scripts, by 'wait' command flag and script content. */
+    private static final Map<String, SSHScript> CACHE                     =
+            Collections.synchronizedMap(new LinkedHashMap<String, SSHScript>(16, 0.75f, true) {
+
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, SSHScript> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            });
+
+    /** The steps. */
+    private final List<Step>                     steps;
+
+    /** The pipelined script, built on first use. */
+    private volatile byte[]                      pipelinedBytes;
+
+    /** The pipelined script aborting on command failure, built on first use. */
+    private volatile byte[]                      abortingPipelinedBytes;
+
+    /**
+     * Instantiates a new compiled SSH script.
+     *
+     * @param steps
+     *            the steps
+     */
+    private SSHScript(List<Step> steps) {
+        this.steps = Collections.unmodifiableList(steps);
+    }
+
+    /**
+     * Gets the compiled script for given script content, from cache if it has
+     * already been compiled.
+     *
+     * @param script
+     *            the script content
+     * @param waitCmdEnabled
+     *            the 'wait &lt;time-in-sec&gt;' command enabled or not. if
+     *            false then wait commands are ignored.
+     * @return the compiled script
+     * @throws SSHException
+     *             if a wait command is invalid.
+     */
+    public static SSHScript compile(String script,
+                                    boolean waitCmdEnabled) throws SSHException
+    {
+        String key = (waitCmdEnabled ? "W" : "-") + script;
+        SSHScript compiled = CACHE.get(key);
+        if (compiled == null) {
+            compiled = parse(script, waitCmdEnabled);
+            CACHE.put(key, compiled);
+        }
+        return compiled;
+    }
+
+    /**
+     * Clears the compiled script cache.
+     */
+    public static void clearCache() {
+        CACHE.clear();
+    }
+
+    /**
+     * Parses the script content. Script is executed line by line, empty lines
+     * and # (comment) lines being ignored.
+     *
+     * @param script
+     *            the script content
+     * @param waitCmdEnabled
+     *            the 'wait' command enabled or not
+     * @return the compiled script
+     * @throws SSHException
+     *             if a wait command is invalid.
+     */
+    private static SSHScript parse(String script,
+                                   boolean waitCmdEnabled) throws SSHException
+    {
+        List<Step> steps = new ArrayList<Step>();
+        String commands[] = SCRIPT_LINE_END_PATTERN.split(script);
+        for (String command : commands) {
+            // ignore empty line and # (comment) line.
+            if (StringUtils.isBlank(command) || command.startsWith(SCRIPT_COMMENT_IDENTIFIER)) {
+                continue;
+            }
+
+            // check for wait command.
+            if (command.startsWith(SCRIPT_WAIT_COMMAND)) {
+                if (waitCmdEnabled) {
+                    // assuming 'wait' command format is like: wait 5
+                    String sleepArgs[] = WAIT_CMD_SPLIT_PATTERN.split(command);
+                    if (sleepArgs.length < 2) {
+                        throw new SSHException("Missing time in wait command:[" + command + "]");
+                    }
+                    try {
+                        steps.add(new Step(null, null, Long.parseLong(sleepArgs[1]) * 1000));
+                    } catch (NumberFormatException e) {
+                        throw new SSHException("Failed to parse time in wait command", e);
+                    }
+                }
+                continue;
+            }
+
+            steps.add(new Step(command, encode(command), 0));
+        }
+        return new SSHScript(steps);
+    }
+
+    /**
+     * Encodes a command line to be sent to the shell.
+     *
+     * @param command
+     *            the command
+     * @return the command bytes, end line included
+     */
+    static byte[] encode(String command) {
+        return (command + SCRIPT_END_LINE).getBytes(SSHClient.COMMAND_CHARSET);
+    }
+
+    /**
+     * Gets the script to send at once to a non interactive shell: each
+     * command is followed by a marker holding its exit status (see
+     * {@link #STEP_MARKER_PATTERN}), and each 'wait' directive becomes a
+     * remote sleep followed by a marker too, so that step boundaries are
+     * recovered from the output. The array is shared and must not be
+     * modified.
+     *
+     * @param abortOnCommandFailure
+     *            whether the shell exits once a command failed
+     * @return the pipelined script bytes
+     */
+    byte[] getPipelinedBytes(boolean abortOnCommandFailure) {
+        byte[] bytes = abortOnCommandFailure ? abortingPipelinedBytes : pipelinedBytes;
+        if (bytes == null) {
+            StringBuilder sb = new StringBuilder();
+            for (Step step : steps) {
+                if (step.isWait()) {
+                    sb.append("sleep ").append(step.getWaitTime() / 1000).append(SCRIPT_END_LINE);
+                } else {
+                    sb.append(step.getCommand()).append(SCRIPT_END_LINE);
+                }
+                sb.append(STEP_MARKER_COMMAND);
+                if (abortOnCommandFailure && !step.isWait()) {
+                    sb.append(STEP_ABORT_COMMAND);
+                }
+                sb.append(SCRIPT_END_LINE);
+            }
+            bytes = sb.toString().getBytes(SSHClient.COMMAND_CHARSET);
+            if (abortOnCommandFailure) {
+                abortingPipelinedBytes = bytes;
+            } else {
+                pipelinedBytes = bytes;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Gets the steps, in execution order.
+     *
+     * @return the steps
+     */
+    public List<Step> getSteps() {
+        return steps;
+    }
+
+    /**
+     * The Class Step is either a command or a 'wait' directive of a script.
+     */
+    public static final class Step {
+
+        /** The command, null if wait directive. */
+        private final String command;
+
+        /** The command bytes sent to the shell, end line included. */
+        private final byte[] commandBytes;
+
+        /** The command bytes followed by the step marker command, null if wait directive. */
+        private final byte[] markedCommandBytes;
+
+        /** The wait time (in ms.) of a wait directive. */
+        private final long   waitTime;
+
+        /**
+         * Instantiates a new step.
+         *
+         * @param command
+         *            the command, null if wait directive
+         * @param commandBytes
+         *            the command bytes
+         * @param waitTime
+         *            the wait time
+         */
+        Step(String command, byte[] commandBytes, long waitTime) {
+            this.command = command;
+            this.commandBytes = commandBytes;
+            this.markedCommandBytes = command == null ? null : encode(command + SCRIPT_END_LINE + STEP_MARKER_COMMAND);
+            this.waitTime = waitTime;
+        }
+
+        /**
+         * Checks if this step is a wait directive.
+         *
+         * @return true, if wait directive
+         */
+        public boolean isWait() {
+            return command == null;
+        }
+
+        /**
+         * Gets the command.
+         *
+         * @return the command, null if wait directive
+         */
+        public String getCommand() {
+            return command;
+        }
+
+        /**
+         * Gets the command bytes sent to the shell. The array is shared and
+         * must not be modified.
+         *
+         * @return the command bytes, end line included
+         */
+        byte[] getCommandBytes() {
+            return commandBytes;
+        }
+
+        /**
+         * Gets the command bytes followed by the step marker command, sent to
+         * a non interactive shell. The array is shared and must not be
+         * modified.
+         *
+         * @return the marked command bytes, end line included
+         */
+        byte[] getMarkedCommandBytes() {
+            return markedCommandBytes;
+        }
+
+        /**
+         * Gets the wait time (in ms.) of a wait directive.
+         *
+         * @return the wait time
+         */
+        public long getWaitTime() {
+            return waitTime;
+        }
+    }
+}
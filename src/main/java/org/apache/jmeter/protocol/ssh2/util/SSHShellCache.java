@@ -0,0 +1,277 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.protocol.ssh2.util;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.jmeter.protocol.ssh2.util.SSHTransportConnection.ConnectionListener;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * The Class SSHShellCache keeps one logged-in interactive shell per JMeter
+ * thread and per shell key (connection and initialization script), so that
+ * script samples of the thread are sent to the same shell instead of paying
+ * connection, session, PTY and shell startup every time. A cached shell owns
+ * its connection.
+ */
+public final class SSHShellCache {
+
+    /** The Constant logger. */
+    private static final Logger logger = LoggingManager.getLoggerForClass();
+
+    /** The shells owned by the current thread, by shell key. */
+    private static final ThreadLocal<Map<String, Shell>> THREAD_SHELLS =
+            new ThreadLocal<Map<String, Shell>>() {
+
+                @Override
+                protected Map<String, Shell> initialValue() {
+                    return new HashMap<String, Shell>();
+                }
+            };
+
+    /** All cached shells of all threads, used to close them on test end. */
+    private static final Set<Shell> OPEN_SHELLS = new HashSet<Shell>();
+
+    /**
+     * Instantiates a new SSH shell cache.
+     */
+    private SSHShellCache() {
+    }
+
+    /**
+     * Gets the cached shell of the current thread for given key. A shell
+     * which died since it was cached (connection lost or shell exited) is
+     * closed and discarded.
+     *
+     * @param key
+     *            the shell key
+     * @return the cached shell or null if none (or if it died).
+     */
+    static Shell get(String key) {
+        Map<String, Shell> shells = THREAD_SHELLS.get();
+        Shell shell = shells.get(key);
+        if (shell == null) {
+            return null;
+        }
+        if (!shell.isAlive()) {
+            logger.info("Cached SSH shell died, restarting it: " + shell.getCause());
+            shells.remove(key);
+            close(shell);
+            return null;
+        }
+        return shell;
+    }
+
+    /**
+     * Caches the shell for the current thread.
+     *
+     * @param key
+     *            the shell key
+     * @param shell
+     *            the started shell
+     */
+    static void put(String key,
+                    Shell shell)
+    {
+        Shell previous = THREAD_SHELLS.get().put(key, shell);
+        synchronized (OPEN_SHELLS) {
+            OPEN_SHELLS.add(shell);
+        }
+        if (previous != null) {
+            close(previous);
+        }
+    }
+
+    /**
+     * Removes and closes the current thread's shell for given key, e.g. when
+     * it hung.
+     *
+     * @param key
+     *            the shell key
+     */
+    static void invalidate(String key) {
+        Shell shell = THREAD_SHELLS.get().remove(key);
+        if (shell != null) {
+            close(shell);
+        }
+    }
+
+    /**
+     * Closes all shells cached by the current thread.
+     */
+    public static void closeThreadShells() {
+        Map<String, Shell> shells = THREAD_SHELLS.get();
+        for (Shell shell : shells.values()) {
+            close(shell);
+        }
+        shells.clear();
+    }
+
+    /**
+     * Closes all shells cached by any thread.
+     */
+    public static void closeAll() {
+        List<Shell> shells;
+        synchronized (OPEN_SHELLS) {
+            shells = new ArrayList<Shell>(OPEN_SHELLS);
+            OPEN_SHELLS.clear();
+        }
+        if (!shells.isEmpty()) {
+            logger.info("Closing " + shells.size() + " cached SSH shell(s)");
+        }
+        for (Shell shell : shells) {
+            shell.close();
+        }
+    }
+
+    /**
+     * Close the cached shell and forget it.
+     *
+     * @param shell
+     *            the cached shell
+     */
+    private static void close(Shell shell) {
+        synchronized (OPEN_SHELLS) {
+            OPEN_SHELLS.remove(shell);
+        }
+        shell.close();
+    }
+
+    /**
+     * The Class Shell is a started interactive shell, with its connection,
+     * session and console reader, which tracks whether its connection has
+     * been lost.
+     */
+    static class Shell implements ConnectionListener {
+
+        /** The connection, owned by the shell. */
+        private final SSHTransportConnection connection;
+
+        /** The session of the shell. */
+        private final SSHTransportSession    session;
+
+        /** The console reader of the session. */
+        private final ShellConsoleReader     consoleReader;
+
+        /** The cause of connection loss, null while connection is alive. */
+        private volatile Throwable           cause;
+
+        /** Whether connection has been lost. */
+        private volatile boolean             lost;
+
+        /**
+         * Instantiates a new shell.
+         *
+         * @param connection
+         *            the connection
+         * @param session
+         *            the session of the started shell
+         * @param consoleReader
+         *            the console reader of the session
+         */
+        Shell(SSHTransportConnection connection,
+              SSHTransportSession session,
+              ShellConsoleReader consoleReader)
+        {
+            this.connection = connection;
+            this.session = session;
+            this.consoleReader = consoleReader;
+            connection.addConnectionListener(this);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportConnection.ConnectionListener#connectionLost(java.lang.Throwable)
+         */
+        public void connectionLost(Throwable reason) {
+            this.cause = reason;
+            this.lost = true;
+        }
+
+        /**
+         * Checks if the shell is alive: its connection is not lost and it has
+         * not exited, e.g. on idle timeout. Output received since last use is
+         * read and discarded.
+         *
+         * @return true, if alive
+         */
+        boolean isAlive() {
+            if (lost) {
+                return false;
+            }
+            try {
+                return consoleReader.read(0);
+            } catch (Exception e) {
+                cause = e;
+                return false;
+            }
+        }
+
+        /**
+         * Gets the session.
+         *
+         * @return the session
+         */
+        SSHTransportSession getSession() {
+            return session;
+        }
+
+        /**
+         * Gets the standard input of the shell.
+         *
+         * @return the standard input
+         */
+        OutputStream getStdin() {
+            return session.getStdin();
+        }
+
+        /**
+         * Gets the console reader.
+         *
+         * @return the console reader
+         */
+        ShellConsoleReader getConsoleReader() {
+            return consoleReader;
+        }
+
+        /**
+         * Gets the cause of shell death.
+         *
+         * @return the cause, null if unknown
+         */
+        Throwable getCause() {
+            return cause;
+        }
+
+        /**
+         * Closes the shell and its connection.
+         */
+        void close() {
+            SSHClient.closeSSHResource(session, connection);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.protocol.ssh2.util;
+
+import java.io.IOException;
+
+/**
+ * The Interface SSHTransport is the SSH library used by {@link SSHClient} to
+ * connect to servers. Implementations must be thread safe and have a public
+ * no-argument constructor; one instance per implementation class is shared by
+ * all samplers (see {@link SSHTransportFactory}).
+ *
+ * @see GanymedSSHTransport
+ * @see MinaSSHTransport
+ */
+public interface SSHTransport {
+
+    /**
+     * Opens a connection (TCP connect and key exchange) to the server of given
+     * configuration, within its connection and key exchange timeouts. The
+     * connection is not authenticated yet.
+     *
+     * @param config
+     *            the SSH client config
+     * @return the connection
+     * @throws IOException
+     *             if the connection failed. A timeout is signaled by a
+     *             {@link java.net.SocketTimeoutException} (possibly as cause).
+     * @throws SSHException
+     *             if the configuration is invalid for this transport.
+     */
+    SSHTransportConnection connect(SSHClientConfig config) throws IOException, SSHException;
+
+    /**
+     * Decodes a private key into the form this transport authenticates with
+     * (see {@link SSHTransportConnection#authenticateWithPublicKey(String, Object)}).
+     * The decoded key is cached by {@link SSHKeyCache} and shared by all
+     * connections of this transport.
+     *
+     * @param pem
+     *            the PEM private key, as read from the key file
+     * @param passphrase
+     *            the passphrase, if the key is encrypted
+     * @return the decoded key
+     * @throws IOException
+     *             if the key cannot be decoded (e.g. wrong passphrase).
+     */
+    Object decodePrivateKey(char[] pem,
+                            String passphrase) throws IOException;
+
+    /**
+     * Releases the resources (e.g. I/O threads) held by this transport.
+     * Connections still open are closed. The transport may be used again
+     * afterwards.
+     */
+    void shutdown();
+}
@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.protocol.ssh2.util;
+
+import java.io.IOException;
+
+/**
+ * The Interface SSHTransportConnection is a connection opened by an
+ * {@link SSHTransport}: it is authenticated, then carries sessions.
+ */
+public interface SSHTransportConnection {
+
+    /**
+     * Gets the authentication methods which may be used to authenticate given
+     * user.
+     *
+     * @param user
+     *            the user name
+     * @return the authentication methods (see {@link SSHAuthMethodCache})
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    String[] getRemainingAuthMethods(String user) throws IOException;
+
+    /**
+     * Checks if authentication is complete, e.g. if the server accepted the
+     * user while the remaining methods were asked.
+     *
+     * @return true, if authentication is complete
+     */
+    boolean isAuthenticationComplete();
+
+    /**
+     * Authenticates with a password.
+     *
+     * @param user
+     *            the user name
+     * @param password
+     *            the password
+     * @return true, if authenticated
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    boolean authenticateWithPassword(String user,
+                                     String password) throws IOException;
+
+    /**
+     * Authenticates with keyboard-interactive, every prompt being answered
+     * with the password.
+     *
+     * @param user
+     *            the user name
+     * @param password
+     *            the password
+     * @return true, if authenticated
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    boolean authenticateWithKeyboardInteractive(String user,
+                                                String password) throws IOException;
+
+    /**
+     * Authenticates with a public key.
+     *
+     * @param user
+     *            the user name
+     * @param privateKey
+     *            the private key decoded by the transport of this connection
+     *            (see {@link SSHTransport#decodePrivateKey(char[], String)})
+     * @return true, if authenticated
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    boolean authenticateWithPublicKey(String user,
+                                      Object privateKey) throws IOException;
+
+    /**
+     * Authenticates with the none method.
+     *
+     * @param user
+     *            the user name
+     * @return true, if authenticated
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    boolean authenticateWithNone(String user) throws IOException;
+
+    /**
+     * Opens a new session.
+     *
+     * @return the session
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    SSHTransportSession openSession() throws IOException;
+
+    /**
+     * Sends a packet which the server ignores, to check that the connection
+     * is still alive.
+     *
+     * @throws IOException
+     *             if the connection is lost.
+     */
+    void sendIgnorePacket() throws IOException;
+
+    /**
+     * Adds a listener notified when the connection is lost.
+     *
+     * @param listener
+     *            the listener
+     */
+    void addConnectionListener(ConnectionListener listener);
+
+    /**
+     * Closes the connection and its sessions.
+     */
+    void close();
+
+    /**
+     * The listener interface for receiving connection loss events.
+     */
+    interface ConnectionListener {
+
+        /**
+         * Called when the connection is lost, i.e. closed without
+         * {@link SSHTransportConnection#close()}.
+         *
+         * @param reason
+         *            the reason, may be null
+         */
+        void connectionLost(Throwable reason);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.protocol.ssh2.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * The Class SSHTransportFactory gives the {@link SSHTransport} of a
+ * configuration (see {@link SSHClientConfig#getTransport()}): the name of a
+ * built-in transport, {@link #GANYMED} (the default) or {@link #MINA}, or the
+ * class name of an {@link SSHTransport} implementation. One instance per
+ * transport is created and shared.
+ */
+public final class SSHTransportFactory {
+
+    /** The name of the ganymed-ssh2 transport, the default. */
+    public static final String                     GANYMED         = "ganymed";
+
+    /** The name of the Apache MINA SSHD (NIO2) transport. */
+    public static final String                     MINA            = "mina";
+
+    /** The class of the MINA transport, loaded only if used. */
+    private static final String                    MINA_CLASS_NAME = "org.apache.jmeter.protocol.ssh2.util.MinaSSHTransport";
+
+    /** The Constant logger. */
+    private static final Logger                    logger          = LoggingManager.getLoggerForClass();
+
+    /** The transports created, by name. */
+    private static final Map<String, SSHTransport> TRANSPORTS      = new ConcurrentHashMap<String, SSHTransport>();
+
+    /**
+     * Instantiates a new SSH transport factory.
+     */
+    private SSHTransportFactory() {
+    }
+
+    /**
+     * Gets the transport of given name, creating it on first use.
+     *
+     * @param name
+     *            the transport name or class name, blank for the default
+     * @return the transport
+     * @throws SSHException
+     *             if the transport cannot be created (e.g. its library is
+     *             missing).
+     */
+    public static SSHTransport getTransport(String name) throws SSHException {
+        String key = StringUtils.isBlank(name) ? GANYMED : name.trim();
+        SSHTransport transport = TRANSPORTS.get(key);
+        if (transport != null) {
+            return transport;
+        }
+        synchronized (TRANSPORTS) {
+            transport = TRANSPORTS.get(key);
+            if (transport == null) {
+                transport = createTransport(key);
+                TRANSPORTS.put(key, transport);
+                logger.info("Created SSH transport " + key + ": " + transport.getClass().getName());
+            }
+            return transport;
+        }
+    }
+
+    /**
+     * Shuts down all transports created, e.g. on test end.
+     */
+    public static void shutdownAll() {
+        List<SSHTransport> transports;
+        synchronized (TRANSPORTS) {
+            transports = new ArrayList<SSHTransport>(TRANSPORTS.values());
+        }
+        for (SSHTransport transport : transports) {
+            transport.shutdown();
+        }
+    }
+
+    /**
+     * Creates the transport of given name.
+     *
+     * @param name
+     *            the transport name or class name
+     * @return the transport
+     * @throws SSHException
+     *             if the transport cannot be created.
+     */
+    private static SSHTransport createTransport(String name) throws SSHException {
+        if (GANYMED.equalsIgnoreCase(name)) {
+            return new GanymedSSHTransport();
+        }
+        String className = MINA.equalsIgnoreCase(name) ? MINA_CLASS_NAME : name;
+        try {
+            return Class.forName(className).asSubclass(SSHTransport.class).getDeclaredConstructor().newInstance();
+        } catch (Exception e) {
+            throw new SSHException("Failed to create SSH transport " + name, e);
+        } catch (LinkageError e) {
+            throw new SSHException("Failed to create SSH transport " + name
+                    + ", is its library in JMeter's lib directory?", e);
+        }
+    }
+}
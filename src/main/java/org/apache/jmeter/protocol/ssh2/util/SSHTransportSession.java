@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.protocol.ssh2.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The Interface SSHTransportSession is a session opened on an
+ * {@link SSHTransportConnection}, which executes one command or one shell.
+ * <p>
+ * The output streams must support non-blocking reads through
+ * {@link InputStream#available()}, and the session must signal data arrival
+ * through {@link #waitForCondition(int, long)}, so that output is read by the
+ * caller's thread without any thread per session.
+ */
+public interface SSHTransportSession {
+
+    /** The condition returned when the wait timed out. */
+    int TIMEOUT     = 1;
+
+    /** The condition of a closed session. */
+    int CLOSED      = 2;
+
+    /** The condition of data available on standard output. */
+    int STDOUT_DATA = 4;
+
+    /** The condition of data available on standard error. */
+    int STDERR_DATA = 8;
+
+    /** The condition of a session which receives no more data. */
+    int EOF         = 16;
+
+    /** The condition of an exit status received. */
+    int EXIT_STATUS = 32;
+
+    /** The condition of an exit signal received. */
+    int EXIT_SIGNAL = 64;
+
+    /**
+     * Requests a PTY. Must be called before {@link #startShell()} or
+     * {@link #execCommand(String)}.
+     *
+     * @param term
+     *            the terminal type
+     * @param columns
+     *            the terminal width (in characters)
+     * @param rows
+     *            the terminal height (in rows)
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    void requestPTY(String term,
+                    int columns,
+                    int rows) throws IOException;
+
+    /**
+     * Executes a command.
+     *
+     * @param cmd
+     *            the command
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    void execCommand(String cmd) throws IOException;
+
+    /**
+     * Starts a login shell.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    void startShell() throws IOException;
+
+    /**
+     * Gets the standard input of the command or shell.
+     *
+     * @return the standard input
+     */
+    OutputStream getStdin();
+
+    /**
+     * Gets the standard output of the command or shell.
+     *
+     * @return the standard output
+     */
+    InputStream getStdout();
+
+    /**
+     * Gets the standard error of the command or shell.
+     *
+     * @return the standard error
+     */
+    InputStream getStderr();
+
+    /**
+     * Waits until one of given conditions is met.
+     *
+     * @param conditions
+     *            the awaited conditions, a combination of the condition
+     *            constants
+     * @param timeout
+     *            the max time to wait (in ms.), 0 to wait forever
+     * @return the conditions met, {@link #TIMEOUT} being set if the wait
+     *         timed out
+     */
+    int waitForCondition(int conditions,
+                         long timeout);
+
+    /**
+     * Gets the exit status.
+     *
+     * @return the exit status or null if not received
+     */
+    Integer getExitStatus();
+
+    /**
+     * Gets the exit signal.
+     *
+     * @return the exit signal or null if not received
+     */
+    String getExitSignal();
+
+    /**
+     * Closes the session.
+     */
+    void close();
+}
@@ -0,0 +1,715 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.protocol.ssh2.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * The Class ShellConsoleReader reads the standard out and standard error of
+ * an SSH session. It does not own a thread: reading is driven by the caller
+ * (usually the sampler thread), which waits on the session's channel
+ * conditions and drains whatever output has arrived. Thus the number of
+ * threads does not depend on the number of sessions being read.<br/>
+ * Both streams are drained as data arrives, chunk by chunk in turn, so that a
+ * command writing a lot to one stream never fills the channel window while
+ * the other stream is being read.<br/>
+ * The output held in memory is charged to the JVM-wide
+ * {@link SSHOutputBudget} if any, until {@link #release()} or {@link #reset()}.
+ */
+class ShellConsoleReader {
+
+    /**
+     * The max time (in ms.) of one wait on the channel or budget. Longer waits
+     * are made of several ones, so that a far deadline (e.g. none, given as
+     * {@link Long#MAX_VALUE}) cannot overflow the deadlines computed by the
+     * transports.
+     */
+    static final long                   MAX_WAIT    = 60000;
+
+    /** The Constant logger. */
+    private static final Logger         logger      = LoggingManager.getLoggerForClass();
+
+    /** The size of the read buffer and of the initial output buffers. */
+    private static final int            BUFFER_SIZE = 10240;
+
+    /** The charset mapping each output byte to one char, used for matching. */
+    private static final Charset        LATIN_1     = Charset.forName("ISO-8859-1");
+
+    /** The read buffer. */
+    private final byte[]                buffer      = new byte[BUFFER_SIZE];
+
+    /** The output stream buffer. */
+    private final OutputBuffer          stdOut      = new OutputBuffer(BUFFER_SIZE);
+
+    /** The error stream buffer. */
+    private final ByteArrayOutputStream stdErr      = new ByteArrayOutputStream(BUFFER_SIZE);
+
+    /** The session. */
+    private final SSHTransportSession   session;
+
+    /** The standard output of the session. */
+    private final InputStream           shellInputStream;
+
+    /** The standard error of the session. */
+    private final InputStream           cmdErrStream;
+
+    /** Whether EOF has been reached (remote side sends no more data). */
+    private boolean                     eof;
+
+    /** The time (in ms.) first byte was received, 0 if nothing received. */
+    private long                        firstByteTime;
+
+    /** The number of bytes received, before filtering. */
+    private long                        bytesReceived;
+
+    /** The filter of standard output, null if not filtered. */
+    private final TerminalOutputFilter  stdOutFilter;
+
+    /** The filtered bytes, null if not filtered. */
+    private final byte[]                filtered;
+
+    /** The sink receiving standard output instead of memory, null if none. */
+    private final SSHOutputSink         stdOutSink;
+
+    /** The budget output held in memory is charged to, null if unlimited. */
+    private final SSHOutputBudget       budget;
+
+    /** The bytes charged to the budget. */
+    private long                        held;
+
+    /** Whether reading stopped because the budget is exhausted. */
+    private boolean                     blocked;
+
+    /** Whether output is discarded because the budget was exhausted. */
+    private boolean                     truncated;
+
+    /**
+     * Instantiates a new shell console reader.
+     *
+     * @param sess
+     *            the SSH session to be read.
+     */
+    public ShellConsoleReader(SSHTransportSession sess) {
+        this(sess, false, null);
+    }
+
+    /**
+     * Instantiates a new shell console reader.
+     *
+     * @param sess
+     *            the SSH session to be read.
+     * @param filterTerminalOutput
+     *            whether escape sequences and CR of line ends are removed
+     *            from standard output as it is received (see
+     *            {@link TerminalOutputFilter})
+     */
+    public ShellConsoleReader(SSHTransportSession sess,
+                              boolean filterTerminalOutput)
+    {
+        this(sess, filterTerminalOutput, null);
+    }
+
+    /**
+     * Instantiates a new shell console reader writing standard output to a
+     * sink. Standard output cannot be matched then, and is only available as
+     * the sink's preview.
+     *
+     * @param sess
+     *            the SSH session to be read.
+     * @param filterTerminalOutput
+     *            whether escape sequences and CR of line ends are removed
+     *            from standard output as it is received
+     * @param stdOutSink
+     *            the sink receiving standard output, null to keep it in
+     *            memory
+     */
+    public ShellConsoleReader(SSHTransportSession sess,
+                              boolean filterTerminalOutput,
+                              SSHOutputSink stdOutSink)
+    {
+        this.stdOutSink = stdOutSink;
+        this.session = sess;
+        this.shellInputStream = sess.getStdout();
+        this.cmdErrStream = sess.getStderr();
+        this.stdOutFilter = filterTerminalOutput ? new TerminalOutputFilter() : null;
+        this.filtered = filterTerminalOutput ? new byte[BUFFER_SIZE + 1] : null;
+        SSHOutputBudget outputBudget = SSHOutputBudget.getInstance();
+        this.budget = outputBudget.isUnlimited() ? null : outputBudget;
+    }
+
+    /**
+     * Waits at most timeout (and at most {@link #MAX_WAIT}) for output and reads
+     * all output available.
+     *
+     * @param timeout
+     *            the max time to wait for output (in ms.)
+     * @return false if EOF has been reached, true otherwise
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    public boolean read(long timeout) throws IOException {
+        if (eof) {
+            return false;
+        }
+        // a timeout of 0 would wait forever
+        timeout = Math.max(1, Math.min(timeout, MAX_WAIT));
+        if (blocked) {
+            // output is left in the channel meanwhile, the window stops the remote side
+            if (!budget.awaitAvailable(this, held > 0, timeout)) {
+                return true;
+            }
+            blocked = false;
+        }
+        int conditions = session.waitForCondition(SSHTransportSession.STDOUT_DATA
+                                                  | SSHTransportSession.STDERR_DATA
+                                                  | SSHTransportSession.EOF,
+                                                  timeout);
+
+        drainAvailable((conditions & SSHTransportSession.STDOUT_DATA) != 0,
+                       (conditions & SSHTransportSession.STDERR_DATA) != 0);
+
+        /*
+         * Here we are not checking separately for CLOSED, since CLOSED implies
+         * EOF
+         */
+        if ((conditions & SSHTransportSession.EOF) != 0 && !blocked) {
+            // The remote side will not send us further data, read the rest
+            boolean drained = drainToEof(shellInputStream, stdOut);
+            drained = drainToEof(cmdErrStream, stdErr) && drained;
+            if (!drained) {
+                return true;
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("WaitForCondition: EOF reached");
+            }
+            eof = true;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads output during given duration, or until EOF.
+     *
+     * @param duration
+     *            the duration (in ms.)
+     * @return false if EOF has been reached, true otherwise
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    public boolean readFor(long duration) throws IOException {
+        return readUntil(System.currentTimeMillis() + duration);
+    }
+
+    /**
+     * Reads output until EOF or deadline.
+     *
+     * @param deadline
+     *            the time (in ms.) after which not to wait any more
+     * @return false if EOF has been reached, true if deadline reached first
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    public boolean readUntil(long deadline) throws IOException {
+        long remaining = deadline - System.currentTimeMillis();
+        while (remaining > 0) {
+            if (!read(remaining)) {
+                return false;
+            }
+            remaining = deadline - System.currentTimeMillis();
+        }
+        if (logger.isDebugEnabled() && !eof) {
+            logger.debug("WaitForCondition: waiting timeout");
+        }
+        return !eof;
+    }
+
+    /**
+     * Reads output until the standard output received from given offset on
+     * matches the pattern, or until EOF or deadline. The output is matched
+     * byte per byte (as ISO-8859-1), hence the pattern should only match
+     * ASCII characters.
+     * <p>
+     * As output arrives only the new output is scanned, along with the last
+     * maxLength bytes already scanned in case a match spans both: a match
+     * longer than maxLength may be missed. The byte before the scanned output
+     * is visible to anchors and look-behinds.
+     *
+     * @param pattern
+     *            the pattern to find
+     * @param from
+     *            the offset (in bytes) in standard output to search from
+     * @param maxLength
+     *            the max length (in bytes) of a match
+     * @param deadline
+     *            the time (in ms.) after which not to wait any more
+     * @return the match, whose offsets are relative to from, or null if EOF
+     *         or deadline has been reached without match
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    public MatchResult readUntilMatch(Pattern pattern,
+                                      int from,
+                                      int maxLength,
+                                      long deadline) throws IOException
+    {
+        int searched = -1;
+        boolean more = true;
+        while (true) {
+            int size = stdOut.size();
+            if (size > searched) {
+                int start = searched < 0 ? from : Math.max(from, searched - maxLength);
+                int context = start > from ? 1 : 0;
+                String output = stdOut.toString(start - context, size, LATIN_1);
+                Matcher matcher = pattern.matcher(output);
+                matcher.useTransparentBounds(true).useAnchoringBounds(false).region(context, output.length());
+                if (matcher.find()) {
+                    return new ShiftedMatchResult(matcher.toMatchResult(), start - context - from);
+                }
+                searched = size;
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (!more || remaining <= 0) {
+                return null;
+            }
+            more = read(remaining);
+        }
+    }
+
+    /**
+     * Reads the data available on the streams signaled by the channel
+     * conditions, without blocking. The streams are read in turn one chunk at
+     * a time while data is available on either of them.
+     *
+     * @param stdOutData
+     *            whether data is available on standard output
+     * @param stdErrData
+     *            whether data is available on standard error
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private void drainAvailable(boolean stdOutData,
+                                boolean stdErrData) throws IOException
+    {
+        while (stdOutData || stdErrData) {
+            if (stdOutData) {
+                stdOutData = readChunk(shellInputStream, stdOut);
+            }
+            if (stdErrData) {
+                stdErrData = readChunk(cmdErrStream, stdErr);
+            }
+        }
+    }
+
+    /**
+     * Reads at most one buffer of the data available on given stream, without
+     * blocking.
+     *
+     * @param in
+     *            the stream
+     * @param out
+     *            the buffer to write data to
+     * @return true, if more data is available on the stream
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private boolean readChunk(InputStream in,
+                              ByteArrayOutputStream out) throws IOException
+    {
+        int available = in.available();
+        if (available <= 0) {
+            return false;
+        }
+        int reserved = reserve(out, Math.min(available, buffer.length));
+        if (reserved == 0) {
+            blocked = true;
+            return false;
+        }
+        int len = in.read(buffer, 0, reserved);
+        if (len < 0) {
+            unreserve(out, reserved);
+            return false;
+        }
+        write(out, len, reserved);
+        return in.available() > 0;
+    }
+
+    /**
+     * Reads given stream until EOF. Must only be called once EOF has been
+     * received, so that read does not block.
+     *
+     * @param in
+     *            the stream
+     * @param out
+     *            the buffer to write data to
+     * @return true, if EOF has been read, false if the budget is exhausted
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private boolean drainToEof(InputStream in,
+                               ByteArrayOutputStream out) throws IOException
+    {
+        while (true) {
+            int reserved = reserve(out, buffer.length);
+            if (reserved == 0) {
+                blocked = true;
+                return false;
+            }
+            int len = in.read(buffer, 0, reserved);
+            if (len == -1) {
+                unreserve(out, reserved);
+                return true;
+            }
+            write(out, len, reserved);
+        }
+    }
+
+    /**
+     * Reserves budget for reading into given buffer. Output written to the
+     * sink and output discarded by the truncate policy take no budget: the
+     * bytes read are not limited then, and are charged when written.
+     *
+     * @param out
+     *            the buffer to write data to
+     * @param wanted
+     *            the bytes to read
+     * @return the bytes which may be read, 0 if the budget is exhausted
+     */
+    private int reserve(ByteArrayOutputStream out,
+                        int wanted)
+    {
+        if (budget == null || budget.isTruncating() || (stdOutSink != null && out == stdOut)) {
+            return wanted;
+        }
+        int reserved = budget.acquire(this, wanted, held > 0);
+        held += reserved;
+        return reserved;
+    }
+
+    /**
+     * Releases budget reserved but not used.
+     *
+     * @param out
+     *            the buffer data was to be written to
+     * @param reserved
+     *            the bytes reserved
+     */
+    private void unreserve(ByteArrayOutputStream out,
+                           int reserved)
+    {
+        if (budget != null && !budget.isTruncating() && (stdOutSink == null || out != stdOut)) {
+            held -= reserved;
+            budget.release(this, reserved, held == 0);
+        }
+    }
+
+    /**
+     * Writes the read buffer's content to given output buffer, or to the
+     * sink for standard output if any. With the truncate policy, output
+     * beyond the budget is discarded from then on.
+     *
+     * @param out
+     *            the output buffer
+     * @param len
+     *            the number of bytes read
+     * @param reserved
+     *            the bytes reserved for reading
+     * @throws IOException
+     *             if the sink failed to write.
+     */
+    private void write(ByteArrayOutputStream out,
+                       int len,
+                       int reserved) throws IOException
+    {
+        if (len > 0 && firstByteTime == 0) {
+            firstByteTime = System.currentTimeMillis();
+        }
+        bytesReceived += len;
+        byte[] bytes = buffer;
+        if (stdOutFilter != null && out == stdOut) {
+            bytes = filtered;
+            len = stdOutFilter.filter(buffer, 0, len, filtered);
+        }
+        if (stdOutSink != null && out == stdOut) {
+            stdOutSink.write(bytes, 0, len);
+        } else if (budget != null && budget.isTruncating()) {
+            int kept = truncated ? 0 : budget.acquire(this, len, held > 0);
+            held += kept;
+            out.write(bytes, 0, kept);
+            if (kept < len) {
+                if (!truncated) {
+                    logger.warn("SSH output budget exhausted, discarding output after " + held + " bytes");
+                    truncated = true;
+                }
+                budget.truncated(len - kept);
+            }
+        } else {
+            if (reserved > len) {
+                // fewer bytes read than reserved, or removed by filtering
+                unreserve(out, reserved - len);
+            }
+            out.write(bytes, 0, len);
+        }
+    }
+
+    /**
+     * Checks if EOF has been reached.
+     *
+     * @return true, if EOF has been reached
+     */
+    public boolean isEof() {
+        return eof;
+    }
+
+    /**
+     * Gets the time (in ms.) first byte was received on standard output or
+     * error.
+     *
+     * @return the first byte time, 0 if nothing received
+     */
+    public long getFirstByteTime() {
+        return firstByteTime;
+    }
+
+    /**
+     * Gets the number of bytes of standard output, after filtering.
+     *
+     * @return the standard output size
+     */
+    public int getStdOutSize() {
+        return stdOut.size();
+    }
+
+    /**
+     * Gets the number of bytes received on standard output and error, before
+     * filtering.
+     *
+     * @return the bytes received
+     */
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * Gets the standard output of SSH session.
+     *
+     * @return the standard output of SSH session or blank string if nothing
+     *         read.
+     */
+    public String getStdOut() {
+        return stdOutSink != null ? stdOutSink.getPreview() : stdOut.toString();
+    }
+
+    /**
+     * Gets part of the standard output of SSH session.
+     *
+     * @param from
+     *            the start offset (in bytes)
+     * @param to
+     *            the end offset (in bytes, exclusive)
+     * @return the part of standard output
+     */
+    public String getStdOut(int from,
+                            int to)
+    {
+        return stdOut.toString(from, to, Charset.defaultCharset());
+    }
+
+    /**
+     * Checks if output has been discarded because the budget was exhausted.
+     *
+     * @return true, if truncated
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Gets the standard error of SSH session.
+     *
+     * @return the standard error of SSH session or blank string if nothing
+     *         read.
+     */
+    public String getStdErr() {
+        return stdErr.toString();
+    }
+
+    /**
+     * Discards the output read so far, e.g. before reusing a shell for a new
+     * execution. Offsets in standard output then start again from 0.
+     */
+    public void reset() {
+        stdOut.reset();
+        stdErr.reset();
+        firstByteTime = 0;
+        bytesReceived = 0;
+        truncated = false;
+        release();
+    }
+
+    /**
+     * Releases the budget charged for the output held, once it has been
+     * collected: the reader must not be read any more, but after
+     * {@link #reset()}.
+     */
+    public void release() {
+        if (held > 0) {
+            budget.release(this, held, true);
+            held = 0;
+        }
+    }
+
+    /**
+     * The Class OutputBuffer is a byte array output stream which decodes
+     * part of its content without copying the whole of it.
+     */
+    private static class OutputBuffer extends ByteArrayOutputStream {
+
+        /**
+         * Instantiates a new output buffer.
+         *
+         * @param size
+         *            the initial size
+         */
+        OutputBuffer(int size) {
+            super(size);
+        }
+
+        /**
+         * Decodes the content between given offsets.
+         *
+         * @param from
+         *            the start offset (in bytes)
+         * @param to
+         *            the end offset (in bytes, exclusive)
+         * @param charset
+         *            the charset
+         * @return the decoded content
+         */
+        synchronized String toString(int from,
+                                     int to,
+                                     Charset charset)
+        {
+            int end = Math.min(to, count);
+            return new String(buf, from, Math.max(0, end - from), charset);
+        }
+    }
+
+    /**
+     * The Class ShiftedMatchResult is a match found in part of the output,
+     * with offsets made relative to another offset of the output.
+     */
+    private static class ShiftedMatchResult implements MatchResult {
+
+        /** The match. */
+        private final MatchResult match;
+
+        /** The shift to add to the match offsets. */
+        private final int         shift;
+
+        /**
+         * Instantiates a new shifted match result.
+         *
+         * @param match
+         *            the match
+         * @param shift
+         *            the shift to add to the match offsets
+         */
+        ShiftedMatchResult(MatchResult match,
+                           int shift)
+        {
+            this.match = match;
+            this.shift = shift;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.util.regex.MatchResult#start()
+         */
+        public int start() {
+            return match.start() + shift;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.util.regex.MatchResult#start(int)
+         */
+        public int start(int group) {
+            int start = match.start(group);
+            return start < 0 ? start : start + shift;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.util.regex.MatchResult#end()
+         */
+        public int end() {
+            return match.end() + shift;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.util.regex.MatchResult#end(int)
+         */
+        public int end(int group) {
+            int end = match.end(group);
+            return end < 0 ? end : end + shift;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.util.regex.MatchResult#group()
+         */
+        public String group() {
+            return match.group();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.util.regex.MatchResult#group(int)
+         */
+        public String group(int group) {
+            return match.group(group);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.util.regex.MatchResult#groupCount()
+         */
+        public int groupCount() {
+            return match.groupCount();
+        }
+    }
+}
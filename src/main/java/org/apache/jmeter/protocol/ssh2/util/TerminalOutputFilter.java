@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.protocol.ssh2.util;
+
+/**
+ * The Class TerminalOutputFilter removes terminal processing from the output
+ * of a shell run with a PTY, as it is received: ANSI escape sequences (colors,
+ * cursor moves, bracketed paste mode, window titles...) are dropped, CRLF
+ * line ends translated to LF and CR at line start (which the terminal emits
+ * e.g. after the echo of a command) dropped. Sequences split across reads are handled, the
+ * filter keeping its state from one chunk to the next.
+ */
+class TerminalOutputFilter {
+
+    /** The escape character. */
+    private static final byte ESC           = 0x1b;
+
+    /** The bell character, which ends an OSC sequence. */
+    private static final byte BEL           = 0x07;
+
+    /** The state out of any sequence. */
+    private static final int  TEXT          = 0;
+
+    /** The state after ESC. */
+    private static final int  ESCAPE        = 1;
+
+    /** The state within a CSI sequence (ESC [ ...). */
+    private static final int  CSI           = 2;
+
+    /** The state within an OSC sequence (ESC ] ...). */
+    private static final int  OSC           = 3;
+
+    /** The state after ESC within an OSC sequence. */
+    private static final int  OSC_ESCAPE    = 4;
+
+    /** The state after the intermediate bytes of an escape sequence. */
+    private static final int  INTERMEDIATE  = 5;
+
+    /** The current state. */
+    private int               state         = TEXT;
+
+    /** Whether a CR has been received and not written yet. */
+    private boolean           pendingCr;
+
+    /** Whether the last byte written ended a line. */
+    private boolean           lineStart     = true;
+
+    /**
+     * Filters given bytes.
+     *
+     * @param in
+     *            the bytes received
+     * @param off
+     *            the offset of the bytes to filter
+     * @param len
+     *            the number of bytes to filter
+     * @param out
+     *            the buffer to write the bytes kept to, from offset 0, at
+     *            least len + 1 long (for a CR kept from previous bytes)
+     * @return the number of bytes kept
+     */
+    int filter(byte[] in,
+               int off,
+               int len,
+               byte[] out)
+    {
+        int kept = 0;
+        for (int i = off; i < off + len; i++) {
+            byte b = in[i];
+            switch (state) {
+            case ESCAPE:
+                if (b == '[') {
+                    state = CSI;
+                } else if (b == ']') {
+                    state = OSC;
+                } else if (b >= 0x20 && b <= 0x2f) {
+                    // e.g. ESC ( B character set selection
+                    state = INTERMEDIATE;
+                } else {
+                    state = TEXT;
+                }
+                break;
+            case CSI:
+                // parameter and intermediate bytes until the final byte
+                if (b >= 0x40 && b <= 0x7e) {
+                    state = TEXT;
+                }
+                break;
+            case OSC:
+                if (b == BEL) {
+                    state = TEXT;
+                } else if (b == ESC) {
+                    state = OSC_ESCAPE;
+                }
+                break;
+            case OSC_ESCAPE:
+                // ESC \ string terminator
+                state = b == ESC ? OSC_ESCAPE : OSC;
+                if (b == '\\') {
+                    state = TEXT;
+                }
+                break;
+            case INTERMEDIATE:
+                if (b < 0x20 || b > 0x2f) {
+                    state = TEXT;
+                }
+                break;
+            default:
+                if (b == ESC) {
+                    state = ESCAPE;
+                    continue;
+                }
+                if (pendingCr) {
+                    pendingCr = false;
+                    if (b != '\n' && !lineStart) {
+                        out[kept++] = '\r';
+                    }
+                }
+                if (b == '\r') {
+                    pendingCr = true;
+                } else {
+                    out[kept++] = b;
+                    lineStart = b == '\n';
+                }
+            }
+        }
+        return kept;
+    }
+}
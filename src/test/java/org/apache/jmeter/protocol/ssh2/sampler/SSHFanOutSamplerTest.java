@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.protocol.ssh2.sampler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.apache.jmeter.protocol.ssh2.util.SSHClientConfig;
+import org.apache.jmeter.protocol.ssh2.util.SSHException;
+import org.junit.Test;
+
+/**
+ * The Class SSHFanOutSamplerTest checks the parsing of the host list.
+ */
+public class SSHFanOutSamplerTest {
+
+    /** The port of a target without port. */
+    private static final int DEFAULT_PORT = 22;
+
+    @Test
+    public void testGetTargets() {
+        assertEquals(Arrays.asList("web1", "web2:2222", "10.0.0.1", "[::1]:22"),
+                     SSHFanOutSampler.getTargets(" web1, web2:2222;10.0.0.1\n\t[::1]:22 ;,"));
+        assertEquals(Arrays.asList("web1"), SSHFanOutSampler.getTargets("web1"));
+    }
+
+    @Test
+    public void testGetTargetsEmpty() {
+        assertTrue(SSHFanOutSampler.getTargets(null).isEmpty());
+        assertTrue(SSHFanOutSampler.getTargets("").isEmpty());
+        assertTrue(SSHFanOutSampler.getTargets(" ,; \n").isEmpty());
+    }
+
+    @Test
+    public void testSetTargetWithoutPort() throws Exception {
+        checkTarget("web1", "web1", DEFAULT_PORT);
+        checkTarget("10.0.0.1", "10.0.0.1", DEFAULT_PORT);
+        checkTarget("::1", "::1", DEFAULT_PORT);
+        checkTarget("fe80::1:2", "fe80::1:2", DEFAULT_PORT);
+        checkTarget("[::1]", "::1", DEFAULT_PORT);
+    }
+
+    @Test
+    public void testSetTargetWithPort() throws Exception {
+        checkTarget("web1:2222", "web1", 2222);
+        checkTarget("10.0.0.1:2022", "10.0.0.1", 2022);
+        checkTarget("[::1]:2222", "::1", 2222);
+        checkTarget("[fe80::1:2]:22", "fe80::1:2", 22);
+    }
+
+    @Test
+    public void testSetTargetInvalidPort() {
+        for (String target : new String[] { "web1:", "web1:ssh", "[::1]:x" }) {
+            try {
+                SSHFanOutSampler.setTarget(newConfig(), target);
+                fail("Invalid port accepted:[" + target + "]");
+            } catch (SSHException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Checks the host name and port set for given target.
+     *
+     * @param target
+     *            the target
+     * @param hostname
+     *            the expected host name
+     * @param port
+     *            the expected port
+     * @throws SSHException
+     *             if the port is invalid.
+     */
+    private static void checkTarget(String target,
+                                    String hostname,
+                                    int port) throws SSHException
+    {
+        SSHClientConfig config = newConfig();
+        SSHFanOutSampler.setTarget(config, target);
+        assertEquals(target, hostname, config.getHostname());
+        assertEquals(target, port, config.getPort());
+    }
+
+    /**
+     * Creates a config of the default port.
+     *
+     * @return the SSH client config
+     */
+    private static SSHClientConfig newConfig() {
+        SSHClientConfig config = new SSHClientConfig();
+        config.setPort(DEFAULT_PORT);
+        return config;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.protocol.ssh2.util;
+
+import org.apache.jmeter.protocol.ssh2.util.SSHClient.SSHResult;
+
+import ch.ethz.ssh2.Connection;
+
+/**
+ * The Class SSHCipherBenchmark is a command line benchmark of the ciphers
+ * supported by both the SSH library and a server. For each cipher it measures
+ * the handshake cost (TCP connect and key exchange, then authentication) and
+ * the throughput of a command writing a large output.
+ * <p>
+ * Usage, once test classes are built with <code>mvn test-compile</code> (it is
+ * not part of the plugin jar):
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes:ganymed-ssh2.jar:&lt;jmeter lib&gt;/* \
+ *      org.apache.jmeter.protocol.ssh2.util.SSHCipherBenchmark \
+ *      host port user password [mb] [handshakes] [cipher,cipher...] [dh-group-size]
+ * </pre>
+ */
+public final class SSHCipherBenchmark {
+
+    /** The default amount of output read per cipher (in MB). */
+    private static final int DEFAULT_MB         = 16;
+
+    /** The default number of handshakes per cipher. */
+    private static final int DEFAULT_HANDSHAKES = 10;
+
+    /** The max wait for output (in ms.). */
+    private static final int MAX_WAIT           = 300000;
+
+    /**
+     * Instantiates a new SSH cipher benchmark.
+     */
+    private SSHCipherBenchmark() {
+    }
+
+    /**
+     * The main method.
+     *
+     * @param args
+     *            host port user password [mb] [handshakes] [cipher,cipher...]
+     *            [dh-group-size]
+     */
+    public static void main(String[] args) {
+        if (args.length < 4) {
+            System.err.println("Usage: SSHCipherBenchmark host port user password"
+                    + " [mb] [handshakes] [cipher,cipher...] [dh-group-size]");
+            System.exit(2);
+        }
+        int mb = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_MB;
+        int handshakes = args.length > 5 ? Integer.parseInt(args[5]) : DEFAULT_HANDSHAKES;
+        String[] ciphers = args.length > 6 ? args[6].split(",") : Connection.getAvailableCiphers();
+        int dhGroupSize = args.length > 7 ? Integer.parseInt(args[7]) : 0;
+
+        System.out.println(String.format("%-16s %12s %12s %12s", "cipher", "connect(ms)", "auth(ms)",
+                                         "MB/s"));
+        for (String cipher : ciphers) {
+            SSHClientConfig config = new SSHClientConfig();
+            config.setHostname(args[0]);
+            config.setPort(Integer.parseInt(args[1]));
+            config.setUserName(args[2]);
+            config.setPassword(args[3]);
+            config.setMaxWaitTimeForOutput(MAX_WAIT);
+            config.setCiphers(cipher);
+            config.setDhGroupSize(dhGroupSize);
+            SSHClient client = new SSHClient(config);
+            try {
+                long connectTime = 0;
+                long authTime = 0;
+                for (int i = 0; i < handshakes; i++) {
+                    SSHResult result = client.executeCmd("true");
+                    connectTime += result.getConnectTime();
+                    authTime += result.getAuthTime();
+                }
+
+                long start = System.currentTimeMillis();
+                SSHResult result = client.executeCmd("head -c " + mb * 1024L * 1024L + " /dev/zero");
+                long elapsed = Math.max(1, System.currentTimeMillis() - start - result.getAcquireTime());
+                double throughput = result.getBytesReceived() / 1024.0 / 1024.0 / (elapsed / 1000.0);
+
+                System.out.println(String.format("%-16s %12.1f %12.1f %12.1f", cipher,
+                                                 (double) connectTime / handshakes,
+                                                 (double) authTime / handshakes, throughput));
+            } catch (SSHException e) {
+                System.out.println(String.format("%-16s failed: %s", cipher,
+                                                 e.getCause() != null ? e.getCause() : e.getMessage()));
+            }
+        }
+    }
+}
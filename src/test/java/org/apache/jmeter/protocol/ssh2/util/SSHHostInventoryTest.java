@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.protocol.ssh2.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jmeter.protocol.ssh2.util.SSHHostInventory.Host;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * The Class SSHHostInventoryTest checks the parsing of inventories and the
+ * sharding of threads among their hosts.
+ */
+public class SSHHostInventoryTest {
+
+    /** The number of threads sharded. */
+    private static final int THREADS = 600;
+
+    @After
+    public void tearDown() {
+        SSHHostInventory.clear();
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        List<Host> hosts = SSHHostInventory.getInlineInventory("web1\n  web2 , 2222\n# comment\n\n"
+                + "web3,,admin\nweb4,22,root,/keys/id_rsa").getHosts();
+        assertEquals(4, hosts.size());
+        assertEquals("web1", hosts.get(0).toString());
+        assertEquals("web2:2222", hosts.get(1).toString());
+        assertEquals("admin@web3", hosts.get(2).toString());
+        assertEquals(0, hosts.get(2).getPort());
+        assertEquals("root@web4:22", hosts.get(3).toString());
+        assertEquals("/keys/id_rsa", hosts.get(3).getSshkeyfile());
+        assertNull(hosts.get(0).getSshkeyfile());
+    }
+
+    @Test
+    public void testApplyTo() throws Exception {
+        List<Host> hosts = SSHHostInventory.getInlineInventory("web1\nweb2,2222,admin,/k").getHosts();
+        SSHClientConfig config = new SSHClientConfig();
+        config.setPort(22);
+        config.setUserName("user");
+        config.setSshkeyfile("/id");
+        hosts.get(0).applyTo(config);
+        assertEquals("web1", config.getHostname());
+        assertEquals(22, config.getPort());
+        assertEquals("user", config.getUserName());
+        assertEquals("/id", config.getSshkeyfile());
+        hosts.get(1).applyTo(config);
+        assertEquals("web2", config.getHostname());
+        assertEquals(2222, config.getPort());
+        assertEquals("admin", config.getUserName());
+        assertEquals("/k", config.getSshkeyfile());
+    }
+
+    @Test
+    public void testParseInvalid() {
+        for (String content : new String[] { "", "# no host\n\n", ",22", "web1,ssh", "web1,22,user,key,extra" }) {
+            try {
+                SSHHostInventory.getInlineInventory(content);
+                fail("Invalid inventory parsed:[" + content + "]");
+            } catch (SSHException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testRoundRobin() throws Exception {
+        SSHHostInventory inventory = SSHHostInventory.getInlineInventory("web1\nweb2\nweb3");
+        List<Host> hosts = inventory.getHosts();
+        for (int i = 0; i < 7; i++) {
+            assertSame(hosts.get(i % 3), inventory.getHost("Thread " + i, SSHHostInventory.SHARDING_ROUND_ROBIN));
+        }
+        // in the order threads first asked
+        assertSame(hosts.get(2), inventory.getHost("Thread 5", " round-robin "));
+        assertSame(hosts.get(1), inventory.getHost("Thread 7", SSHHostInventory.SHARDING_ROUND_ROBIN));
+    }
+
+    @Test
+    public void testConsistentHashIsStableAndBalanced() throws Exception {
+        SSHHostInventory inventory = SSHHostInventory.getInlineInventory("web1\nweb2\nweb3");
+        Map<Host, Integer> counts = new HashMap<Host, Integer>();
+        for (int i = 0; i < THREADS; i++) {
+            Host host = inventory.getHost("Thread Group 1-" + i, null);
+            assertSame(host, inventory.getHost("Thread Group 1-" + i, SSHHostInventory.SHARDING_CONSISTENT_HASH));
+            Integer count = counts.get(host);
+            counts.put(host, Integer.valueOf(count == null ? 1 : count.intValue() + 1));
+        }
+        assertEquals(3, counts.size());
+        for (Integer count : counts.values()) {
+            assertTrue("unbalanced: " + counts, count.intValue() > THREADS / 6);
+        }
+    }
+
+    @Test
+    public void testConsistentHashMovesFewThreads() throws Exception {
+        SSHHostInventory before = SSHHostInventory.getInlineInventory("web1\nweb2\nweb3\nweb4");
+        SSHHostInventory after = SSHHostInventory.getInlineInventory("web1\nweb2\nweb3\nweb4\nweb5");
+        int moved = 0;
+        for (int i = 0; i < THREADS; i++) {
+            String from = before.getHost("Thread Group 1-" + i, null).toString();
+            String to = after.getHost("Thread Group 1-" + i, null).toString();
+            if (!from.equals(to)) {
+                // only to the added host
+                assertEquals("web5", to);
+                moved++;
+            }
+        }
+        assertTrue("moved: " + moved, moved > 0 && moved < THREADS * 2 / 5);
+    }
+
+    @Test
+    public void testSingleHost() throws Exception {
+        SSHHostInventory inventory = SSHHostInventory.getInlineInventory("web1");
+        for (int i = 0; i < THREADS; i++) {
+            assertEquals("web1", inventory.getHost("Thread Group 1-" + i, null).getHostname());
+        }
+    }
+
+    @Test
+    public void testFileReloaded() throws Exception {
+        File file = File.createTempFile("ssh2-inventory", ".txt");
+        try {
+            FileUtils.writeStringToFile(file, "web1\nweb2\n", "UTF-8");
+            SSHHostInventory inventory = SSHHostInventory.getFileInventory(file.getPath());
+            assertSame(inventory, SSHHostInventory.getFileInventory(file.getPath()));
+            assertEquals(2, inventory.getHosts().size());
+
+            FileUtils.writeStringToFile(file, "web1\nweb2\nweb3\n", "UTF-8");
+            // not checked again before the check interval
+            assertEquals(2, inventory.getHosts().size());
+            Thread.sleep(SSHHostInventory.CHECK_INTERVAL + 100);
+            assertEquals(3, inventory.getHosts().size());
+
+            // invalid content keeps the previous hosts
+            FileUtils.writeStringToFile(file, "web1,ssh\n", "UTF-8");
+            Thread.sleep(SSHHostInventory.CHECK_INTERVAL + 100);
+            assertEquals(3, inventory.getHosts().size());
+        } finally {
+            file.delete();
+        }
+    }
+}
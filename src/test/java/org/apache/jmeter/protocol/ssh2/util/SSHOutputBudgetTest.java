@@ -0,0 +1,211 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.protocol.ssh2.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.apache.jmeter.util.JMeterUtils;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * The Class SSHOutputBudgetTest checks the bytes reserved and released by
+ * readers under both budget policies.
+ */
+public class SSHOutputBudgetTest {
+
+    /** The budget (in bytes) of the tests. */
+    private static final int  BUDGET  = 100;
+
+    /** The max time (in ms.) to read output. */
+    private static final long TIMEOUT = 5000;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        File file = File.createTempFile("ssh2-jmeter", ".properties");
+        try {
+            JMeterUtils.loadJMeterProperties(file.getPath());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        SSHOutputBudget.shutdown();
+        JMeterUtils.getJMeterProperties().remove(SSHOutputBudget.BUDGET_PROPERTY);
+        JMeterUtils.getJMeterProperties().remove(SSHOutputBudget.POLICY_PROPERTY);
+    }
+
+    @Test
+    public void testUnlimited() throws Exception {
+        SSHOutputBudget budget = SSHOutputBudget.getInstance();
+        assertTrue(budget.isUnlimited());
+        ShellConsoleReader reader = newReader(true, BUDGET + 1, BUDGET + 1);
+        assertFalse(reader.readUntil(deadline()));
+        assertEquals(2 * BUDGET + 2, reader.getStdOutSize());
+        assertEquals(0, budget.getUsed());
+        assertEquals(0, budget.getHoldingReaders());
+    }
+
+    @Test
+    public void testUnknownPolicyBlocks() {
+        SSHOutputBudget budget = newBudget("unknown");
+        assertEquals(BUDGET, budget.getBudget());
+        assertEquals(SSHOutputBudget.BLOCK, budget.getPolicy());
+    }
+
+    @Test
+    public void testBlockReserveAndRelease() throws Exception {
+        SSHOutputBudget budget = newBudget(SSHOutputBudget.BLOCK);
+        ShellConsoleReader reader = newReader(true, 60);
+        assertFalse(reader.readUntil(deadline()));
+        assertEquals(60, budget.getUsed());
+        assertEquals(1, budget.getHoldingReaders());
+        reader.release();
+        assertEquals(0, budget.getUsed());
+        assertEquals(0, budget.getHoldingReaders());
+        // released once only
+        reader.release();
+        reader.reset();
+        assertEquals(0, budget.getUsed());
+        // including the bytes reserved to read EOF
+        assertEquals(BUDGET, budget.getPeakUsed());
+    }
+
+    @Test
+    public void testBlockOverdraftOfSingleReader() throws Exception {
+        SSHOutputBudget budget = newBudget(SSHOutputBudget.BLOCK);
+        ShellConsoleReader reader = newReader(true, 60, 60);
+        assertFalse(reader.readUntil(deadline()));
+        // no other reader would release budget, let it exceed the budget
+        assertEquals(120, reader.getStdOutSize());
+        assertFalse(reader.isTruncated());
+        assertEquals(1, budget.getOverdraftCount());
+        assertEquals(120, budget.getUsed());
+        reader.reset();
+        assertEquals(0, budget.getUsed());
+        assertEquals(0, budget.getHoldingReaders());
+    }
+
+    @Test
+    public void testBlockWaitsForRelease() throws Exception {
+        SSHOutputBudget budget = newBudget(SSHOutputBudget.BLOCK);
+        final ShellConsoleReader holder = newReader(true, 80);
+        assertFalse(holder.readUntil(deadline()));
+        ShellConsoleReader waiter = newReader(true, 50);
+        assertTrue(waiter.read(TIMEOUT));
+        assertEquals(20, waiter.getStdOutSize());
+        assertEquals(BUDGET, budget.getUsed());
+        assertEquals(2, budget.getHoldingReaders());
+        // the holder still reads
+        assertTrue(waiter.readFor(50));
+        assertEquals(20, waiter.getStdOutSize());
+        assertEquals(1, budget.getWaitCount());
+        assertEquals(0, budget.getWaitingReaders());
+
+        Thread releaser = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                holder.release();
+            }
+        };
+        releaser.start();
+        assertFalse(waiter.readUntil(deadline()));
+        releaser.join();
+        assertEquals(50, waiter.getStdOutSize());
+        assertEquals(50, budget.getUsed());
+        assertEquals(1, budget.getHoldingReaders());
+        assertEquals(0, budget.getOverdraftCount());
+        waiter.release();
+        assertEquals(0, budget.getUsed());
+    }
+
+    @Test
+    public void testTruncate() throws Exception {
+        SSHOutputBudget budget = newBudget(SSHOutputBudget.TRUNCATE);
+        ShellConsoleReader reader = newReader(true, 60, 60);
+        assertFalse(reader.readUntil(deadline()));
+        assertEquals(BUDGET, reader.getStdOutSize());
+        assertEquals(120, reader.getBytesReceived());
+        assertTrue(reader.isTruncated());
+        assertEquals(20, budget.getTruncatedBytes());
+        assertEquals(BUDGET, budget.getUsed());
+        assertEquals(0, budget.getWaitCount());
+        reader.reset();
+        assertFalse(reader.isTruncated());
+        assertEquals(0, budget.getUsed());
+        assertEquals(0, budget.getHoldingReaders());
+    }
+
+    /**
+     * Creates the budget of the tests.
+     *
+     * @param policy
+     *            the budget policy
+     * @return the budget
+     */
+    private static SSHOutputBudget newBudget(String policy) {
+        SSHOutputBudget.shutdown();
+        JMeterUtils.setProperty(SSHOutputBudget.BUDGET_PROPERTY, Integer.toString(BUDGET));
+        JMeterUtils.setProperty(SSHOutputBudget.POLICY_PROPERTY, policy);
+        return SSHOutputBudget.getInstance();
+    }
+
+    /**
+     * Creates a reader of chunks of standard output.
+     *
+     * @param eof
+     *            whether EOF follows the last chunk
+     * @param sizes
+     *            the sizes (in bytes) of the chunks
+     * @return the reader
+     */
+    private static ShellConsoleReader newReader(boolean eof,
+                                                int... sizes)
+    {
+        String[] chunks = new String[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            char[] chunk = new char[sizes[i]];
+            Arrays.fill(chunk, 'x');
+            chunks[i] = new String(chunk);
+        }
+        return new ShellConsoleReader(new ScriptedSSHTransportSession(eof, chunks));
+    }
+
+    /**
+     * Gets the deadline of a read.
+     *
+     * @return the deadline
+     */
+    private static long deadline() {
+        return System.currentTimeMillis() + TIMEOUT;
+    }
+}
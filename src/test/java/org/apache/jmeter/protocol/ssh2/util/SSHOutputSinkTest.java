@@ -0,0 +1,226 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.protocol.ssh2.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+/**
+ * The Class SSHOutputSinkTest checks the output sinks, mainly the ring buffer
+ * of the tail sink.
+ */
+public class SSHOutputSinkTest {
+
+    /** The number of bytes kept as preview (or tail) by the sinks under test. */
+    private static final int PREVIEW_SIZE = 8;
+
+    @Test
+    public void testMemorySinkIsNone() throws Exception {
+        assertNull(SSHOutputSink.create(newConfig(SSHOutputSink.MEMORY)));
+        assertNull(SSHOutputSink.create(newConfig(null)));
+    }
+
+    @Test
+    public void testUnknownSink() {
+        try {
+            SSHOutputSink.create(newConfig("unknown"));
+            fail("Unknown sink created");
+        } catch (SSHException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCountSinkKeepsFirstBytes() throws Exception {
+        SSHOutputSink sink = SSHOutputSink.create(newConfig(SSHOutputSink.COUNT));
+        write(sink, "abcde", "fghij", "kl");
+        assertEquals(12, sink.getSize());
+        assertEquals("abcdefgh", sink.getPreview());
+        assertNull(sink.getDigest());
+    }
+
+    @Test
+    public void testDigestSink() throws Exception {
+        SSHOutputSink sink = SSHOutputSink.create(newConfig(SSHOutputSink.MD5));
+        write(sink, "abcde", "fghij", "kl");
+        sink.close();
+        assertEquals(DigestUtils.md5Hex("abcdefghijkl"), sink.getDigest());
+        sink = SSHOutputSink.create(newConfig(SSHOutputSink.SHA256));
+        write(sink, "abcde", "fghij", "kl");
+        sink.close();
+        assertEquals(DigestUtils.sha256Hex("abcdefghijkl"), sink.getDigest());
+    }
+
+    @Test
+    public void testFileSink() throws Exception {
+        File file = File.createTempFile("ssh2-sink", ".out");
+        try {
+            SSHClientConfig config = newConfig(SSHOutputSink.FILE);
+            config.setOutputFile(file.getPath());
+            SSHOutputSink sink = SSHOutputSink.create(config);
+            write(sink, "abcde", "fghij", "kl");
+            sink.close();
+            assertEquals("abcdefgh", sink.getPreview());
+            assertEquals("abcdefghijkl", FileUtils.readFileToString(file, "US-ASCII"));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testFileSinkWithoutFile() {
+        try {
+            SSHOutputSink.create(newConfig(SSHOutputSink.FILE));
+            fail("File sink created without file");
+        } catch (SSHException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testTailSinkNotFilled() throws Exception {
+        checkTail("", new String[0]);
+        checkTail("abc", "abc");
+        checkTail("abcdefg", "abc", "defg");
+    }
+
+    @Test
+    public void testTailSinkFilledExactly() throws Exception {
+        checkTail("abcdefgh", "abcdefgh");
+        checkTail("abcdefgh", "abcd", "efgh");
+        checkTail("bcdefghi", "abcd", "efgh", "i");
+    }
+
+    @Test
+    public void testTailSinkWrapsAround() throws Exception {
+        checkTail("efghijkl", "abcde", "fghij", "kl");
+        checkTail("nopqrstu", "abcde", "fghij", "klmno", "pqrstu");
+        checkTail("hijklmno", "abcdefg", "h", "ijklmno");
+    }
+
+    @Test
+    public void testTailSinkChunkLargerThanRing() throws Exception {
+        checkTail("23456789", "0123456789");
+        checkTail("23456789", "ab", "0123456789");
+        checkTail("6789wxyz", "ab", "0123456789", "wxyz");
+    }
+
+    @Test
+    public void testTailSinkWritesFromOffset() throws Exception {
+        for (boolean offHeap : new boolean[] { false, true }) {
+            SSHOutputSink sink = SSHOutputSink.create(newTailConfig(offHeap));
+            byte[] bytes = "--abcdefghij--".getBytes("US-ASCII");
+            sink.write(bytes, 2, 3);
+            sink.write(bytes, 5, 7);
+            assertEquals(10, sink.getSize());
+            assertEquals("cdefghij", sink.getPreview());
+        }
+    }
+
+    @Test
+    public void testTailSinkReusedBufferStartsEmpty() throws Exception {
+        SSHOutputSink sink = SSHOutputSink.create(newTailConfig(true));
+        write(sink, "0123456789");
+        // the next off heap sink of this thread reuses the direct buffer
+        sink = SSHOutputSink.create(newTailConfig(true));
+        write(sink, "xy");
+        assertEquals("xy", sink.getPreview());
+    }
+
+    /**
+     * Checks the preview of tail sinks, on and off heap, after given writes.
+     *
+     * @param expected
+     *            the expected preview
+     * @param chunks
+     *            the chunks written in turn
+     * @throws Exception
+     *             the exception
+     */
+    private static void checkTail(String expected,
+                                  String... chunks) throws Exception
+    {
+        for (boolean offHeap : new boolean[] { false, true }) {
+            SSHOutputSink sink = SSHOutputSink.create(newTailConfig(offHeap));
+            long size = write(sink, chunks);
+            assertEquals(size, sink.getSize());
+            assertEquals("offHeap=" + offHeap, expected, sink.getPreview());
+            // the preview does not move the ring buffer
+            assertEquals("offHeap=" + offHeap, expected, sink.getPreview());
+        }
+    }
+
+    /**
+     * Writes chunks to a sink.
+     *
+     * @param sink
+     *            the sink
+     * @param chunks
+     *            the chunks written in turn
+     * @return the number of bytes written
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private static long write(SSHOutputSink sink,
+                              String... chunks) throws IOException
+    {
+        long size = 0;
+        for (String chunk : chunks) {
+            byte[] bytes = chunk.getBytes("US-ASCII");
+            sink.write(bytes, 0, bytes.length);
+            size += bytes.length;
+        }
+        return size;
+    }
+
+    /**
+     * Creates the config of a sink keeping {@link #PREVIEW_SIZE} bytes.
+     *
+     * @param outputSink
+     *            the output sink
+     * @return the SSH client config
+     */
+    private static SSHClientConfig newConfig(String outputSink) {
+        SSHClientConfig config = new SSHClientConfig();
+        config.setOutputSink(outputSink);
+        config.setOutputPreviewSize(PREVIEW_SIZE);
+        return config;
+    }
+
+    /**
+     * Creates the config of a tail sink keeping {@link #PREVIEW_SIZE} bytes.
+     *
+     * @param offHeap
+     *            whether the ring buffer is off heap
+     * @return the SSH client config
+     */
+    private static SSHClientConfig newTailConfig(boolean offHeap) {
+        SSHClientConfig config = newConfig(SSHOutputSink.TAIL);
+        config.setOutputOffHeap(offHeap);
+        return config;
+    }
+}
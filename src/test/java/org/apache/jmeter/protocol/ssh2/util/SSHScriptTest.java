@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.protocol.ssh2.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.regex.Matcher;
+
+import org.apache.jmeter.protocol.ssh2.util.SSHScript.Step;
+import org.junit.Test;
+
+/**
+ * The Class SSHScriptTest checks the script compilation and the step markers
+ * recovering step boundaries from a non interactive shell output.
+ */
+public class SSHScriptTest {
+
+    /** The step marker command, as sent after each step. */
+    private static final String MARKER = "__jmssh2_rc=$?; echo \"__JMSSH2\"\"_STEP_${__jmssh2_rc}__\"";
+
+    /** The abort command, as sent after each command step. */
+    private static final String ABORT  = "; [ $__jmssh2_rc -eq 0 ] || exit $__jmssh2_rc";
+
+    @Test
+    public void testCompileSkipsBlankAndCommentLines() throws Exception {
+        List<Step> steps = SSHScript.compile("# comment\r\necho one\n\n   \r\ncd /tmp\r\n#echo no\n", false).getSteps();
+        assertEquals(2, steps.size());
+        assertEquals("echo one", steps.get(0).getCommand());
+        assertEquals("cd /tmp", steps.get(1).getCommand());
+        assertFalse(steps.get(0).isWait());
+        assertEquals("echo one\n", new String(steps.get(0).getCommandBytes(), "UTF-8"));
+    }
+
+    @Test
+    public void testCompileWaitCommand() throws Exception {
+        List<Step> steps = SSHScript.compile("echo one\nwait 3\necho two", true).getSteps();
+        assertEquals(3, steps.size());
+        assertTrue(steps.get(1).isWait());
+        assertNull(steps.get(1).getCommand());
+        assertNull(steps.get(1).getMarkedCommandBytes());
+        assertEquals(3000, steps.get(1).getWaitTime());
+
+        // ignored when disabled
+        steps = SSHScript.compile("echo one\nwait 3\necho two", false).getSteps();
+        assertEquals(2, steps.size());
+        assertEquals("echo two", steps.get(1).getCommand());
+    }
+
+    @Test
+    public void testCompileInvalidWaitCommand() {
+        for (String script : new String[] { "wait ", "wait x", "echo one\nwait 1.5" }) {
+            try {
+                SSHScript.compile(script, true);
+                fail("Compiled invalid wait command:[" + script + "]");
+            } catch (SSHException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testCompileIsCached() throws Exception {
+        SSHScript.clearCache();
+        SSHScript script = SSHScript.compile("echo one\nwait 1", true);
+        assertSame(script, SSHScript.compile("echo one\nwait 1", true));
+        assertNotSame(script, SSHScript.compile("echo one\nwait 1", false));
+        SSHScript.clearCache();
+        assertNotSame(script, SSHScript.compile("echo one\nwait 1", true));
+    }
+
+    @Test
+    public void testMarkedCommandBytes() throws Exception {
+        Step step = SSHScript.compile("false", false).getSteps().get(0);
+        assertEquals("false\n" + MARKER + "\n", new String(step.getMarkedCommandBytes(), "UTF-8"));
+    }
+
+    @Test
+    public void testPipelinedBytes() throws Exception {
+        SSHScript script = SSHScript.compile("echo one\nwait 2\nfalse", true);
+        assertEquals("echo one\n" + MARKER + "\n" + "sleep 2\n" + MARKER + "\n" + "false\n" + MARKER + "\n",
+                     new String(script.getPipelinedBytes(false), "UTF-8"));
+        assertEquals("echo one\n" + MARKER + ABORT + "\n" + "sleep 2\n" + MARKER + "\n" + "false\n" + MARKER
+                     + ABORT + "\n", new String(script.getPipelinedBytes(true), "UTF-8"));
+        // computed once
+        assertSame(script.getPipelinedBytes(false), script.getPipelinedBytes(false));
+        assertSame(script.getPipelinedBytes(true), script.getPipelinedBytes(true));
+    }
+
+    @Test
+    public void testNonAsciiEncodedAsCommands() throws Exception {
+        // whatever the platform default charset
+        byte[] bytes = SSHScript.encode("echo \u00e9t\u00e9");
+        assertEquals(11, bytes.length);
+        assertEquals("echo \u00e9t\u00e9\n", new String(bytes, "UTF-8"));
+        byte[] pipelined = SSHScript.compile("echo \u00e9t\u00e9", false).getPipelinedBytes(false);
+        assertEquals("echo \u00e9t\u00e9\n" + MARKER + "\n", new String(pipelined, "UTF-8"));
+        assertEquals(bytes.length + MARKER.length() + 1, pipelined.length);
+    }
+
+    @Test
+    public void testStepMarkerPattern() {
+        Matcher matcher = SSHScript.STEP_MARKER_PATTERN.matcher("one\n__JMSSH2_STEP_0__\n__JMSSH2_STEP_127__\r\n");
+        assertTrue(matcher.find());
+        assertEquals("0", matcher.group(1));
+        assertEquals(4, matcher.start());
+        assertTrue(matcher.find());
+        assertEquals("127", matcher.group(1));
+        assertFalse(matcher.find());
+    }
+
+    @Test
+    public void testStepMarkerCommandEchoIsNotMarker() {
+        // a terminal echoing the marker command must not end the step
+        assertFalse(SSHScript.STEP_MARKER_PATTERN.matcher("$ " + MARKER + "\r\n").find());
+        assertFalse(SSHScript.STEP_MARKER_PATTERN.matcher("__JMSSH2_STEP_${__jmssh2_rc}__\n").find());
+    }
+}
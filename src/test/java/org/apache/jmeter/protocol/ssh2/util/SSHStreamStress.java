@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.protocol.ssh2.util;
+
+import org.apache.jmeter.protocol.ssh2.util.SSHClient.SSHResult;
+
+/**
+ * The Class SSHStreamStress is a command line stress check of output reading.
+ * It runs a command which interleaves large outputs on standard output and
+ * standard error and verifies that all output is read well before the max
+ * wait time, i.e. that neither stream stalls the channel window.
+ * <p>
+ * Usage, once test classes are built with <code>mvn test-compile</code> (it is
+ * not part of the plugin jar):
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes:ganymed-ssh2.jar:&lt;jmeter lib&gt;/* \
+ *      org.apache.jmeter.protocol.ssh2.util.SSHStreamStress \
+ *      host port user password [kb-per-stream] [max-wait-ms]
+ * </pre>
+ *
+ * Exits with status 0 if the check passed, 1 otherwise.
+ */
+public final class SSHStreamStress {
+
+    /** The default amount of output per stream (in KB). */
+    private static final int DEFAULT_KB_PER_STREAM = 4096;
+
+    /** The default max wait for output (in ms.). */
+    private static final int DEFAULT_MAX_WAIT      = 60000;
+
+    /**
+     * Instantiates a new SSH stream stress.
+     */
+    private SSHStreamStress() {
+    }
+
+    /**
+     * Gets the shell command writing given amount of output alternately on
+     * standard output and standard error, one KB at a time.
+     *
+     * @param kbPerStream
+     *            the amount of output per stream (in KB)
+     * @return the command
+     */
+    public static String getStressCommand(int kbPerStream) {
+        return "i=0; while [ $i -lt " + kbPerStream + " ]; do"
+                + " head -c 1024 /dev/zero | tr '\\000' o;"
+                + " head -c 1024 /dev/zero | tr '\\000' e 1>&2;"
+                + " i=$((i+1)); done";
+    }
+
+    /**
+     * The main method.
+     *
+     * @param args
+     *            host port user password [kb-per-stream] [max-wait-ms]
+     * @throws Exception
+     *             on connection failure
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            System.err.println("Usage: SSHStreamStress host port user password"
+                    + " [kb-per-stream] [max-wait-ms]");
+            System.exit(2);
+        }
+        int kbPerStream = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_KB_PER_STREAM;
+        int maxWait = args.length > 5 ? Integer.parseInt(args[5]) : DEFAULT_MAX_WAIT;
+
+        SSHClientConfig config = new SSHClientConfig();
+        config.setHostname(args[0]);
+        config.setPort(Integer.parseInt(args[1]));
+        config.setUserName(args[2]);
+        config.setPassword(args[3]);
+        config.setMaxWaitTimeForOutput(maxWait);
+
+        long start = System.currentTimeMillis();
+        SSHResult result = new SSHClient(config).executeCmd(getStressCommand(kbPerStream));
+        long elapsed = System.currentTimeMillis() - start;
+
+        long expected = kbPerStream * 1024L;
+        int stdOut = result.getStdOut().length();
+        int stdErr = result.getStdErr().length();
+        boolean passed = stdOut == expected && stdErr == expected && elapsed < maxWait
+                && Integer.valueOf(0).equals(result.getExitStatus());
+        System.out.println("stdout=" + stdOut + " stderr=" + stdErr + " expected=" + expected
+                + " exitStatus=" + result.getExitStatus() + " elapsed=" + elapsed + "ms maxWait="
+                + maxWait + "ms : " + (passed ? "PASSED" : "FAILED"));
+        System.exit(passed ? 0 : 1);
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.protocol.ssh2.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * The Class ScriptedSSHTransportSession is a session whose standard output
+ * arrives in given chunks, one per wait for a channel condition, followed by
+ * EOF if requested. Once all chunks have arrived without EOF, waits time out.
+ */
+class ScriptedSSHTransportSession implements SSHTransportSession {
+
+    /** The charset mapping each char to one byte. */
+    private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+
+    /** The standard output chunks. */
+    private final String[]       chunks;
+
+    /** Whether EOF follows the last chunk. */
+    private final boolean        eof;
+
+    /** The standard output arrived so far. */
+    private final ChunkStream    stdout;
+
+    /** The number of chunks arrived. */
+    private int                  arrived;
+
+    /**
+     * Instantiates a new scripted SSH transport session.
+     *
+     * @param eof
+     *            whether EOF follows the last chunk
+     * @param chunks
+     *            the standard output chunks
+     */
+    ScriptedSSHTransportSession(boolean eof,
+                                String... chunks)
+    {
+        this.chunks = chunks;
+        this.eof = eof;
+        StringBuilder sb = new StringBuilder();
+        for (String chunk : chunks) {
+            sb.append(chunk);
+        }
+        this.stdout = new ChunkStream(sb.toString().getBytes(LATIN1));
+    }
+
+    /**
+     * Gets the number of chunks arrived.
+     *
+     * @return the chunks arrived
+     */
+    int getArrived() {
+        return arrived;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportSession#waitForCondition(int, long)
+     */
+    public synchronized int waitForCondition(int conditions,
+                                             long timeout)
+    {
+        if (stdout.available() > 0) {
+            return STDOUT_DATA;
+        }
+        if (arrived < chunks.length) {
+            stdout.arrive(chunks[arrived++].length());
+            return STDOUT_DATA;
+        }
+        if (eof) {
+            return EOF | CLOSED;
+        }
+        try {
+            Thread.sleep(Math.min(timeout, 10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return TIMEOUT;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportSession#getStdout()
+     */
+    public InputStream getStdout() {
+        return stdout;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportSession#getStderr()
+     */
+    public InputStream getStderr() {
+        return new ByteArrayInputStream(new byte[0]);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportSession#getStdin()
+     */
+    public OutputStream getStdin() {
+        return new ByteArrayOutputStream();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportSession#requestPTY(java.lang.String, int, int)
+     */
+    public void requestPTY(String term,
+                           int columns,
+                           int rows)
+    {
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportSession#execCommand(java.lang.String)
+     */
+    public void execCommand(String cmd) {
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportSession#startShell()
+     */
+    public void startShell() {
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportSession#getExitStatus()
+     */
+    public Integer getExitStatus() {
+        return eof && arrived == chunks.length ? Integer.valueOf(0) : null;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportSession#getExitSignal()
+     */
+    public String getExitSignal() {
+        return null;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.apache.jmeter.protocol.ssh2.util.SSHTransportSession#close()
+     */
+    public void close() {
+    }
+
+    /**
+     * The Class ChunkStream is a stream of the bytes arrived so far, which
+     * never blocks.
+     */
+    private static class ChunkStream extends InputStream {
+
+        /** All bytes. */
+        private final byte[] data;
+
+        /** The number of bytes arrived. */
+        private int          limit;
+
+        /** The number of bytes read. */
+        private int          position;
+
+        /**
+         * Instantiates a new chunk stream.
+         *
+         * @param data
+         *            all bytes
+         */
+        ChunkStream(byte[] data) {
+            this.data = data;
+        }
+
+        /**
+         * Makes more bytes arrive.
+         *
+         * @param length
+         *            the number of bytes arrived
+         */
+        synchronized void arrive(int length) {
+            limit += length;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.io.InputStream#available()
+         */
+        @Override
+        public synchronized int available() {
+            return limit - position;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.io.InputStream#read()
+         */
+        @Override
+        public synchronized int read() {
+            return position < limit ? data[position++] & 0xff : -1;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.io.InputStream#read(byte[], int, int)
+         */
+        @Override
+        public synchronized int read(byte[] b,
+                                     int off,
+                                     int len)
+        {
+            if (position >= limit) {
+                return -1;
+            }
+            int read = Math.min(len, limit - position);
+            System.arraycopy(data, position, b, off, read);
+            position += read;
+            return read;
+        }
+    }
+}
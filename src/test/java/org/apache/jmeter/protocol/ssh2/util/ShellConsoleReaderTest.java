@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.protocol.ssh2.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.regex.MatchResult;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+/**
+ * The Class ShellConsoleReaderTest checks the incremental matching of the
+ * output as it arrives in chunks.
+ */
+public class ShellConsoleReaderTest {
+
+    /** The prompt pattern. */
+    private static final Pattern PROMPT     = Pattern.compile("__PROMPT_(\\d+)__ ");
+
+    /** The max length of a prompt. */
+    private static final int     MAX_LENGTH = 32;
+
+    /** The max time (in ms.) to wait for a match. */
+    private static final long    TIMEOUT    = 5000;
+
+    @Test
+    public void testMatchInOneChunk() throws Exception {
+        ShellConsoleReader reader = newReader(true, "output\n__PROMPT_0__ ");
+        MatchResult match = reader.readUntilMatch(PROMPT, 0, MAX_LENGTH, deadline());
+        assertNotNull(match);
+        assertEquals(7, match.start());
+        assertEquals(20, match.end());
+        assertEquals("0", match.group(1));
+        assertEquals(7, match.start(1) - "__PROMPT_".length());
+        assertEquals("__PROMPT_0__ ", match.group());
+    }
+
+    @Test
+    public void testMatchSpanningChunksAtEachSplit() throws Exception {
+        String output = "some output\nmore output\n__PROMPT_12__ ";
+        for (int split = 1; split < output.length(); split++) {
+            ShellConsoleReader reader = newReader(true, output.substring(0, split), output.substring(split));
+            MatchResult match = reader.readUntilMatch(PROMPT, 0, MAX_LENGTH, deadline());
+            assertNotNull("split at " + split, match);
+            assertEquals("split at " + split, 24, match.start());
+            assertEquals("split at " + split, "12", match.group(1));
+        }
+    }
+
+    @Test
+    public void testMatchSpanningManyChunks() throws Exception {
+        String output = "some output\n__PROMPT_3__ ";
+        String[] chunks = new String[output.length()];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = output.substring(i, i + 1);
+        }
+        ScriptedSSHTransportSession session = new ScriptedSSHTransportSession(false, chunks);
+        ShellConsoleReader reader = new ShellConsoleReader(session);
+        MatchResult match = reader.readUntilMatch(PROMPT, 0, MAX_LENGTH, deadline());
+        assertNotNull(match);
+        assertEquals(12, match.start());
+        assertEquals(chunks.length, session.getArrived());
+    }
+
+    @Test
+    public void testFirstMatchFromOffset() throws Exception {
+        ShellConsoleReader reader = newReader(true, "__PROMPT_1__ echo\n", "out\n__PROMPT_2__ ", "__PROMPT_3__ ");
+        MatchResult first = reader.readUntilMatch(PROMPT, 0, MAX_LENGTH, deadline());
+        assertEquals("1", first.group(1));
+        int from = first.end();
+        MatchResult second = reader.readUntilMatch(PROMPT, from, MAX_LENGTH, deadline());
+        assertEquals("2", second.group(1));
+        // offsets relative to from
+        assertEquals(9, second.start());
+        assertEquals("echo\nout\n", reader.getStdOut(from, from + second.start()));
+    }
+
+    @Test
+    public void testMatchLongerThanMaxLengthMissed() throws Exception {
+        Pattern pattern = Pattern.compile("X\\d+Y");
+        // rescanned from the last 4 bytes already scanned only
+        assertNull(newReader(true, "X0123456789", "Y").readUntilMatch(pattern, 0, 4, deadline()));
+        MatchResult match = newReader(true, "X0123456789", "Y").readUntilMatch(pattern, 0, 11, deadline());
+        assertNotNull(match);
+        assertEquals(0, match.start());
+        // found at once in one chunk, whatever its length
+        assertNotNull(newReader(true, "X0123456789Y").readUntilMatch(pattern, 0, 4, deadline()));
+    }
+
+    @Test
+    public void testContextByteVisibleToLookBehind() throws Exception {
+        // rescan starts at byte 9, byte 8 is the context
+        Pattern pattern = Pattern.compile("(?<=x)\n\\$ ");
+        MatchResult match = newReader(true, "xxxxxxxxx\n", "$ ").readUntilMatch(pattern, 0, 1, deadline());
+        assertNotNull(match);
+        assertEquals(9, match.start());
+    }
+
+    @Test
+    public void testRescanStartIsNotInputStart() throws Exception {
+        Pattern pattern = Pattern.compile("^\\$ ");
+        assertNull(newReader(true, "abc", "$ ").readUntilMatch(pattern, 0, 1, deadline()));
+        assertNotNull(newReader(true, "$ ", "abc").readUntilMatch(pattern, 0, 1, deadline()));
+    }
+
+    @Test
+    public void testNoMatchBeforeEof() throws Exception {
+        ShellConsoleReader reader = newReader(true, "output\n", "__PROMPT_x__ ");
+        assertNull(reader.readUntilMatch(PROMPT, 0, MAX_LENGTH, deadline()));
+        assertTrue(reader.isEof());
+        assertEquals("output\n__PROMPT_x__ ", reader.getStdOut());
+    }
+
+    @Test
+    public void testNoMatchBeforeDeadline() throws Exception {
+        ShellConsoleReader reader = newReader(false, "output\n");
+        long start = System.currentTimeMillis();
+        assertNull(reader.readUntilMatch(PROMPT, 0, MAX_LENGTH, start + 100));
+        assertTrue(System.currentTimeMillis() - start >= 100);
+        assertFalse(reader.isEof());
+    }
+
+    /**
+     * Creates a reader of given chunks of standard output.
+     *
+     * @param eof
+     *            whether EOF follows the last chunk
+     * @param chunks
+     *            the chunks
+     * @return the reader
+     */
+    private static ShellConsoleReader newReader(boolean eof,
+                                                String... chunks)
+    {
+        return new ShellConsoleReader(new ScriptedSSHTransportSession(eof, chunks));
+    }
+
+    /**
+     * Gets the deadline of a match.
+     *
+     * @return the deadline
+     */
+    private static long deadline() {
+        return System.currentTimeMillis() + TIMEOUT;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jmeter.protocol.ssh2.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+/**
+ * The Class TerminalOutputFilterTest checks the removal of escape sequences
+ * and carriage returns, whole and split across reads.
+ */
+public class TerminalOutputFilterTest {
+
+    /** The charset mapping each byte to one char. */
+    private static final Charset LATIN1   = Charset.forName("ISO-8859-1");
+
+    /** The output of a command run in a PTY, as received. */
+    private static final String  TERMINAL = "\u001b]0;u@host: ~\u0007\u001b[?2004h$ ls\r\n\u001b[?2004l\r"
+                                            + "\u001b[01;34mdir\u001b[0m  file\r\n\u001b(B\u001b[m"
+                                            + "\u001b]2;title\u001b\\\u001b=done\r\n";
+
+    /** The output of {@link #TERMINAL} once filtered. */
+    private static final String  FILTERED = "$ ls\ndir  file\ndone\n";
+
+    @Test
+    public void testTextKept() {
+        assertEquals("echo one\ttwo", filter(new TerminalOutputFilter(), "echo one\ttwo"));
+    }
+
+    @Test
+    public void testCarriageReturns() {
+        assertEquals("one\ntwo\n", filter(new TerminalOutputFilter(), "one\r\ntwo\r\n"));
+        // at line start
+        assertEquals("one\ntwo", filter(new TerminalOutputFilter(), "\rone\n\rtwo"));
+        // within a line
+        assertEquals("50%\r100%", filter(new TerminalOutputFilter(), "50%\r100%"));
+    }
+
+    @Test
+    public void testCarriageReturnSplitAcrossReads() {
+        TerminalOutputFilter filter = new TerminalOutputFilter();
+        assertEquals("one", filter(filter, "one\r"));
+        assertEquals("\ntwo", filter(filter, "\ntwo"));
+        assertEquals("", filter(filter, "\r"));
+        assertEquals("\rthree", filter(filter, "three"));
+    }
+
+    @Test
+    public void testEscapeSequencesDropped() {
+        // CSI: colors, bracketed paste mode
+        assertEquals("green.", filter(new TerminalOutputFilter(), "\u001b[01;32mgreen\u001b[0m."));
+        assertEquals("$ ", filter(new TerminalOutputFilter(), "\u001b[?2004h$ "));
+        // OSC ended by BEL or by ESC \
+        assertEquals("$ ", filter(new TerminalOutputFilter(), "\u001b]0;u@host: ~\u0007$ "));
+        assertEquals("x", filter(new TerminalOutputFilter(), "\u001b]0;title\u001b\\x"));
+        assertEquals("x", filter(new TerminalOutputFilter(), "\u001b]0;a\u001b\u001b\\x"));
+        // character set selection, two byte sequence
+        assertEquals("x", filter(new TerminalOutputFilter(), "\u001b(Bx"));
+        assertEquals("x", filter(new TerminalOutputFilter(), "\u001b=x"));
+    }
+
+    @Test
+    public void testTerminalOutput() {
+        assertEquals(FILTERED, filter(new TerminalOutputFilter(), TERMINAL));
+    }
+
+    @Test
+    public void testSplitAtEachByte() {
+        for (int split = 0; split <= TERMINAL.length(); split++) {
+            TerminalOutputFilter filter = new TerminalOutputFilter();
+            String filtered = filter(filter, TERMINAL.substring(0, split)) + filter(filter, TERMINAL.substring(split));
+            assertEquals("split at " + split, FILTERED, filtered);
+        }
+    }
+
+    @Test
+    public void testByteByByte() {
+        TerminalOutputFilter filter = new TerminalOutputFilter();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < TERMINAL.length(); i++) {
+            sb.append(filter(filter, TERMINAL.substring(i, i + 1)));
+        }
+        assertEquals(FILTERED, sb.toString());
+    }
+
+    @Test
+    public void testFilterFromOffset() {
+        byte[] in = "--\u001b[1mab\r\n--".getBytes(LATIN1);
+        byte[] out = new byte[in.length + 1];
+        int kept = new TerminalOutputFilter().filter(in, 2, in.length - 4, out);
+        assertEquals("ab\n", new String(out, 0, kept, LATIN1));
+    }
+
+    /**
+     * Filters a chunk.
+     *
+     * @param filter
+     *            the filter
+     * @param chunk
+     *            the chunk received
+     * @return the bytes kept
+     */
+    private static String filter(TerminalOutputFilter filter,
+                                 String chunk)
+    {
+        byte[] in = chunk.getBytes(LATIN1);
+        byte[] out = new byte[in.length + 1];
+        int kept = filter.filter(in, 0, in.length, out);
+        return new String(out, 0, kept, LATIN1);
+    }
+}